@@ -7,242 +7,956 @@
  */
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
-import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraph;
 
 public class AStar
 {
-    private Comparator<AStarNode> compHeuristic = new ASNHeuristicComparator();
-    private Comparator<AStarNode> compCost      = new ASNCostComparator();
+    private Comparator<AStarNode> compCost = new ASNCostComparator();
 
-    private HeuristicType heuristic;
+    private final HeuristicType     heuristic;
+    private final SearchDirection   direction;
+    private final Landmarks         landmarks;
+    private final WeightOverlay     overlay;         // live weights, null for the weights of the graph
+    private final AlternativeRoutes alternatives;    // engine of the open search
+    private final TurnSearch        turnSearch;      // engine of the strict search with turn costs, null without
+
+    // search state is per thread, so one instance can serve parallel queries;
+    // consecutive searches of a thread on the same graph reuse it
+    private final ThreadLocal<SearchSets> sets = new ThreadLocal<SearchSets>();
 
     public enum HeuristicType
     {
-        EuclideanDistance, Manhattan
+        EuclideanDistance, Manhattan, Landmarks
     }
 
     public enum SearchType
     {
         strict,        // resulting path(s) will have same cost
-        open           // returns up to 5 paths, higher cost is allowed
+        open           // returns up to 5 diverse paths, higher cost is allowed (see AlternativeRoutes)
+    }
+
+    public enum SearchDirection
+    {
+        forward,       // from the start towards all targets
+        reverse,       // from all targets at once towards the start, along the incoming arcs
+        automatic      // reverse for more than one target, else forward
     }
 
     public AStar( HeuristicType heuristic )
     {
+        this( heuristic, SearchDirection.forward );
+    }
+
+    public AStar( HeuristicType heuristic, SearchDirection direction )
+    {
+        this( heuristic, direction, null );
+    }
+
+    /**
+     * @param heuristic
+     * @param direction
+     * @param landmarks: tables for {@link HeuristicType#Landmarks}, computed on the searched graph
+     */
+    public AStar( HeuristicType heuristic, SearchDirection direction, Landmarks landmarks )
+    {
+        this( heuristic, direction, landmarks, null );
+    }
+
+    /**
+     * @param heuristic
+     * @param direction
+     * @param landmarks: tables for {@link HeuristicType#Landmarks}, computed on the searched graph
+     * @param overlay:   live weights of the searched graph, every query uses the version
+     *                   published when it starts; null for the weights of the graph
+     */
+    public AStar( HeuristicType heuristic, SearchDirection direction, Landmarks landmarks, WeightOverlay overlay )
+    {
+        this( heuristic, direction, landmarks, overlay, null );
+    }
+
+    /**
+     * With turn costs the strict searches run edge based on {@link TurnSearch},
+     * forward from all sources at once, whatever the direction; they use the
+     * straight line bound and the landmarks if given. Open and time
+     * dependent searches ignore turn costs.
+     *
+     * @param heuristic
+     * @param direction
+     * @param landmarks: tables for {@link HeuristicType#Landmarks}, computed on the searched graph
+     * @param overlay:   live weights of the searched graph, every query uses the version
+     *                   published when it starts; null for the weights of the graph
+     * @param turns:     turn restrictions and costs of the searched graph, may be null
+     */
+    public AStar( HeuristicType heuristic, SearchDirection direction, Landmarks landmarks, WeightOverlay overlay, TurnCosts turns )
+    {
+        if ( heuristic == HeuristicType.Landmarks && landmarks == null )
+            throw new IllegalArgumentException( "Landmark heuristic requires landmark tables" );
+
         this.heuristic = heuristic;
+        this.direction = direction;
+        this.landmarks = landmarks;
+        this.overlay = overlay;
+        this.alternatives = new AlternativeRoutes( landmarks );
+        this.turnSearch = turns == null ? null : new TurnSearch( turns, landmarks );
     }
 
-    public List<AStarNode> findPaths( Node start, List<Node> target, MutableValueGraph<Node, Double> g, SearchType searchType )
+    /**
+     * @return number of nodes expanded by the last search of the calling thread,
+     *         search states with turn costs
+     */
+    public int getExpandedNodes()
     {
-        List<AStarNode> searchFrontier = new ArrayList<AStarNode>();
-        searchFrontier.add( new AStarNode( start, java.util.Collections.emptyList(), 0, 0, target ) );
-        return search( searchFrontier, target, g, searchType );
+        if ( this.turnSearch != null )
+            return this.turnSearch.getExpandedStates();
+
+        SearchSets sets = this.sets.get();
+        return sets == null ? 0 : sets.expandedNodes;
+    }
+
+    /**
+     * Convenience overload freezing the builder side graph on every call.
+     * Prefer {@link #findPaths(Node, List, CompactGraph, SearchType)} with
+     * {@link Map#getCompactGraph()}.
+     */
+    public List<AStarNode> findPaths( Node start, List<Node> target, ValueGraph<Node, Double> g, SearchType searchType )
+    {
+        List<Node> allNodes = new ArrayList<Node>();
+        for ( Node n : g.nodes() )
+        {
+            while ( allNodes.size() <= n.getIndex() )
+                allNodes.add( null );
+            allNodes.set( n.getIndex(), n );
+        }
+        return findPaths( start, target, CompactGraph.freeze( g, allNodes, Projection.of( allNodes ) ), searchType );
+    }
+
+    /**
+     * Finds the path(s) from start to the closest target(s). In reverse
+     * direction the search runs from all targets at once towards start,
+     * so the heuristic only depends on the distance to start. Returned
+     * paths always lead from start to a target.
+     *
+     * @param start
+     * @param target
+     * @param g
+     * @param searchType
+     * @return paths sorted by cost
+     */
+    public List<AStarNode> findPaths( Node start, List<Node> target, CompactGraph g, SearchType searchType )
+    {
+        SearchSets sets = searchSets( g );
+
+        if ( searchType == SearchType.open )
+            return toAStarNodes( this.alternatives.find( start, target, g, sets.weights ), g, sets.weights );
+
+        return findPaths( sets, RoadPosition.of( start ), positions( target ), g );
+    }
+
+    /**
+     * Finds the path(s) between positions on the road, e.g. snapped by
+     * {@link Map#locateClientOnRoad(String[])}. Paths from or to a
+     * position between two map nodes start or end at its virtual node and
+     * include the partial cost of its segment. The open search starts and ends at the closer map node
+     * of each segment.
+     *
+     * @param start
+     * @param target
+     * @param g
+     * @param searchType
+     * @return paths sorted by cost
+     */
+    public List<AStarNode> findPaths( RoadPosition start, List<RoadPosition> target, CompactGraph g, SearchType searchType )
+    {
+        SearchSets sets = searchSets( g );
+
+        if ( searchType == SearchType.open )
+        {
+            List<Node> nearest = new ArrayList<Node>( target.size() );
+            for ( RoadPosition t : target )
+            {
+                nearest.add( g.getNode( t.getNearestIndex() ) );
+            }
+            return toAStarNodes( this.alternatives.find( g.getNode( start.getNearestIndex() ), nearest, g, sets.weights ), g, sets.weights );
+        }
+        return findPaths( sets, start, target, g );
+    }
+
+    /**
+     * Time dependent search: path costs are travel times in seconds for a
+     * departure at the given time, with the traffic speeds of profiles.
+     * The search always runs forward, as travel times depend on the time
+     * a node is reached. The heuristics divide their distance bounds by
+     * the highest speed of profiles, so they stay admissible.
+     *
+     * @param start
+     * @param target
+     * @param g
+     * @param profiles:  speeds of the roads of g
+     * @param departure: seconds since midnight
+     * @return fastest path(s) sorted by travel time
+     */
+    public List<AStarNode> findPaths( RoadPosition start, List<RoadPosition> target, CompactGraph g, SpeedProfiles profiles, double departure )
+    {
+        SearchSets sets = searchSets( g );
+
+        sets.profiles = profiles;
+        sets.departure = departure;
+        sets.heuristicScale = 1 / profiles.getMaxSpeed();
+        return search( sets, Collections.singletonList( start ), target, g );
+    }
+
+    /**
+     * @param start
+     * @param target
+     * @param g
+     * @param profiles:  speeds of the roads of g
+     * @param departure: seconds since midnight
+     * @return fastest path(s) sorted by travel time
+     * @see #findPaths(RoadPosition, List, CompactGraph, SpeedProfiles, double)
+     */
+    public List<AStarNode> findPaths( Node start, List<Node> target, CompactGraph g, SpeedProfiles profiles, double departure )
+    {
+        return findPaths( RoadPosition.of( start ), positions( target ), g, profiles, departure );
+    }
+
+    private List<AStarNode> findPaths( SearchSets sets, RoadPosition start, List<RoadPosition> target, CompactGraph g )
+    {
+        if ( this.turnSearch != null )
+            return toAStarNodes( this.turnSearch.find( Collections.singletonList( start ), target, g, sets.weights ), g, sets.weights );
+
+        boolean reverse = this.direction == SearchDirection.reverse
+                || ( this.direction == SearchDirection.automatic && target.size() > 1 );
+
+        if ( !reverse )
+            return search( sets, Collections.singletonList( start ), target, g );
+
+        sets.reverse = true;
+        return reversePaths( search( sets, target, Collections.singletonList( start ), g ) );
+    }
+
+    /**
+     * Finds the path(s) from the closest source(s) to target, e.g. from
+     * the taxis to a client, by one search from target along the incoming
+     * arcs, whatever the direction of this instance. Returned paths lead
+     * from a source to target.
+     *
+     * @param source
+     * @param target
+     * @param g
+     * @return paths sorted by cost
+     */
+    public List<AStarNode> findPathsTo( List<RoadPosition> source, RoadPosition target, CompactGraph g )
+    {
+        SearchSets sets = searchSets( g );
+
+        if ( this.turnSearch != null )
+            return toAStarNodes( this.turnSearch.find( source, Collections.singletonList( target ), g, sets.weights ), g, sets.weights );
+
+        sets.reverse = true;
+        return reversePaths( search( sets, Collections.singletonList( target ), source, g ) );
+    }
+
+    /**
+     * @param source
+     * @param target
+     * @param g
+     * @return paths sorted by cost
+     * @see #findPathsTo(List, RoadPosition, CompactGraph)
+     */
+    public List<AStarNode> findPathsTo( List<Node> source, Node target, CompactGraph g )
+    {
+        return findPathsTo( positions( source ), RoadPosition.of( target ), g );
+    }
+
+    /**
+     * @param paths: paths of a search along the incoming arcs
+     * @return the same paths in driving direction
+     */
+    private List<AStarNode> reversePaths( List<AStarNode> paths )
+    {
+        for ( int i = 0; i < paths.size(); i++ )
+        {
+            paths.set( i, reversePath( paths.get( i ) ) );
+        }
+        return paths;
+    }
+
+    /**
+     * @return cleared search state of the calling thread for g, with the
+     *         current version of the overlay pinned for the query
+     */
+    private SearchSets searchSets( CompactGraph g )
+    {
+        SearchSets sets = this.sets.get();
+
+        if ( sets == null || sets.getNodeCount() != g.getNodeCount() )
+        {
+            sets = new SearchSets( g.getNodeCount() );
+            this.sets.set( sets );
+        }
+        else
+        {
+            sets.clear();
+        }
+
+        if ( this.overlay != null )
+        {
+            if ( this.overlay.getGraph() != g )
+                throw new IllegalArgumentException( "Weight overlay belongs to another graph" );
+            sets.weights = this.overlay.snapshot();
+        }
+        return sets;
     }
 
-    private List<AStarNode> search( List<AStarNode> frontier, List<Node> target,
-                                    MutableValueGraph<Node, Double> g, SearchType searchType )
+    private static List<RoadPosition> positions( List<Node> nodes )
     {
-        SearchSets sets = new SearchSets( frontier, g.nodes().size() / 2, 10 );
+        List<RoadPosition> result = new ArrayList<RoadPosition>( nodes.size() );
+        for ( Node n : nodes )
+        {
+            result.add( RoadPosition.of( n ) );
+        }
+        return result;
+    }
 
+    /**
+     * Strict search from all sources towards the closest targets. A source
+     * between two map nodes enters the frontier at both ends of its
+     * segment; reaching an end of a target segment completes the path with
+     * the remaining partial cost, the end is still expanded as the path may
+     * continue to other targets. A reverse search runs along the incoming
+     * arcs: its sources are where the paths end, its targets where they
+     * start. Paths reaching a goal node as cheap as its queued path are
+     * returned as equal cost alternatives.
+     */
+    private List<AStarNode> search( SearchSets sets, List<RoadPosition> sources, List<RoadPosition> target, CompactGraph g )
+    {
         List<AStarNode> result = new ArrayList<AStarNode>();
 
         AStarNode current;
 
         boolean pathsFound = false;
 
-        while ( !pathsFound && !sets.openSet.frontier.isEmpty() )
-        {
-            current = sets.openSet.frontier.remove( 0 );
+        sets.setTargets( target, g );
 
-            if ( !isGoal( current.getNodeVal(), target ) )
+        for ( RoadPosition s : sources )
+        {
+            if ( !s.isVirtual() )
             {
-                sets.closedSet.add( current );
+                sets.openSet.update( new AStarNode( s.getNode(), null, 0, computeHeuristicCost( sets, s.getNode() ) ) );
+                continue;
+            }
+
+            AStarNode root = new AStarNode( s.getNode(), null, 0, 0 );
+            Node      from = g.getNode( s.getFrom() );
+            Node      to   = g.getNode( s.getTo() );
 
-                Set<Node> adjacent = g.adjacentNodes( current.getNodeVal() );
+            int       segment  = segmentArc( s, g );
+            double    fromCost = travelCost( sets, segment, enterCost( sets, s, s.getFrom(), g ), 0 );
+            double    toCost   = travelCost( sets, segment, enterCost( sets, s, s.getTo(), g ), 0 );
 
-                for ( Node n : adjacent )
+            if ( fromCost < Double.POSITIVE_INFINITY )
+                sets.openSet.update( new AStarNode( from, root, fromCost, computeHeuristicCost( sets, from ) ) );
+            if ( toCost < Double.POSITIVE_INFINITY )
+                sets.openSet.update( new AStarNode( to, root, toCost, computeHeuristicCost( sets, to ) ) );
+
+            // targets on the same segment are reached directly
+            for ( RoadPosition t : target )
+            {
+                if ( s.isOnSameSegment( t ) )
                 {
-                    double    costToNode = g.edgeValue( n, current.getNodeVal() ).get();
-                    AStarNode newASNode  = new AStarNode( n, current.getPathToNode(), current.getCost(), costToNode, target );
+                    RoadPosition a       = sets.reverse ? t : s;    // driven from a to b
+                    RoadPosition b       = sets.reverse ? s : t;
+                    int          heading = a.getHeadingTo( b );
+                    double       direct  = travelCost( sets, segment, a.getDirectCost( b, g ) * scale( sets, a.getOtherEnd( heading ), heading ), 0 );
 
-                    sets.openSet.update( newASNode );
+                    if ( direct < Double.POSITIVE_INFINITY )
+                        addResult( result, new AStarNode( t.getNode(), root, direct, 0 ) );
                 }
             }
-            else
+        }
+
+        while ( !pathsFound && !sets.openSet.isEmpty() )
+        {
+            if ( !result.isEmpty() && sets.openSet.peekHeuristicCost() > result.get( 0 ).getCost() )
             {
-                result.add( current );
-                result.sort( compCost );
+                pathsFound = true;    // every remaining path is more expensive
+                continue;
+            }
 
-                if ( searchType == SearchType.strict
-                        && !sets.openSet.frontier.isEmpty()
-                        && sets.openSet.frontier.get( 0 ).getHeuristicCost() > result.get( 0 ).getCost() )
-                {
-                    pathsFound = true;
-                }
-                else
+            current = sets.openSet.pop();
+
+            int index = current.getNodeVal().getIndex();
+
+            if ( sets.isGoal( current.getNodeVal() ) )
+            {
+                Node exit = sets.exitNode[index];
+
+                addGoalResult( sets, result, current );
+                for ( int i = sets.ties.size() - 1; i >= 0; i-- )
                 {
-                    if ( result.size() > 5 )
-                        pathsFound = true;
+                    AStarNode tie = sets.ties.get( i );
+
+                    if ( tie.getNodeVal().getIndex() != index )
+                        continue;
+                    if ( tie.getCost() == current.getCost() )
+                        addGoalResult( sets, result, tie );
+                    sets.ties.remove( i );
                 }
+
+                if ( result.size() > 5 )
+                    pathsFound = true;
+                if ( exit == null )
+                    continue;
+            }
+
+            sets.closedSet.add( current );
+            sets.expandedNodes++;
+
+            int first = sets.reverse ? g.firstInArc( index ) : g.firstArc( index );
+            int end   = sets.reverse ? g.endInArc( index ) : g.endArc( index );
+
+            for ( int i = first; i < end; i++ )
+            {
+                int arc  = sets.reverse ? g.getInArc( i ) : i;
+                int next = sets.reverse ? g.getSource( arc ) : g.getTarget( arc );
+
+                if ( sets.closedSet.has( next ) )
+                    continue;
+
+                Node      n         = g.getNode( next );
+                double    cost      = current.getCost() + travelCost( sets, arc, weight( sets, g, arc ), current.getCost() );
+
+                if ( cost == Double.POSITIVE_INFINITY )
+                    continue;    // closed road
+
+                sets.openSet.update( new AStarNode( n, current, cost, computeHeuristicCost( sets, n ) ) );
             }
         }
+
+        // paths via the ends of a target segment may be more expensive than the first one found
+        while ( !result.isEmpty() && result.get( result.size() - 1 ).getCost() > result.get( 0 ).getCost() )
+        {
+            result.remove( result.size() - 1 );
+        }
         return result;
     }
 
-    private boolean isGoal( Node n, List<Node> target )
+    /**
+     * @return weight of the arc in the pinned version of the overlay
+     */
+    private static double weight( SearchSets sets, CompactGraph g, int arc )
+    {
+        return sets.weights == null ? g.getWeight( arc ) : sets.weights.getWeight( arc );
+    }
+
+    /**
+     * @return factor of the partial costs of positions between from and to, towards to
+     */
+    private static double scale( SearchSets sets, int from, int to )
     {
-        for ( Node t : target )
+        return sets.weights == null ? 1 : sets.weights.getScale( from, to );
+    }
+
+    /**
+     * @return cost between a source position and an end of its segment in
+     *         the direction of the search, infinity against a one-way segment
+     */
+    private static double enterCost( SearchSets sets, RoadPosition p, int end, CompactGraph g )
+    {
+        if ( sets.reverse )
+            return p.getCostFrom( end, g ) * scale( sets, end, p.getOtherEnd( end ) );
+        return p.getCostTo( end, g ) * scale( sets, p.getOtherEnd( end ), end );
+    }
+
+    /**
+     * @return cost between an end of a target segment and the target
+     *         position in the direction of the search
+     */
+    private static double exitCost( SearchSets sets, RoadPosition p, int end, CompactGraph g )
+    {
+        if ( sets.reverse )
+            return p.getCostTo( end, g ) * scale( sets, p.getOtherEnd( end ), end );
+        return p.getCostFrom( end, g ) * scale( sets, end, p.getOtherEnd( end ) );
+    }
+
+    /**
+     * @param arc:    arc of the road driven
+     * @param meters
+     * @param cost:   cost of the path so far, seconds in time dependent searches
+     * @return meters, or the travel time on leaving after cost
+     */
+    private static double travelCost( SearchSets sets, int arc, double meters, double cost )
+    {
+        return sets.profiles == null ? meters : sets.profiles.travelTime( arc, meters, sets.departure + cost );
+    }
+
+    /**
+     * @return arc of the segment of a position between two map nodes, in either direction
+     */
+    private static int segmentArc( RoadPosition p, CompactGraph g )
+    {
+        int arc = g.findArc( p.getFrom(), p.getTo() );
+        return arc >= 0 ? arc : g.findArc( p.getTo(), p.getFrom() );
+    }
+
+    /**
+     * Adds the path to a goal node, completed to the target position if
+     * the target lies between two map nodes.
+     */
+    private void addGoalResult( SearchSets sets, List<AStarNode> result, AStarNode path )
+    {
+        int  index = path.getNodeVal().getIndex();
+        Node exit  = sets.exitNode[index];
+
+        if ( exit == null )
+            addResult( result, path );
+        else
         {
-            if ( n.equals( t ) )
+            double exitCost = travelCost( sets, sets.exitSegment[index], sets.exitCost[index], path.getCost() );
+            addResult( result, new AStarNode( exit, path, path.getCost() + exitCost, 0 ) );
+        }
+    }
+
+    /**
+     * Adds a path sorted by cost, keeping only the cheaper path to a
+     * virtual target reached via both ends of its segment.
+     */
+    private void addResult( List<AStarNode> result, AStarNode path )
+    {
+        if ( path.getNodeVal().getIndex() < 0 )
+        {
+            for ( int i = 0; i < result.size(); i++ )
             {
-                return true;
+                if ( result.get( i ).getNodeVal() == path.getNodeVal() )
+                {
+                    if ( result.get( i ).getCost() <= path.getCost() )
+                        return;
+                    result.remove( i );
+                    break;
+                }
             }
-            if ( n.getPoint().equals( t.getPoint() ) )
+        }
+        result.add( path );
+        result.sort( compCost );
+    }
+
+    /**
+     * @param routes
+     * @param g
+     * @param weights: pinned overlay version, null for the weights of g
+     * @return last node of every route, with the node costs of the route if
+     *         it has them, else with the path costs of g
+     */
+    private List<AStarNode> toAStarNodes( List<Route> routes, CompactGraph g, WeightOverlay.Version weights )
+    {
+        List<AStarNode> result = new ArrayList<AStarNode>();
+
+        for ( Route r : routes )
+        {
+            AStarNode path = null;
+
+            for ( int i = 0; i < r.getPath().size(); i++ )
             {
-                return true;
+                Node   n    = r.getPath().get( i );
+                double cost = r.hasCosts() ? r.getCost( i )
+                        : path == null ? 0 : path.getCost() + arcWeight( g, weights, path.getNodeVal().getIndex(), n.getIndex() );
+                path = new AStarNode( n, path, cost, 0 );
             }
+            result.add( path );
         }
-        return false;
+        return result;
     }
 
+    private static double arcWeight( CompactGraph g, WeightOverlay.Version weights, int from, int to )
+    {
+        double weight = Double.POSITIVE_INFINITY;
 
-    private class SearchSets
+        for ( int arc = g.firstArc( from ); arc < g.endArc( from ); arc++ )
+        {
+            if ( g.getTarget( arc ) == to )
+                weight = Math.min( weight, weights == null ? g.getWeight( arc ) : weights.getWeight( arc ) );
+        }
+        return weight;
+    }
+
+    /**
+     * Turns a path found by the reverse search (target to start) into
+     * the equivalent path from start to target.
+     *
+     * @param path: last node of the reverse path
+     * @return last node of the forward path
+     */
+    private AStarNode reversePath( AStarNode path )
     {
-        OpenSet   openSet;
-        ClosedSet closedSet;
+        AStarNode forward = null;
 
-        public SearchSets( List<AStarNode> frontier, int expectedEntriesForClosedSet, int valuesPerEntry )
+        for ( AStarNode n = path; n != null; n = n.getParent() )
         {
-            this.openSet = new OpenSet( frontier );
-            this.closedSet = new ClosedSet( expectedEntriesForClosedSet, valuesPerEntry );
+            double cost = path.getCost() - n.getCost();
+            forward = new AStarNode( n.getNodeVal(), forward, cost, 0 );
         }
+        return forward;
+    }
 
-        private class OpenSet
+    private double computeHeuristicCost( SearchSets sets, Node current )
+    {
+        switch ( this.heuristic )
         {
-            List<AStarNode> frontier;
+            case EuclideanDistance:
+                return sets.heuristicScale * computeEuclideanCost( sets, current );
 
-            public OpenSet( List<AStarNode> frontier )
-            {
-                this.frontier = frontier;
-            }
+            case Manhattan:
+                return sets.heuristicScale * computeManhattanCost( sets, current );
 
-            public void update( AStarNode node )
-            {
-                if ( SearchSets.this.closedSet.has( node ) )
-                    return;
+            case Landmarks:
+                return sets.heuristicScale * computeLandmarkCost( sets, current );
 
-                Iterator<AStarNode> iter = frontier.iterator();
+            default:
+                return -1.0;
+        }
+    }
 
-                boolean add = true;
+    private double computeEuclideanCost( SearchSets sets, Node current )
+    {
+        double x   = sets.graph.getX( current.getIndex() );
+        double y   = sets.graph.getY( current.getIndex() );
+        double min = Double.POSITIVE_INFINITY;
 
-                while ( iter.hasNext() )
-                {
-                    AStarNode current = iter.next();
+        for ( int i = 0; i < sets.targetCount; i++ )
+        {
+            double dX = sets.targetX[i] - x;
+            double dY = sets.targetY[i] - y;
 
-                    boolean equal = current.equals( node );
+            min = Math.min( min, dX * dX + dY * dY );
+        }
+        return Math.sqrt( min );
+    }
 
-                    if ( equal && current.getHeuristicCost() > node.getHeuristicCost() )
-                    {
-                        iter.remove();
-                    }
-                    if ( equal && current.getHeuristicCost() < node.getHeuristicCost() )
-                        add = false;
-                }
+    private double computeManhattanCost( SearchSets sets, Node current )
+    {
+        double x   = sets.graph.getX( current.getIndex() );
+        double y   = sets.graph.getY( current.getIndex() );
+        double min = Double.POSITIVE_INFINITY;
 
-                if ( add )
-                    this.frontier.add( node );
+        for ( int i = 0; i < sets.targetCount; i++ )
+        {
+            double dX = Math.abs( sets.targetX[i] - x );
+            double dY = Math.abs( sets.targetY[i] - y );
 
-                this.frontier.sort( compHeuristic );
-            }
+            min = Math.min( min, dX + dY );
         }
+        return min;
+    }
 
-        private class ClosedSet
+    /**
+     * ALT bound, combined with the straight line distance which is a lower
+     * bound as well.
+     */
+    private double computeLandmarkCost( SearchSets sets, Node current )
+    {
+        double x   = sets.graph.getX( current.getIndex() );
+        double y   = sets.graph.getY( current.getIndex() );
+        double min = Double.POSITIVE_INFINITY;
+
+        for ( int i = 0; i < sets.targetCount; i++ )
         {
-            private ListMultimap<Point, AStarNode> closedSet;
+            double dX        = sets.targetX[i] - x;
+            double dY        = sets.targetY[i] - y;
+            double euclidean = Math.sqrt( dX * dX + dY * dY );
 
-            public ClosedSet( int expectedEntries, int valuesPerEntry )
-            {
-                this.closedSet = ArrayListMultimap.create( expectedEntries, valuesPerEntry );
-            }
+            // every path to a position between two nodes passes one of them
+            double bound = Math.min( landmarkBound( sets, current.getIndex(), sets.targetFrom[i] ),
+                                     landmarkBound( sets, current.getIndex(), sets.targetTo[i] ) );
 
-            public boolean has( AStarNode node )
+            min = Math.min( min, Math.max( euclidean, bound ) );
+        }
+        return min;
+    }
+
+    /**
+     * @return lower bound between a node and a target node in the direction of the search
+     */
+    private double landmarkBound( SearchSets sets, int node, int target )
+    {
+        return sets.reverse ? this.landmarks.lowerBound( target, node ) : this.landmarks.lowerBound( node, target );
+    }
+
+
+    private class SearchSets
+    {
+        OpenSet    openSet;
+        ClosedSet  closedSet;
+        int        expandedNodes;
+        boolean    reverse;        // search along the incoming arcs
+
+        // goal nodes of the current search and their projected coordinates for the heuristic
+        CompactGraph  graph;
+        VisitedSet    goals;
+        double     targetX[]    = new double[0];
+        double     targetY[]    = new double[0];
+        int        targetFrom[] = new int[0];
+        int        targetTo[]   = new int[0];
+        int        targetCount;
+
+        // per goal node: remaining cost and virtual node of a target between two nodes, null for map nodes
+        double     exitCost[];
+        Node       exitNode[];
+        int        exitSegment[];    // arc of the target segment, for the road of the remaining cost
+
+        // paths reaching a queued goal node as cheap as its entry, equal cost alternatives
+        List<AStarNode> ties = new ArrayList<AStarNode>();
+
+        // version of the overlay pinned by the query, null for the weights of the graph
+        WeightOverlay.Version weights;
+
+        // time dependent search, profiles are null for static searches
+        SpeedProfiles profiles;
+        double        departure;
+        double        heuristicScale = 1;    // distance bounds to cost bounds
+
+        public SearchSets( int nodeCount )
+        {
+            this.openSet = new OpenSet( nodeCount );
+            this.closedSet = new ClosedSet( nodeCount );
+            this.goals = new VisitedSet( nodeCount );
+            this.exitCost = new double[nodeCount];
+            this.exitNode = new Node[nodeCount];
+            this.exitSegment = new int[nodeCount];
+        }
+
+        public void clear()
+        {
+            this.openSet.clear();
+            this.closedSet.clear();
+            this.goals.clear();
+            this.ties.clear();
+            this.expandedNodes = 0;
+            this.reverse = false;
+            this.weights = null;
+            this.profiles = null;
+            this.heuristicScale = 1;
+        }
+
+        /**
+         * Marks the goal nodes and caches the target coordinates. Targets
+         * between two map nodes mark both ends of their segment with the
+         * remaining partial cost.
+         *
+         * @param target
+         * @param g
+         */
+        public void setTargets( List<RoadPosition> target, CompactGraph g )
+        {
+            if ( this.targetX.length < target.size() )
             {
-                return this.closedSet.containsEntry( node.getNodeVal().getPoint(), node );
+                this.targetX = new double[target.size()];
+                this.targetY = new double[target.size()];
+                this.targetFrom = new int[target.size()];
+                this.targetTo = new int[target.size()];
             }
+            this.graph = g;
+            this.targetCount = target.size();
 
-            public void add( AStarNode node )
+            for ( int i = 0; i < this.targetCount; i++ )
             {
-                this.closedSet.put( node.getNodeVal().getPoint(), node );
+                RoadPosition t = target.get( i );
+
+                // virtual targets are not in the graph
+                this.targetX[i] = g.getProjection().x( t.getNode().getPoint().getLongitude() );
+                this.targetY[i] = g.getProjection().y( t.getNode().getPoint().getLatitude() );
+                this.targetFrom[i] = t.getFrom();
+                this.targetTo[i] = t.getTo();
+
+                if ( t.isVirtual() )
+                {
+                    addGoal( t.getFrom(), exitCost( this, t, t.getFrom(), g ), t.getNode(), segmentArc( t, g ), g );
+                    addGoal( t.getTo(), exitCost( this, t, t.getTo(), g ), t.getNode(), segmentArc( t, g ), g );
+                }
+                else
+                {
+                    addGoal( t.getNode().getIndex(), 0, null, -1, g );
+                }
             }
         }
-    }
 
+        /**
+         * Marks a node as goal, unless it already leads to a target at lower
+         * cost. With crossing links (older snapshots) the nodes linked to it
+         * at the same point are marked as well.
+         */
+        private void addGoal( int node, double cost, Node exit, int segment, CompactGraph g )
+        {
+            if ( cost == Double.POSITIVE_INFINITY )
+                return;    // segment closed towards the target
 
-    public class AStarNode
-    {
-        private Node   nodeVal;
-        private double cost;
-        private double heuristicCost;
+            Point         point   = g.getNode( node ).getPoint();
+            List<Integer> pending = new ArrayList<Integer>();
 
-        private List<Node> pathToNode = new ArrayList<Node>();
+            pending.add( node );
+            while ( !pending.isEmpty() )
+            {
+                int index = pending.remove( pending.size() - 1 );
 
-        public AStarNode( Node nodeVal, List<Node> pathToParent, double costToParent, double costToThisNode, List<Node> target )
+                if ( this.goals.contains( index ) && this.exitCost[index] <= cost )
+                    continue;
+
+                this.goals.add( index );
+                this.exitCost[index] = cost;
+                this.exitNode[index] = exit;
+                this.exitSegment[index] = segment;
+
+                if ( !g.hasCrossingLinks() )
+                    continue;
+                for ( int arc = g.firstArc( index ); arc < g.endArc( index ); arc++ )
+                {
+                    if ( g.getNode( g.getTarget( arc ) ).getPoint().equals( point ) )
+                        pending.add( g.getTarget( arc ) );
+                }
+            }
+        }
+
+        public boolean isGoal( Node n )
         {
-            this.nodeVal = nodeVal;
-            this.pathToNode.addAll( pathToParent );
-            this.pathToNode.add( nodeVal );
-            this.cost = costToParent + costToThisNode;
-            this.heuristicCost = cost + computeHeuristicCost( nodeVal, target );
+            return this.goals.contains( n.getIndex() );
         }
 
-        public double computeHeuristicCost( Node current, List<Node> target )
+        public int getNodeCount() { return this.closedSet.visited.capacity(); }
+
+        /**
+         * Frontier as an indexed binary heap keyed by node index, holding at
+         * most one entry (the cheapest known) per node.
+         */
+        private class OpenSet
         {
-            switch ( AStar.this.heuristic )
+            IndexedMinHeap frontier;
+            AStarNode      entries[];
+
+            public OpenSet( int nodeCount )
             {
-                case EuclideanDistance:
-                    return computeEuclideanCost( current, target );
+                this.frontier = new IndexedMinHeap( nodeCount );
+                this.entries = new AStarNode[nodeCount];
+            }
 
-                case Manhattan:
-                    return computeManhattanCost( current, target );
+            public void update( AStarNode node )
+            {
+                int index = node.getNodeVal().getIndex();
+
+                if ( SearchSets.this.closedSet.has( index ) )
+                    return;
+
+                if ( this.frontier.contains( index ) )
+                {
+                    if ( this.entries[index].getHeuristicCost() == node.getHeuristicCost() && isGoal( node.getNodeVal() ) )
+                        SearchSets.this.ties.add( node );
+                    if ( this.entries[index].getHeuristicCost() <= node.getHeuristicCost() )
+                        return;
+
+                    this.frontier.decreaseKey( index, node.getHeuristicCost() );
+                }
+                else
+                {
+                    this.frontier.insert( index, node.getHeuristicCost() );
+                }
+                this.entries[index] = node;
+            }
+
+            public AStarNode pop()
+            {
+                int       index = this.frontier.pop();
+                AStarNode node  = this.entries[index];
+
+                this.entries[index] = null;
+                return node;
+            }
 
-                default:
-                    return -1.0;
+            public void clear()
+            {
+                while ( !this.frontier.isEmpty() )
+                {
+                    this.entries[this.frontier.pop()] = null;
+                }
             }
+
+            public boolean isEmpty()           { return this.frontier.isEmpty(); }
+            public double  peekHeuristicCost() { return this.frontier.peekKey(); }
         }
 
-        private double computeEuclideanCost( Node current, List<Node> target )
+        /**
+         * Expanded nodes, keyed by node index.
+         */
+        private class ClosedSet
         {
-            List<Double> cost = new ArrayList<Double>();
-            for ( Node t : target )
+            private VisitedSet visited;
+
+            public ClosedSet( int nodeCount )
             {
-                double dLongitude = t.getPoint().getLongitude() - current.getPoint().getLongitude();
-                double dLatitude  = t.getPoint().getLatitude() - current.getPoint().getLatitude();
+                this.visited = new VisitedSet( nodeCount );
+            }
 
-                cost.add( Math.sqrt( Math.pow( dLongitude, 2.0 ) + Math.pow( dLatitude, 2.0 ) ) );
+            public boolean has( int index )
+            {
+                return this.visited.contains( index );
+            }
+
+            public void add( AStarNode node )
+            {
+                this.visited.add( node.getNodeVal().getIndex() );
+            }
+
+            public void clear()
+            {
+                this.visited.clear();
             }
-            cost.sort( ( a, b ) -> Double.compare( a, b ) );
-            return cost.get( 0 );
         }
+    }
+
 
-        private double computeManhattanCost( Node current, List<Node> target )
+    public class AStarNode
+    {
+        private Node      nodeVal;
+        private AStarNode parent;        // predecessor on the path, null for the start node
+        private double    cost;
+        private double    heuristicCost;
+
+        private List<Node> pathToNode;   // built on demand from the parent chain
+
+        /**
+         * @param nodeVal
+         * @param parent:        predecessor, null for a start node
+         * @param cost:          path cost from the start node
+         * @param remainingCost: estimated cost to the closest target
+         */
+        public AStarNode( Node nodeVal, AStarNode parent, double cost, double remainingCost )
         {
-            List<Double> cost = new ArrayList<Double>();
-            for ( Node t : target )
-            {
-                double dLongitude = Math.abs( t.getPoint().getLongitude() - current.getPoint().getLongitude() );
-                double dLatitude  = Math.abs( t.getPoint().getLatitude() - current.getPoint().getLatitude() );
+            this.nodeVal = nodeVal;
+            this.parent = parent;
+            this.cost = cost;
+            this.heuristicCost = cost + remainingCost;
+        }
 
-                cost.add( dLongitude + dLatitude );
+        /**
+         * Reconstructs the path from the start node by following the
+         * parent chain. The result is cached.
+         *
+         * @return nodes from start to this node
+         */
+        public List<Node> getPathToNode()
+        {
+            if ( this.pathToNode == null )
+            {
+                List<Node> path = new ArrayList<Node>();
+                for ( AStarNode n = this; n != null; n = n.parent )
+                {
+                    path.add( n.nodeVal );
+                }
+                Collections.reverse( path );
+                this.pathToNode = path;
             }
-            cost.sort( ( a, b ) -> Double.compare( a, b ) );
-            return cost.get( 0 );
+            return this.pathToNode;
         }
 
         @Override
@@ -260,19 +974,10 @@ public class AStar
             return res;
         }
 
-        public Node       getNodeVal()        { return this.nodeVal; }
-        public double     getCost()           { return this.cost; }
-        public double     getHeuristicCost()  { return this.heuristicCost; }
-        public List<Node> getPathToNode()     { return this.pathToNode; }
-    }
-
-    private class ASNHeuristicComparator implements Comparator<AStarNode>
-    {
-        @Override
-        public int compare( AStarNode n1, AStarNode n2 )
-        {
-            return ( int ) ( n1.getHeuristicCost() - n2.getHeuristicCost() );
-        }
+        public Node      getNodeVal()        { return this.nodeVal; }
+        public AStarNode getParent()         { return this.parent; }
+        public double    getCost()           { return this.cost; }
+        public double    getHeuristicCost()  { return this.heuristicCost; }
     }
 
     private class ASNCostComparator implements Comparator<AStarNode>
@@ -280,7 +985,7 @@ public class AStar
         @Override
         public int compare( AStarNode n1, AStarNode n2 )
         {
-            return ( int ) ( n1.getCost() - n2.getCost() );
+            return Double.compare( n1.getCost(), n2.getCost() );
         }
     }
 
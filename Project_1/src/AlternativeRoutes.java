@@ -0,0 +1,429 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Alternative routes by the penalty method: after every search the arcs
+ * of the found path get more expensive, so the next search is pushed onto
+ * other roads. A found path is accepted if it is not much longer than the
+ * best route (stretch) and does not share too much of its cost with an
+ * already accepted route (overlap). Paths of a shortest path search on
+ * positive weights are loopless, reported costs are the real ones.
+ *
+ * One instance can serve parallel queries, search state is per thread.
+ */
+public class AlternativeRoutes
+{
+    public static final int    DEFAULT_COUNT   = 5;
+    public static final double DEFAULT_OVERLAP = 0.7;
+    public static final double DEFAULT_STRETCH = 1.5;
+
+    private static final double PENALTY            = 1.4;    // weight factor per search an arc was used in
+    private static final int    SEARCHES_PER_ROUTE = 4;      // gives up after count * this searches
+
+    private final int       count;
+    private final double    maxOverlap;
+    private final double    maxStretch;
+    private final Landmarks landmarks;
+
+    private final ThreadLocal<SearchState> state = new ThreadLocal<SearchState>();
+
+    public AlternativeRoutes( Landmarks landmarks )
+    {
+        this( DEFAULT_COUNT, DEFAULT_OVERLAP, DEFAULT_STRETCH, landmarks );
+    }
+
+    /**
+     * @param count:      maximum number of routes
+     * @param maxOverlap: maximum share of a route's cost on roads of an accepted route, 0..1
+     * @param maxStretch: maximum cost of a route relative to the best route, >= 1
+     * @param landmarks:  tables to speed up the searches, may be null
+     */
+    public AlternativeRoutes( int count, double maxOverlap, double maxStretch, Landmarks landmarks )
+    {
+        if ( count < 1 || count > Integer.SIZE - 1 )
+            throw new IllegalArgumentException( "Route count must be between 1 and " + ( Integer.SIZE - 1 ) );
+
+        this.count = count;
+        this.maxOverlap = maxOverlap;
+        this.maxStretch = maxStretch;
+        this.landmarks = landmarks;
+    }
+
+    /**
+     * Finds up to count diverse routes from start to any of the targets.
+     *
+     * @param start
+     * @param target
+     * @param g
+     * @return routes sorted by cost, the first one is the cheapest route
+     */
+    public List<Route> find( Node start, List<Node> target, CompactGraph g )
+    {
+        return find( start, target, g, null );
+    }
+
+    /**
+     * @param start
+     * @param target
+     * @param g
+     * @param weights: pinned version of live weights of g, null for the weights of g
+     * @return routes sorted by cost, the first one is the cheapest route
+     */
+    public List<Route> find( Node start, List<Node> target, CompactGraph g, WeightOverlay.Version weights )
+    {
+        SearchState st     = searchState( g );
+        List<Route> result = new ArrayList<Route>();
+        double      best   = 0;
+
+        st.clear();
+        st.weights = weights;
+        st.setTargets( target, g );
+
+        for ( int i = 0; i < this.count * SEARCHES_PER_ROUTE && result.size() < this.count; i++ )
+        {
+            int goal = search( st, start.getIndex(), g );
+
+            if ( goal < 0 )
+                break;
+
+            int    path[] = st.pathArcs( goal );
+            double cost   = 0;
+            for ( int arc : path )
+                cost += weight( st, g, arc );
+
+            if ( result.isEmpty() )
+            {
+                best = cost;
+            }
+            else if ( cost > best * this.maxStretch || overlap( st, path, result.size(), g ) > this.maxOverlap )
+            {
+                st.penalize( start.getIndex(), path, g );
+                continue;
+            }
+
+            st.markRoute( start.getIndex(), path, result.size(), g );
+            result.add( new Route( cost, st.pathNodes( start.getIndex(), path, g ) ) );
+
+            // a route of length zero has no alternatives
+            if ( path.length == 0 )
+                break;
+            st.penalize( start.getIndex(), path, g );
+        }
+
+        result.sort( Comparator.comparingDouble( Route::getCost ) );
+        return result;
+    }
+
+    /**
+     * @return highest share of the path's cost on roads of any accepted route
+     */
+    private static double overlap( SearchState st, int path[], int routes, CompactGraph g )
+    {
+        double shared[] = new double[routes];
+        double cost     = 0;
+
+        for ( int arc : path )
+        {
+            cost += weight( st, g, arc );
+            for ( int r = 0; r < routes; r++ )
+            {
+                if ( ( st.routes[arc] & ( 1 << r ) ) != 0 )
+                    shared[r] += weight( st, g, arc );
+            }
+        }
+
+        double max = 0;
+        for ( double s : shared )
+            max = Math.max( max, cost == 0 ? 1 : s / cost );
+        return max;
+    }
+
+    /**
+     * A* on the penalized weights. Penalties only increase weights, so
+     * the straight line and landmark bounds stay admissible.
+     *
+     * @return index of the reached goal node, -1 if there is none
+     */
+    private int search( SearchState st, int start, CompactGraph g )
+    {
+        st.reached.clear();
+        st.closed.clear();
+        st.queue.clear();
+
+        st.reach( start, 0, -1, -1, estimate( st, start, g ) );
+
+        while ( !st.queue.isEmpty() )
+        {
+            int node = st.queue.pop();
+
+            if ( st.goals.contains( node ) )
+                return node;
+
+            st.closed.add( node );
+            for ( int arc = g.firstArc( node ); arc < g.endArc( node ); arc++ )
+            {
+                int next = g.getTarget( arc );
+
+                double weight = weight( st, g, arc );
+
+                // closed roads are skipped
+                if ( !st.closed.contains( next ) && weight < Double.POSITIVE_INFINITY )
+                    st.reach( next, st.cost[node] + weight * st.factor[arc], node, arc, estimate( st, next, g ) );
+            }
+        }
+        return -1;
+    }
+
+    private static double weight( SearchState st, CompactGraph g, int arc )
+    {
+        return st.weights == null ? g.getWeight( arc ) : st.weights.getWeight( arc );
+    }
+
+    private double estimate( SearchState st, int index, CompactGraph g )
+    {
+        double x   = g.getX( index );
+        double y   = g.getY( index );
+        double min = Double.POSITIVE_INFINITY;
+
+        for ( int i = 0; i < st.targetCount; i++ )
+        {
+            double dX    = st.targetX[i] - x;
+            double dY    = st.targetY[i] - y;
+            double bound = Math.sqrt( dX * dX + dY * dY );
+
+            if ( this.landmarks != null )
+                bound = Math.max( bound, this.landmarks.lowerBound( index, st.targetIndex[i] ) );
+            min = Math.min( min, bound );
+        }
+        return min;
+    }
+
+    private SearchState searchState( CompactGraph g )
+    {
+        SearchState st = this.state.get();
+
+        if ( st == null || st.graph != g )
+        {
+            st = new SearchState( g );
+            this.state.set( st );
+        }
+        return st;
+    }
+
+
+    /**
+     * Labels, penalties and route marks of one thread, reused between
+     * queries on the same graph. Penalties and marks are reset through
+     * the list of touched arcs.
+     */
+    private static class SearchState
+    {
+        final CompactGraph graph;
+
+        double         cost[];
+        int            parentArc[];
+        int            parentNode[];
+        VisitedSet     reached;
+        VisitedSet     closed;
+        IndexedMinHeap queue;
+
+        WeightOverlay.Version weights;    // pinned live weights, null for the weights of the graph
+
+        double         factor[];      // per arc
+        int            routes[];      // per arc, bit r set if accepted route r uses the road
+        int            touched[] = new int[64];
+        int            touchedCount;
+
+        VisitedSet     goals;
+        double         targetX[]     = new double[0];    // projected coordinates
+        double         targetY[]     = new double[0];
+        int            targetIndex[] = new int[0];
+        int            targetCount;
+
+        SearchState( CompactGraph g )
+        {
+            int n = g.getNodeCount();
+
+            this.graph = g;
+            this.cost = new double[n];
+            this.parentArc = new int[n];
+            this.parentNode = new int[n];
+            this.reached = new VisitedSet( n );
+            this.closed = new VisitedSet( n );
+            this.queue = new IndexedMinHeap( n );
+            this.goals = new VisitedSet( n );
+            this.factor = new double[g.getArcCount()];
+            this.routes = new int[g.getArcCount()];
+            Arrays.fill( this.factor, 1 );
+        }
+
+        void clear()
+        {
+            for ( int i = 0; i < this.touchedCount; i++ )
+            {
+                this.factor[this.touched[i]] = 1;
+                this.routes[this.touched[i]] = 0;
+            }
+            this.touchedCount = 0;
+            this.goals.clear();
+        }
+
+        /**
+         * Marks the goal nodes and caches the target coordinates. With
+         * crossing links (older snapshots) the nodes linked to a target at
+         * the same point are goals as well.
+         */
+        void setTargets( List<Node> target, CompactGraph g )
+        {
+            if ( this.targetX.length < target.size() )
+            {
+                this.targetX = new double[target.size()];
+                this.targetY = new double[target.size()];
+                this.targetIndex = new int[target.size()];
+            }
+            this.targetCount = target.size();
+
+            for ( int i = 0; i < this.targetCount; i++ )
+            {
+                Node t = target.get( i );
+
+                this.targetX[i] = g.getX( t.getIndex() );
+                this.targetY[i] = g.getY( t.getIndex() );
+                this.targetIndex[i] = t.getIndex();
+
+                List<Integer> pending = new ArrayList<Integer>();
+                pending.add( t.getIndex() );
+                while ( !pending.isEmpty() )
+                {
+                    int index = pending.remove( pending.size() - 1 );
+
+                    if ( this.goals.contains( index ) )
+                        continue;
+
+                    this.goals.add( index );
+
+                    if ( !g.hasCrossingLinks() )
+                        continue;
+                    for ( int arc = g.firstArc( index ); arc < g.endArc( index ); arc++ )
+                    {
+                        if ( g.getNode( g.getTarget( arc ) ).getPoint().equals( t.getPoint() ) )
+                            pending.add( g.getTarget( arc ) );
+                    }
+                }
+            }
+        }
+
+        void reach( int v, double c, int from, int arc, double estimate )
+        {
+            if ( this.reached.contains( v ) && this.cost[v] <= c )
+                return;
+
+            this.reached.add( v );
+            this.cost[v] = c;
+            this.parentNode[v] = from;
+            this.parentArc[v] = arc;
+            this.queue.insertOrDecrease( v, c + estimate );
+        }
+
+        /**
+         * @return arcs of the path to goal, in driving order
+         */
+        int[] pathArcs( int goal )
+        {
+            int length = 0;
+            for ( int v = goal; this.parentArc[v] >= 0; v = this.parentNode[v] )
+                length++;
+
+            int path[] = new int[length];
+            for ( int v = goal; this.parentArc[v] >= 0; v = this.parentNode[v] )
+                path[--length] = this.parentArc[v];
+            return path;
+        }
+
+        List<Node> pathNodes( int start, int path[], CompactGraph g )
+        {
+            List<Node> nodes = new ArrayList<Node>();
+
+            nodes.add( g.getNode( start ) );
+            for ( int arc : path )
+                nodes.add( g.getNode( g.getTarget( arc ) ) );
+            return nodes;
+        }
+
+        /**
+         * Makes the roads of the path more expensive in both directions.
+         */
+        void penalize( int start, int path[], CompactGraph g )
+        {
+            int from = start;
+
+            for ( int arc : path )
+            {
+                int back = reverseArc( from, arc, g );
+
+                touch( arc );
+                this.factor[arc] *= PENALTY;
+                if ( back >= 0 )
+                {
+                    touch( back );
+                    this.factor[back] *= PENALTY;
+                }
+                from = g.getTarget( arc );
+            }
+        }
+
+        /**
+         * Records the roads of accepted route number route.
+         */
+        void markRoute( int start, int path[], int route, CompactGraph g )
+        {
+            int from = start;
+
+            for ( int arc : path )
+            {
+                int back = reverseArc( from, arc, g );
+
+                touch( arc );
+                this.routes[arc] |= 1 << route;
+                if ( back >= 0 )
+                {
+                    touch( back );
+                    this.routes[back] |= 1 << route;
+                }
+                from = g.getTarget( arc );
+            }
+        }
+
+        private void touch( int arc )
+        {
+            if ( this.touchedCount == this.touched.length )
+                this.touched = Arrays.copyOf( this.touched, 2 * this.touchedCount );
+            this.touched[this.touchedCount++] = arc;
+        }
+
+        /**
+         * @return arc in the opposite direction of arc from -> to, -1 if there is none
+         */
+        private static int reverseArc( int from, int arc, CompactGraph g )
+        {
+            int to = g.getTarget( arc );
+
+            for ( int back = g.firstArc( to ); back < g.endArc( to ); back++ )
+            {
+                if ( g.getTarget( back ) == from )
+                    return back;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,1432 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+/**
+ * Micro benchmarks on synthetic grid maps. They only time the searches;
+ * the checks in test/ compare their costs and fail on a mismatch.
+ *
+ * Usage: java -cp AI_TaxiService.jar Benchmark <mode> <grid side>
+ */
+public class Benchmark
+{
+    private static final double ORIGIN_LONGITUDE = 23.70;
+    private static final double ORIGIN_LATITUDE  = 37.95;
+    private static final double GRID_STEP        = 0.0005;
+
+    public static void main( String[] args )
+    {
+        String mode = args.length > 0 ? args[0] : "astar";
+        int    side = args.length > 1 ? Integer.parseInt( args[1] ) : 1000;
+
+        switch ( mode )
+        {
+            case "astar":
+                benchmarkAStar( side );
+                break;
+
+            case "closedset":
+                benchmarkClosedSet( side );
+                break;
+
+            case "batch":
+                benchmarkBatch( side, args.length > 2 ? Integer.parseInt( args[2] ) : 1000 );
+                break;
+
+            case "direction":
+                benchmarkDirection( side, args.length > 2 ? Integer.parseInt( args[2] ) : 5000 );
+                break;
+
+            case "landmarks":
+                benchmarkLandmarks( side, args.length > 2 ? Integer.parseInt( args[2] ) : 16 );
+                break;
+
+            case "ch":
+                benchmarkContractionHierarchy( side );
+                break;
+
+            case "alternatives":
+                benchmarkAlternatives( side, args.length > 2 ? Integer.parseInt( args[2] ) : 200 );
+                break;
+
+            case "load":
+                benchmarkLoad( side, args.length > 2 ? Paths.get( args[2] ) : null );
+                break;
+
+            case "snapshot":
+                benchmarkSnapshot( side );
+                break;
+
+            case "snap":
+                benchmarkSnap( side, args.length > 2 ? Integer.parseInt( args[2] ) : 10000 );
+                break;
+
+            case "edgesnap":
+                benchmarkEdgeSnap( side, args.length > 2 ? Integer.parseInt( args[2] ) : 10000 );
+                break;
+
+            case "fleet":
+                benchmarkFleet( side, args.length > 2 ? Integer.parseInt( args[2] ) : 10000 );
+                break;
+
+            case "dispatch":
+                benchmarkDispatch( side, args.length > 2 ? Integer.parseInt( args[2] ) : 200 );
+                break;
+
+            case "eta":
+                benchmarkEta( side, args.length > 2 ? Integer.parseInt( args[2] ) : 5000 );
+                break;
+
+            case "matrix":
+                benchmarkMatrix( side, args.length > 2 ? Integer.parseInt( args[2] ) : 1000 );
+                break;
+
+            case "traffic":
+                benchmarkTraffic( side, args.length > 2 ? Integer.parseInt( args[2] ) : 500 );
+                break;
+
+            case "overlay":
+                benchmarkOverlay( side, args.length > 2 ? Integer.parseInt( args[2] ) : 500 );
+                break;
+
+            case "oneway":
+                benchmarkOneway( side, args.length > 2 ? Integer.parseInt( args[2] ) : 500 );
+                break;
+
+            case "turns":
+                benchmarkTurns( side, args.length > 2 ? Integer.parseInt( args[2] ) : 500 );
+                break;
+
+            default:
+                System.out.println( "Unknown benchmark: " + mode );
+        }
+    }
+
+    /**
+     * Routes corner to corner on a side x side grid and reports the
+     * node expansion rate.
+     */
+    private static void benchmarkAStar( int side )
+    {
+        long buildStart = System.nanoTime();
+        Map  map        = createGridMap( side, position( 0, 0 ), Collections.singletonList( position( side - 1, side - 1, "1" ) ) );
+        long buildEnd   = System.nanoTime();
+
+        System.out.printf( "grid %dx%d: %d nodes, built in %d ms%n",
+                           side, side, map.getAllNodes().size(), ( buildEnd - buildStart ) / 1000000 );
+
+        AStar aStar = new AStar( AStar.HeuristicType.EuclideanDistance );
+
+        for ( int run = 0; run < 3; run++ )
+        {
+            long                  start  = System.nanoTime();
+            List<AStar.AStarNode> result = aStar.findPaths( map.getStart(), map.getGoals(), map.getCompactGraph(), AStar.SearchType.strict );
+            long                  end    = System.nanoTime();
+
+            double seconds = ( end - start ) / 1e9;
+            System.out.printf( "run %d: cost %.6f, %d expansions in %.3f s (%.0f expansions/s)%n",
+                               run, result.isEmpty() ? -1.0 : result.get( 0 ).getCost(),
+                               aStar.getExpandedNodes(), seconds, aStar.getExpandedNodes() / seconds );
+        }
+    }
+
+    /**
+     * Compares closed set membership on the epoch stamped VisitedSet with
+     * the former Point keyed multimap, marking and probing every node of
+     * a side x side grid per simulated query.
+     */
+    private static void benchmarkClosedSet( int side )
+    {
+        Map        map   = createGridMap( side, position( 0, 0 ), Collections.singletonList( position( 1, 1, "1" ) ) );
+        List<Node> nodes = map.getAllNodes();
+        int        runs  = 20;
+        int        hits  = 0;
+
+        long start = System.nanoTime();
+        for ( int run = 0; run < runs; run++ )
+        {
+            ListMultimap<Point, Node> closed = ArrayListMultimap.create( nodes.size() / 2, 10 );
+            for ( Node n : nodes )
+            {
+                if ( !closed.containsEntry( n.getPoint(), n ) )
+                    closed.put( n.getPoint(), n );
+            }
+            for ( Node n : nodes )
+            {
+                hits += closed.containsEntry( n.getPoint(), n ) ? 1 : 0;
+            }
+        }
+        long multimap = System.nanoTime() - start;
+
+        VisitedSet visited = new VisitedSet( nodes.size() );
+
+        start = System.nanoTime();
+        for ( int run = 0; run < runs; run++ )
+        {
+            visited.clear();
+            for ( Node n : nodes )
+            {
+                if ( !visited.contains( n.getIndex() ) )
+                    visited.add( n.getIndex() );
+            }
+            for ( Node n : nodes )
+            {
+                hits += visited.contains( n.getIndex() ) ? 1 : 0;
+            }
+        }
+        long stamped = System.nanoTime() - start;
+
+        System.out.printf( "%d nodes x %d queries (%d hits): multimap %d ms, visited set %d ms%n",
+                           nodes.size(), runs, hits, multimap / 1000000, stamped / 1000000 );
+    }
+
+    /**
+     * Dispatches random clients against a random fleet, sequentially and
+     * on the fork-join pool.
+     */
+    private static void benchmarkBatch( int side, int queries )
+    {
+        Random         random  = new Random( 42 );
+        List<String[]> taxis   = new ArrayList<String[]>();
+        List<String[]> clients = new ArrayList<String[]>();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            taxis.add( position( random.nextInt( side ), random.nextInt( side ), String.valueOf( i + 1 ) ) );
+        }
+        for ( int i = 0; i < queries; i++ )
+        {
+            clients.add( position( random.nextInt( side ), random.nextInt( side ) ) );
+        }
+
+        Dispatcher dispatcher = new Dispatcher( createGridMap( side, null, null ), taxis, AStar.HeuristicType.EuclideanDistance );
+
+        for ( int run = 0; run < 3; run++ )
+        {
+            long start = System.nanoTime();
+            dispatcher.dispatch( clients );
+            long sequential = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            dispatcher.dispatchParallel( clients );
+            long parallel = System.nanoTime() - start;
+
+            System.out.printf( "run %d: %d queries, sequential %.0f q/s, parallel (%d cores) %.0f q/s%n",
+                               run, queries, queries / ( sequential / 1e9 ), Runtime.getRuntime().availableProcessors(),
+                               queries / ( parallel / 1e9 ) );
+        }
+    }
+
+    /**
+     * Compares forward and reverse search against a large fleet.
+     */
+    private static void benchmarkDirection( int side, int fleetSize )
+    {
+        Random         random  = new Random( 7 );
+        List<String[]> taxis   = new ArrayList<String[]>();
+        List<String[]> clients = new ArrayList<String[]>();
+
+        for ( int i = 0; i < fleetSize; i++ )
+        {
+            taxis.add( position( random.nextInt( side ), random.nextInt( side ), String.valueOf( i + 1 ) ) );
+        }
+        for ( int i = 0; i < 200; i++ )
+        {
+            clients.add( position( random.nextInt( side ), random.nextInt( side ) ) );
+        }
+
+        Map        map    = createGridMap( side, null, null );
+        List<Node> fleet  = map.locateTaxis( taxis );
+        List<Node> starts = new ArrayList<Node>();
+
+        for ( String[] c : clients )
+        {
+            starts.add( map.locateClient( c ) );
+        }
+
+        for ( AStar.SearchDirection direction : AStar.SearchDirection.values() )
+        {
+            AStar aStar      = new AStar( AStar.HeuristicType.EuclideanDistance, direction );
+            long  expansions = 0;
+            long  start      = System.nanoTime();
+
+            for ( Node c : starts )
+            {
+                aStar.findPaths( c, fleet, map.getCompactGraph(), AStar.SearchType.strict );
+                expansions += aStar.getExpandedNodes();
+            }
+
+            long elapsed = System.nanoTime() - start;
+            System.out.printf( "%-9s fleet %d: %.1f expansions/query, %.3f ms/query%n", direction, fleetSize,
+                               ( double ) expansions / clients.size(), elapsed / 1e6 / clients.size() );
+        }
+    }
+
+    /**
+     * Compares the euclidean and the landmark heuristic on random client
+     * to taxi routes, including the time to compute and reload the tables.
+     */
+    private static void benchmarkLandmarks( int side, int count )
+    {
+        Random     random = new Random( 11 );
+        Map        map    = createCityMap( side );
+        List<Node> starts = new ArrayList<Node>();
+        List<Node> goals  = new ArrayList<Node>();
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            starts.add( map.locateClient( position( random.nextInt( side ), random.nextInt( side ) ) ) );
+            goals.add( map.locateTaxis( Collections.singletonList( position( random.nextInt( side ), random.nextInt( side ), "1" ) ) ).get( 0 ) );
+        }
+
+        long      start     = System.nanoTime();
+        Landmarks landmarks = Landmarks.compute( map.getCompactGraph(), count );
+        long      computed  = System.nanoTime();
+
+        try
+        {
+            Path file = Files.createTempFile( "landmarks", ".alt" );
+            landmarks.save( file );
+            long saved = System.nanoTime();
+            landmarks = Landmarks.load( file, map.getCompactGraph() );
+            long loaded = System.nanoTime();
+            Files.delete( file );
+
+            System.out.printf( "%d landmarks: computed in %d ms, saved in %d ms, loaded in %d ms%n", count,
+                               ( computed - start ) / 1000000, ( saved - computed ) / 1000000, ( loaded - saved ) / 1000000 );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( e );
+        }
+
+        AStar euclidean = new AStar( AStar.HeuristicType.EuclideanDistance );
+        AStar alt       = new AStar( AStar.HeuristicType.Landmarks, AStar.SearchDirection.forward, landmarks );
+
+        for ( AStar aStar : new AStar[]{ euclidean, alt, euclidean, alt } )
+        {
+            long expansions = 0;
+            long begin      = System.nanoTime();
+            for ( int i = 0; i < starts.size(); i++ )
+            {
+                aStar.findPaths( starts.get( i ), Collections.singletonList( goals.get( i ) ), map.getCompactGraph(), AStar.SearchType.strict );
+                expansions += aStar.getExpandedNodes();
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            System.out.printf( "%-9s %.1f expansions/query, %.3f ms/query%n", aStar == alt ? "landmarks" : "euclidean",
+                               ( double ) expansions / starts.size(), elapsed / 1e6 / starts.size() );
+        }
+    }
+
+    /**
+     * Builds a contraction hierarchy and compares its queries with A* on
+     * random client to taxi routes.
+     */
+    private static void benchmarkContractionHierarchy( int side )
+    {
+        Random     random = new Random( 13 );
+        Map        map    = createCityMap( side );
+        List<Node> starts = new ArrayList<Node>();
+        List<Node> goals  = new ArrayList<Node>();
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            starts.add( map.locateClient( position( random.nextInt( side ), random.nextInt( side ) ) ) );
+            goals.add( map.locateTaxis( Collections.singletonList( position( random.nextInt( side ), random.nextInt( side ), "1" ) ) ).get( 0 ) );
+        }
+
+        long                 start = System.nanoTime();
+        ContractionHierarchy ch    = ContractionHierarchy.build( map.getCompactGraph() );
+        long                 built = System.nanoTime();
+
+        System.out.printf( "%d nodes, %d arcs: hierarchy built in %d ms with %d shortcuts%n",
+                           map.getCompactGraph().getNodeCount(), map.getCompactGraph().getArcCount(),
+                           ( built - start ) / 1000000, ch.getShortcutCount() );
+
+        try
+        {
+            Path file = Files.createTempFile( "hierarchy", ".ch" );
+
+            start = System.nanoTime();
+            ch.save( file );
+            long saved = System.nanoTime();
+            ch = ContractionHierarchy.load( file, map.getCompactGraph() );
+            long loaded = System.nanoTime();
+
+            System.out.printf( "hierarchy file %d KB written in %d ms, loaded in %d ms with %d shortcuts%n",
+                               Files.size( file ) >> 10, ( saved - start ) / 1000000, ( loaded - saved ) / 1000000,
+                               ch.getShortcutCount() );
+            Files.delete( file );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( e );
+            return;
+        }
+
+        AStar aStar = new AStar( AStar.HeuristicType.EuclideanDistance );
+
+        for ( int run = 0; run < 3; run++ )
+        {
+            long begin = System.nanoTime();
+            for ( int i = 0; i < starts.size(); i++ )
+            {
+                ch.route( starts.get( i ), Collections.singletonList( goals.get( i ) ) );
+            }
+            long chTime = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for ( int i = 0; i < starts.size(); i++ )
+            {
+                aStar.findPaths( starts.get( i ), Collections.singletonList( goals.get( i ) ), map.getCompactGraph(), AStar.SearchType.strict );
+            }
+            long aStarTime = System.nanoTime() - begin;
+
+            System.out.printf( "run %d: hierarchy %.1f us/query, A* %.1f us/query%n", run,
+                               chTime / 1e3 / starts.size(), aStarTime / 1e3 / starts.size() );
+        }
+    }
+
+    /**
+     * Finds five alternative routes between random origin/destination
+     * pairs, with and without landmarks.
+     */
+    private static void benchmarkAlternatives( int side, int queries )
+    {
+        Random     random = new Random( 19 );
+        Map        map    = createCityMap( side );
+        List<Node> starts = new ArrayList<Node>();
+        List<Node> goals  = new ArrayList<Node>();
+
+        for ( int i = 0; i < queries; i++ )
+        {
+            starts.add( map.locateClient( position( random.nextInt( side ), random.nextInt( side ) ) ) );
+            goals.add( map.locateTaxis( Collections.singletonList( position( random.nextInt( side ), random.nextInt( side ), "1" ) ) ).get( 0 ) );
+        }
+
+        AlternativeRoutes euclidean = new AlternativeRoutes( null );
+        AlternativeRoutes alt       = new AlternativeRoutes( Landmarks.compute( map.getCompactGraph(), 16 ) );
+
+        for ( AlternativeRoutes engine : new AlternativeRoutes[]{ euclidean, alt, euclidean, alt } )
+        {
+            long   routes  = 0;
+            double stretch = 0;
+            long   begin   = System.nanoTime();
+            for ( int i = 0; i < queries; i++ )
+            {
+                List<Route> r = engine.find( starts.get( i ), Collections.singletonList( goals.get( i ) ), map.getCompactGraph() );
+
+                routes += r.size();
+                if ( !r.isEmpty() && r.get( 0 ).getCost() > 0 )
+                    stretch += r.get( r.size() - 1 ).getCost() / r.get( 0 ).getCost();
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            System.out.printf( "%-9s %.2f routes/query, longest %.3f x best, %.3f ms/query%n", engine == alt ? "landmarks" : "euclidean",
+                               ( double ) routes / queries, stretch / queries, elapsed / 1e6 / queries );
+        }
+    }
+
+    /**
+     * Compares the streaming node file reader with CSV_Reader, parsing
+     * only and building the whole map, on the given node file or on a
+     * generated city of side x side crossings.
+     */
+    private static void benchmarkLoad( int side, Path file )
+    {
+        try
+        {
+            boolean generated = file == null;
+
+            if ( generated )
+            {
+                file = Files.createTempFile( "nodes", ".csv" );
+                writeCityNodes( side, file );
+            }
+            System.out.printf( "%s: %d MB%n", file, Files.size( file ) >> 20 );
+
+            final Path nodes   = file;
+            final long rows[]  = new long[1];
+            final Map  map[]   = new Map[1];
+
+            measureLoad( "stream parse", () -> NodeFileReader.read( nodes, ( x, y, road, direction ) -> rows[0]++ ) );
+            measureLoad( "split parse ", () -> rows[0] = new CSV_Reader().read( nodes.toString(), "," ).size() - 1 );
+            measureLoad( "stream map  ", () -> map[0] = new Map( nodes ) );
+            measureLoad( "split map   ", () ->
+            {
+                List<String[]> dataPoints = new CSV_Reader().read( nodes.toString(), "," );
+                dataPoints.remove( 0 );
+                new Map( dataPoints );
+            } );
+            System.out.println( rows[0] + " rows, " + map[0].getCompactGraph().getNodeCount() + " nodes, "
+                                + map[0].getCompactGraph().getArcCount() + " arcs" );
+
+            if ( generated )
+                Files.delete( file );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( e );
+        }
+    }
+
+    /**
+     * Builds the search tree of a city and snaps a fleet of taxis at
+     * random positions to it.
+     */
+    private static void benchmarkSnap( int side, int fleet )
+    {
+        Random         random = new Random( 23 );
+        Map            map    = createCityMap( side );
+        List<String[]> taxis  = new ArrayList<String[]>();
+
+        for ( int i = 0; i < fleet; i++ )
+        {
+            taxis.add( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * side * GRID_STEP ),
+                                     String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * side * GRID_STEP ),
+                                     String.valueOf( i ) } );
+        }
+
+        long       begin = System.nanoTime();
+        SearchTree tree  = new SearchTree( map.getCompactGraph().getProjection() );
+        tree.createSearchTree( map.getAllNodes() );
+        System.out.printf( "%d nodes: search tree built in %d ms%n", tree.size(), ( System.nanoTime() - begin ) / 1000000 );
+
+        double latitude[]  = new double[fleet];
+        double longitude[] = new double[fleet];
+        for ( int i = 0; i < fleet; i++ )
+        {
+            longitude[i] = Double.parseDouble( taxis.get( i )[0] );
+            latitude[i] = Double.parseDouble( taxis.get( i )[1] );
+        }
+
+        for ( int run = 0; run < 5; run++ )
+        {
+            begin = System.nanoTime();
+            map.locateTaxis( taxis );
+            long located = System.nanoTime();
+
+            int checksum = 0;
+            for ( int i = 0; i < fleet; i++ )
+                checksum += tree.nearest( latitude[i], longitude[i] );
+            long queried = System.nanoTime();
+
+            System.out.printf( "run %d: %d taxis located in %.2f ms, nearest queries alone %.2f ms (%d)%n", run, fleet,
+                               ( located - begin ) / 1e6, ( queried - located ) / 1e6, checksum );
+        }
+    }
+
+    /**
+     * Snaps a random fleet to the nearest road segment instead of the
+     * nearest node and compares the cost of client to taxi routes of both.
+     */
+    private static void benchmarkEdgeSnap( int side, int fleet )
+    {
+        Random         random = new Random( 23 );
+        Map            map    = createCityMap( side );
+        List<String[]> taxis  = new ArrayList<String[]>();
+
+        for ( int i = 0; i < fleet; i++ )
+        {
+            taxis.add( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * side * GRID_STEP ),
+                                     String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * side * GRID_STEP ),
+                                     String.valueOf( i ) } );
+        }
+
+        long begin = System.nanoTime();
+        System.out.printf( "%d segments: grid built in %d ms%n", map.getSegmentIndex().getSegmentCount(),
+                           ( System.nanoTime() - begin ) / 1000000 );
+
+        for ( int run = 0; run < 5; run++ )
+        {
+            begin = System.nanoTime();
+            map.locateTaxis( taxis );
+            long nodes = System.nanoTime();
+            map.locateTaxisOnRoad( taxis );
+            long roads = System.nanoTime();
+
+            System.out.printf( "run %d: %d taxis snapped to nodes in %.2f ms, to roads in %.2f ms%n", run, fleet,
+                               ( nodes - begin ) / 1e6, ( roads - nodes ) / 1e6 );
+        }
+
+        AStar  aStar      = new AStar( AStar.HeuristicType.EuclideanDistance );
+        int    queries    = Math.min( fleet / 2, 200 );
+        double nodeCost   = 0;
+        double roadCost   = 0;
+        double nodeOffset = 0;
+        double roadOffset = 0;
+
+        for ( int q = 0; q < queries; q++ )
+        {
+            String[]       client = taxis.get( 2 * q );
+            List<String[]> taxi   = Collections.singletonList( taxis.get( 2 * q + 1 ) );
+
+            Node            start  = map.locateClient( client );
+            Node            goal   = map.locateTaxis( taxi ).get( 0 );
+            AStar.AStarNode byNode = aStar.findPaths( start, Collections.singletonList( goal ), map.getCompactGraph(), AStar.SearchType.strict ).get( 0 );
+
+            RoadPosition    from   = map.locateClientOnRoad( client );
+            RoadPosition    to     = map.locateTaxisOnRoad( taxi ).get( 0 );
+            AStar.AStarNode byRoad = aStar.findPaths( from, Collections.singletonList( to ), map.getCompactGraph(), AStar.SearchType.strict ).get( 0 );
+
+            nodeCost += byNode.getCost();
+            roadCost += byRoad.getCost();
+            nodeOffset += offset( map, client, start ) + offset( map, taxi.get( 0 ), goal );
+            roadOffset += from.getOffRoad() + to.getOffRoad();
+        }
+
+        System.out.printf( "%d routes: mean cost %.1f m via nearest nodes (%.1f m off road), %.1f m via road segments (%.1f m off road)%n",
+                           queries, nodeCost / queries, nodeOffset / queries, roadCost / queries, roadOffset / queries );
+    }
+
+    /**
+     * Streams random walk position updates of a fleet into a registry,
+     * alone and while a second thread dispatches clients on snapshots.
+     */
+    private static void benchmarkFleet( int side, int fleet )
+    {
+        Map           map         = createCityMap( side );
+        FleetRegistry registry    = new FleetRegistry( map );
+        Random        random      = new Random( 23 );
+        int           updates     = 1000000;
+        double        extent      = side * GRID_STEP;
+        double        latitude[]  = new double[fleet];
+        double        longitude[] = new double[fleet];
+
+        for ( int i = 0; i < fleet; i++ )
+        {
+            latitude[i] = ORIGIN_LATITUDE + random.nextDouble() * extent;
+            longitude[i] = ORIGIN_LONGITUDE + random.nextDouble() * extent;
+            registry.update( String.valueOf( i ), latitude[i], longitude[i] );
+        }
+        map.getSegmentIndex();
+
+        // every third report of a taxi is unchanged, e.g. waiting at a rank
+        int    taxi[]   = new int[updates];
+        double moveLa[] = new double[updates];
+        double moveLo[] = new double[updates];
+        for ( int u = 0; u < updates; u++ )
+        {
+            taxi[u] = random.nextInt( fleet );
+            if ( random.nextInt( 3 ) > 0 )
+            {
+                moveLa[u] = ( random.nextDouble() - 0.5 ) * GRID_STEP;
+                moveLo[u] = ( random.nextDouble() - 0.5 ) * GRID_STEP;
+            }
+        }
+
+        Dispatcher dispatcher = new Dispatcher( map, registry, AStar.HeuristicType.EuclideanDistance );
+
+        for ( int run = 0; run < 3; run++ )
+        {
+            boolean       concurrent = run > 0;
+            AtomicBoolean done       = new AtomicBoolean();
+            AtomicInteger queries    = new AtomicInteger();
+            Thread        router     = new Thread( () ->
+            {
+                Random r = new Random( 5 );
+                while ( !done.get() )
+                {
+                    dispatcher.dispatch( new String[]{ String.valueOf( ORIGIN_LONGITUDE + r.nextDouble() * extent ),
+                                                       String.valueOf( ORIGIN_LATITUDE + r.nextDouble() * extent ) } );
+                    queries.incrementAndGet();
+                }
+            } );
+
+            if ( concurrent )
+                router.start();
+
+            long begin = System.nanoTime();
+            int  moved = 0;
+            for ( int u = 0; u < updates; u++ )
+            {
+                int t = taxi[u];
+
+                latitude[t] = Math.max( ORIGIN_LATITUDE, Math.min( ORIGIN_LATITUDE + extent, latitude[t] + moveLa[u] ) );
+                longitude[t] = Math.max( ORIGIN_LONGITUDE, Math.min( ORIGIN_LONGITUDE + extent, longitude[t] + moveLo[u] ) );
+                if ( registry.update( String.valueOf( t ), latitude[t], longitude[t] ) )
+                    moved++;
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            done.set( true );
+            try
+            {
+                if ( concurrent )
+                    router.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            System.out.printf( "%s: %d updates (%d moved) in %d ms, %.0f updates/s, %d dispatches, snapshot version %d%n",
+                               concurrent ? "with routing" : "updates only", updates, moved, elapsed / 1000000,
+                               updates / ( elapsed / 1e9 ), queries.get(), registry.snapshot().getVersion() );
+        }
+    }
+
+    /**
+     * Dispatches random clients to fleets of growing size, pruned to the
+     * nearest taxis, and compares with routing to the whole fleet.
+     */
+    private static void benchmarkDispatch( int side, int queries )
+    {
+        Map    map    = createCityMap( side );
+        AStar  aStar  = new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.automatic );
+        double extent = side * GRID_STEP;
+
+        for ( int fleet : new int[]{ 500, 5000, 20000 } )
+        {
+            Random         random  = new Random( 23 );
+            List<String[]> taxis   = new ArrayList<String[]>();
+            List<String[]> clients = new ArrayList<String[]>();
+
+            for ( int i = 0; i < fleet; i++ )
+            {
+                taxis.add( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                         String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ), String.valueOf( i ) } );
+            }
+            for ( int q = 0; q < queries; q++ )
+            {
+                clients.add( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                           String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ) } );
+            }
+
+            Dispatcher         dispatcher = new Dispatcher( map, taxis, AStar.HeuristicType.EuclideanDistance );
+            List<RoadPosition> positions  = dispatcher.getFleetPositions();
+
+            dispatcher.dispatch( clients );    // warm up
+            long begin = System.nanoTime();
+            dispatcher.dispatch( clients );
+            long prunedTime = System.nanoTime() - begin;
+
+            int full = Math.min( queries, 20 );
+            begin = System.nanoTime();
+            for ( int q = 0; q < full; q++ )
+            {
+                aStar.findPathsTo( positions, map.locateClientOnRoad( clients.get( q ) ), map.getCompactGraph() );
+            }
+            long fullTime = System.nanoTime() - begin;
+
+            System.out.printf( "%5d taxis: %.2f ms per query pruned, %.2f ms routing to all (%d queries)%n",
+                               fleet, prunedTime / 1e6 / queries, fullTime / 1e6 / full, full );
+        }
+    }
+
+    /**
+     * Costs from a client to a whole fleet: one A* search per taxi, one
+     * one-to-many Dijkstra search, and a PHAST sweep over a contraction
+     * hierarchy.
+     */
+    private static void benchmarkEta( int side, int fleet )
+    {
+        Map            map     = createCityMap( side );
+        CompactGraph   g       = map.getCompactGraph();
+        Random         random  = new Random( 23 );
+        double         extent  = side * GRID_STEP;
+        List<String[]> taxis   = new ArrayList<String[]>();
+        int            clients = 10;
+
+        for ( int i = 0; i < fleet; i++ )
+        {
+            taxis.add( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                     String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ), String.valueOf( i ) } );
+        }
+        List<RoadPosition> targets = map.locateTaxisOnRoad( taxis );
+
+        long begin = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build( g );
+        System.out.printf( "%d nodes, %d taxis, hierarchy built in %d ms%n", g.getNodeCount(), fleet, ( System.nanoTime() - begin ) / 1000000 );
+
+        AStar  aStar     = new AStar( AStar.HeuristicType.EuclideanDistance );
+        long   perTaxi   = 0;
+        long   oneToMany = 0;
+        long   phast     = 0;
+        int    sampled   = Math.min( fleet, 100 );
+
+        for ( int c = 0; c <= clients; c++ )
+        {
+            RoadPosition client = map.locateClientOnRoad( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                                                        String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ) } );
+
+            long t0 = System.nanoTime();
+            for ( int i = 0; i < sampled; i++ )
+            {
+                aStar.findPaths( client, Collections.singletonList( targets.get( i ) ), g, AStar.SearchType.strict );
+            }
+            long t1 = System.nanoTime();
+            Dijkstra.oneToMany( g, client, targets );
+            long t2 = System.nanoTime();
+            ch.costs( client, targets );
+            long t3 = System.nanoTime();
+
+            // first client warms up
+            if ( c > 0 )
+            {
+                perTaxi += t1 - t0;
+                oneToMany += t2 - t1;
+                phast += t3 - t2;
+            }
+        }
+
+        System.out.printf( "per client: A* per taxi %.1f ms (extrapolated from %d taxis), one-to-many %.2f ms, PHAST %.2f ms%n",
+                           perTaxi / 1e6 / clients * fleet / sampled, sampled, oneToMany / 1e6 / clients, phast / 1e6 / clients );
+    }
+
+    /**
+     * Routes random client to taxi pairs statically and time dependent at
+     * night and in the morning rush hour, with every fifth road of a
+     * generated city as a faster avenue.
+     */
+    private static void benchmarkTraffic( int side, int queries )
+    {
+        Map                       map    = createCityMap( side );
+        CompactGraph              g      = map.getCompactGraph();
+        Random                    random = new Random( 29 );
+        double                    extent = side * GRID_STEP;
+        HashMap<String, double[]> speeds = new HashMap<String, double[]>();
+
+        for ( int i = 0; i < side; i += 5 )
+        {
+            double hourly[] = new double[24];
+
+            Arrays.fill( hourly, 50 );
+            Arrays.fill( hourly, 7, 10, 20 );     // morning rush hour
+            Arrays.fill( hourly, 17, 20, 25 );    // evening rush hour
+            speeds.put( "h" + i, hourly );
+            speeds.put( "v" + i, hourly );
+        }
+
+        long          begin    = System.nanoTime();
+        SpeedProfiles profiles = new SpeedProfiles( map, speeds, 30 );
+        System.out.printf( "%d nodes: %d speed profiles for %d roads in %d ms%n",
+                           g.getNodeCount(), profiles.getProfileCount(), map.getRoads().size(), ( System.nanoTime() - begin ) / 1000000 );
+
+        List<RoadPosition> from = new ArrayList<RoadPosition>( queries );
+        List<RoadPosition> to   = new ArrayList<RoadPosition>( queries );
+        for ( int q = 0; q < queries; q++ )
+        {
+            from.add( map.locateClientOnRoad( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                                            String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ) } ) );
+            to.add( map.locateClientOnRoad( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                                          String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ) } ) );
+        }
+
+        AStar  aStar       = new AStar( AStar.HeuristicType.EuclideanDistance );
+        String labels[]    = { "static", "03:00", "08:00" };
+        double departure[] = { 0, 3 * 3600, 8 * 3600 };
+
+        for ( int run = 0; run < 3; run++ )
+        {
+            for ( int mode = 0; mode < labels.length; mode++ )
+            {
+                long   expanded = 0;
+                double cost     = 0;
+
+                begin = System.nanoTime();
+                for ( int q = 0; q < queries; q++ )
+                {
+                    List<RoadPosition>    target = Collections.singletonList( to.get( q ) );
+                    List<AStar.AStarNode> path   = mode == 0
+                            ? aStar.findPaths( from.get( q ), target, g, AStar.SearchType.strict )
+                            : aStar.findPaths( from.get( q ), target, g, profiles, departure[mode] );
+
+                    cost += path.get( 0 ).getCost();
+                    expanded += aStar.getExpandedNodes();
+                }
+                long time = System.nanoTime() - begin;
+
+                System.out.printf( "run %d %s: %.3f ms/query, %.0f expansions/query, mean %s %.1f%n", run, labels[mode], time / 1e6 / queries,
+                                   ( double ) expanded / queries, mode == 0 ? "m" : "min", mode == 0 ? cost / queries : cost / queries / 60 );
+            }
+        }
+    }
+
+    /**
+     * Routes random queries on the weights of the graph and on a live
+     * overlay, while a feed thread publishes a new set of congested and
+     * closed roads every 100 ms.
+     */
+    private static void benchmarkOverlay( int side, int queries )
+    {
+        Map           map     = createCityMap( side );
+        CompactGraph  g       = map.getCompactGraph();
+        WeightOverlay overlay = new WeightOverlay( g );
+        Random        random  = new Random( 31 );
+        double        extent  = side * GRID_STEP;
+        int           changes = g.getNodeCount() / 20;
+
+        List<RoadPosition> from = new ArrayList<RoadPosition>( queries );
+        List<RoadPosition> to   = new ArrayList<RoadPosition>( queries );
+        for ( int q = 0; q < queries; q++ )
+        {
+            from.add( map.locateClientOnRoad( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                                            String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ) } ) );
+            to.add( map.locateClientOnRoad( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                                          String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ) } ) );
+        }
+
+        AtomicBoolean done      = new AtomicBoolean();
+        AtomicInteger published = new AtomicInteger();
+        long          publish[] = new long[1];
+        Thread        feed      = new Thread( () ->
+        {
+            Random r = new Random( 37 );
+            while ( !done.get() )
+            {
+                overlay.resetAll();
+                for ( int c = 0; c < changes; c++ )
+                {
+                    int v = r.nextInt( g.getNodeCount() );
+                    if ( g.firstArc( v ) == g.endArc( v ) )
+                        continue;
+
+                    int w = g.getTarget( g.firstArc( v ) + r.nextInt( g.endArc( v ) - g.firstArc( v ) ) );
+                    if ( r.nextInt( 20 ) == 0 )
+                        overlay.close( v, w );
+                    else
+                        overlay.setFactor( v, w, 1 + 3 * r.nextDouble() );
+                }
+
+                long begin = System.nanoTime();
+                overlay.publish();
+                publish[0] += System.nanoTime() - begin;
+                published.incrementAndGet();
+
+                try
+                {
+                    Thread.sleep( 100 );
+                }
+                catch ( InterruptedException e )
+                {
+                    return;
+                }
+            }
+        } );
+        feed.start();
+
+        AStar  engines[] = { new AStar( AStar.HeuristicType.EuclideanDistance ),
+                             new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.forward, null, overlay ) };
+        String labels[]  = { "base", "overlay" };
+
+        for ( int run = 0; run < 3; run++ )
+        {
+            for ( int mode = 0; mode < engines.length; mode++ )
+            {
+                long   expanded = 0;
+                double cost     = 0;
+                int    found    = 0;
+
+                long begin = System.nanoTime();
+                for ( int q = 0; q < queries; q++ )
+                {
+                    List<AStar.AStarNode> path = engines[mode].findPaths( from.get( q ), Collections.singletonList( to.get( q ) ), g, AStar.SearchType.strict );
+
+                    if ( !path.isEmpty() )
+                    {
+                        cost += path.get( 0 ).getCost();
+                        found++;
+                    }
+                    expanded += engines[mode].getExpandedNodes();
+                }
+                long time = System.nanoTime() - begin;
+
+                System.out.printf( "run %d %s: %.3f ms/query, %.0f expansions/query, %d routes, mean %.1f m%n", run, labels[mode],
+                                   time / 1e6 / queries, ( double ) expanded / queries, found, cost / Math.max( found, 1 ) );
+            }
+        }
+
+        done.set( true );
+        try
+        {
+            feed.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        System.out.printf( "%d nodes: %d versions published, %d changed arcs, %.2f ms/publish%n", g.getNodeCount(), published.get(),
+                           overlay.snapshot().size(), publish[0] / 1e6 / Math.max( published.get(), 1 ) );
+    }
+
+    /**
+     * Computes a size x size matrix from random taxis to random zone
+     * centroids by parallel one-to-many searches and by contraction
+     * hierarchy buckets, the latter into a memory mapped file.
+     */
+    private static void benchmarkMatrix( int side, int size )
+    {
+        Map            map    = createCityMap( side );
+        Random         random = new Random( 23 );
+        double         extent = side * GRID_STEP;
+        List<String[]> taxis  = new ArrayList<String[]>();
+        List<String[]> zones  = new ArrayList<String[]>();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            taxis.add( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                     String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ), "t" + i } );
+            zones.add( new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                                     String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ), "z" + i } );
+        }
+        List<RoadPosition> sources = map.locateTaxisOnRoad( taxis );
+        List<RoadPosition> targets = map.locateTaxisOnRoad( zones );
+
+        long begin = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build( map.getCompactGraph() );
+        System.out.printf( "%d nodes, %d cores, hierarchy built in %d ms%n", map.getCompactGraph().getNodeCount(),
+                           Runtime.getRuntime().availableProcessors(), ( System.nanoTime() - begin ) / 1000000 );
+
+        try
+        {
+            Path file = Files.createTempFile( "matrix", ".bin" );
+
+            for ( int run = 0; run < 2; run++ )
+            {
+                begin = System.nanoTime();
+                CostMatrix.compute( map.getCompactGraph(), sources, targets, CostMatrix.allocate( size, size ) );
+                long searchTime = System.nanoTime() - begin;
+
+                begin = System.nanoTime();
+                ch.costs( sources, targets, CostMatrix.create( file, size, size ) ).force();
+                long bucketTime = System.nanoTime() - begin;
+
+                System.out.printf( "run %d: %d x %d one-to-many searches %d ms, hierarchy buckets to file %d ms%n",
+                                   run, size, size, searchTime / 1000000, bucketTime / 1000000 );
+            }
+            Files.delete( file );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( "Error. Cannot write cost matrix: " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Compares the search variants on a city and on the same city with
+     * every second road one-way, reporting latency.
+     */
+    private static void benchmarkOneway( int side, int queries )
+    {
+        for ( boolean oneway : new boolean[]{ false, true } )
+        {
+            Random     random = new Random( 37 );
+            Map        map    = createCityMap( side, oneway );
+            List<Node> starts = new ArrayList<Node>();
+            List<Node> goals  = new ArrayList<Node>();
+
+            for ( int i = 0; i < queries; i++ )
+            {
+                starts.add( map.locateClient( position( random.nextInt( side ), random.nextInt( side ) ) ) );
+                goals.add( map.locateTaxis( Collections.singletonList( position( random.nextInt( side ), random.nextInt( side ), "1" ) ) ).get( 0 ) );
+            }
+
+            CompactGraph         g         = map.getCompactGraph();
+            Landmarks            landmarks = Landmarks.compute( g, 16 );
+            ContractionHierarchy ch        = ContractionHierarchy.build( g );
+            String               names[]   = { "forward", "reverse", "landmarks", "hierarchy" };
+            AStar                engines[] = { new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.forward ),
+                                               new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.reverse ),
+                                               new AStar( AStar.HeuristicType.Landmarks, AStar.SearchDirection.forward, landmarks ),
+                                               null };
+
+            System.out.printf( "%s city: %d nodes, %d arcs, %s%n", oneway ? "one-way" : "two-way", g.getNodeCount(),
+                               g.getArcCount(), g.isSymmetric() ? "symmetric" : "directed" );
+
+            for ( int run = 0; run < 2; run++ )
+            {
+                for ( int e = 0; e < engines.length; e++ )
+                {
+                    long begin = System.nanoTime();
+
+                    for ( int q = 0; q < queries; q++ )
+                    {
+                        if ( engines[e] == null )
+                            ch.route( starts.get( q ), Collections.singletonList( goals.get( q ) ) );
+                        else
+                            engines[e].findPaths( starts.get( q ), Collections.singletonList( goals.get( q ) ), g, AStar.SearchType.strict );
+                    }
+                    long elapsed = System.nanoTime() - begin;
+
+                    System.out.printf( "run %d: %-13s %.3f ms/query%n", run, names[e], elapsed / 1e6 / queries );
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares A* without turn costs with the edge based search on a city
+     * without listed turns, with left turns forbidden at a tenth of the
+     * crossings, and with every other left turn costing 30 m on top. Reports
+     * table size, search states, latency and the change of route costs.
+     */
+    private static void benchmarkTurns( int side, int queries )
+    {
+        Random       random = new Random( 41 );
+        Map          map    = createCityMap( side );
+        CompactGraph g      = map.getCompactGraph();
+        List<Node>   starts = new ArrayList<Node>();
+        List<Node>   goals  = new ArrayList<Node>();
+
+        for ( int i = 0; i < queries; i++ )
+        {
+            starts.add( map.locateClient( position( random.nextInt( side ), random.nextInt( side ) ) ) );
+            goals.add( map.locateTaxis( Collections.singletonList( position( random.nextInt( side ), random.nextInt( side ), "1" ) ) ).get( 0 ) );
+        }
+
+        String    names[] = { "plain", "no turns", "no left 10%", "left 30 m" };
+        TurnCosts turns[] = { null, leftTurns( g, 0, 0 ), leftTurns( g, 0.1, 0 ), leftTurns( g, 0.1, 30 ) };
+        double    costs[] = new double[queries];
+
+        System.out.printf( "city: %d nodes, %d arcs%n", g.getNodeCount(), g.getArcCount() );
+        for ( int e = 1; e < turns.length; e++ )
+        {
+            TurnCosts t       = turns[e];
+            int       members = t.getJunctionCount() == 0 ? 0 : t.endJunctionNode( t.getJunctionCount() - 1 );
+            int       entries = t.getStateCount() - g.getNodeCount();
+            long      bytes   = 16L * t.getTurnCount() + 4L * entries + 12L * members + 4L * ( t.getJunctionCount() + 1 ) + g.getNodeCount() / 8;
+
+            System.out.printf( "%-11s %d junctions, %d turns, %d states (+%.1f%%), tables %d KB%n", names[e], t.getJunctionCount(),
+                               t.getTurnCount(), t.getStateCount(), 100.0 * entries / g.getNodeCount(), bytes >> 10 );
+        }
+
+        for ( int run = 0; run < 2; run++ )
+        {
+            for ( int e = 0; e < turns.length; e++ )
+            {
+                AStar  engine      = new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.forward, null, null, turns[e] );
+                int    unreachable = 0;
+                long   expanded    = 0;
+                double increase    = 0;
+                long   begin       = System.nanoTime();
+
+                for ( int q = 0; q < queries; q++ )
+                {
+                    List<AStar.AStarNode> r = engine.findPaths( starts.get( q ), Collections.singletonList( goals.get( q ) ),
+                                                                g, AStar.SearchType.strict );
+                    double cost = r.isEmpty() ? Double.POSITIVE_INFINITY : r.get( 0 ).getCost();
+
+                    expanded += engine.getExpandedNodes();
+                    if ( e == 0 )
+                        costs[q] = cost;
+                    else if ( cost == Double.POSITIVE_INFINITY )
+                        unreachable++;
+                    else if ( costs[q] > 0 )
+                        increase += cost / costs[q] - 1;
+                }
+                long elapsed = System.nanoTime() - begin;
+
+                System.out.printf( "run %d: %-11s %.3f ms/query, %d expanded/query, cost +%.2f%%, %d unreachable%n", run,
+                                   names[e], elapsed / 1e6 / queries, expanded / queries, 100 * increase / queries, unreachable );
+            }
+        }
+    }
+
+    /**
+     * @param g
+     * @param forbidden: share of the crossings where left turns are forbidden
+     * @param cost:      meters of every other left turn, 0 to leave them unlisted
+     * @return turn costs of the left turns at the crossings of g
+     */
+    private static TurnCosts leftTurns( CompactGraph g, double forbidden, double cost )
+    {
+        Random random   = new Random( 43 );
+        int    inArc[]  = new int[16];
+        int    outArc[] = new int[16];
+        double costs[]  = new double[16];
+        int    count    = 0;
+
+        for ( int v = 0; v < g.getNodeCount(); v++ )
+        {
+            // crossing roads share their node
+            if ( g.endInArc( v ) - g.firstInArc( v ) < 3 )
+                continue;
+
+            double turn = random.nextDouble() < forbidden ? Double.POSITIVE_INFINITY : cost;
+            if ( turn == 0 )
+                continue;
+
+            for ( int i = g.firstInArc( v ); i < g.endInArc( v ); i++ )
+            {
+                for ( int out = g.firstArc( v ); out < g.endArc( v ); out++ )
+                {
+                    int in = g.getInArc( i );
+
+                    if ( !isLeftTurn( g, in, out ) )
+                        continue;
+
+                    if ( count == inArc.length )
+                    {
+                        inArc = Arrays.copyOf( inArc, 2 * count );
+                        outArc = Arrays.copyOf( outArc, 2 * count );
+                        costs = Arrays.copyOf( costs, 2 * count );
+                    }
+                    inArc[count] = in;
+                    outArc[count] = out;
+                    costs[count++] = turn;
+                }
+            }
+        }
+        return new TurnCosts( g, Arrays.copyOf( inArc, count ), Arrays.copyOf( outArc, count ), Arrays.copyOf( costs, count ) );
+    }
+
+    /**
+     * @return true if out leaves more than 30 degrees to the left of the direction of in
+     */
+    private static boolean isLeftTurn( CompactGraph g, int in, int out )
+    {
+        double inX  = g.getX( g.getTarget( in ) ) - g.getX( g.getSource( in ) );
+        double inY  = g.getY( g.getTarget( in ) ) - g.getY( g.getSource( in ) );
+        double outX = g.getX( g.getTarget( out ) ) - g.getX( g.getSource( out ) );
+        double outY = g.getY( g.getTarget( out ) ) - g.getY( g.getSource( out ) );
+
+        return inX * outY - inY * outX > 0.5 * Math.hypot( inX, inY ) * Math.hypot( outX, outY );
+    }
+
+    /**
+     * @return distance of a position to the node it was located at, in meters
+     */
+    private static double offset( Map map, String[] position, Node node )
+    {
+        Point p = new Point( Double.parseDouble( position[1] ), Double.parseDouble( position[0] ) );
+        return map.getCompactGraph().getProjection().distance( p, node.getPoint() );
+    }
+
+    /**
+     * Converts a generated city to a snapshot and compares loading it
+     * with streaming the node file.
+     */
+    private static void benchmarkSnapshot( int side )
+    {
+        try
+        {
+            Path nodes    = Files.createTempFile( "nodes", ".csv" );
+            Path snapshot = Files.createTempFile( "map", ".snapshot" );
+
+            writeCityNodes( side, nodes );
+
+            long begin = System.nanoTime();
+            Map  map   = new Map( nodes );
+            long read  = System.nanoTime();
+            MapSnapshot.save( map, snapshot );
+            long saved = System.nanoTime();
+
+            System.out.printf( "%d nodes, %d arcs: csv %d MB read in %d ms, snapshot %d MB written in %d ms%n",
+                               map.getAllNodes().size(), map.getCompactGraph().getArcCount(), Files.size( nodes ) >> 20,
+                               ( read - begin ) / 1000000, Files.size( snapshot ) >> 20, ( saved - read ) / 1000000 );
+            map = null;
+
+            for ( int run = 0; run < 3; run++ )
+            {
+                measureLoad( "snapshot load", () -> MapSnapshot.load( snapshot ) );
+            }
+
+            Files.delete( nodes );
+            Files.delete( snapshot );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( e );
+        }
+    }
+
+    private interface Load
+    {
+        void run() throws IOException;
+    }
+
+    private static void measureLoad( String name, Load load ) throws IOException
+    {
+        List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP )
+                heap.add( pool );
+        }
+
+        System.gc();
+        long before = 0;
+        for ( MemoryPoolMXBean pool : heap )
+        {
+            before += pool.getUsage().getUsed();
+            pool.resetPeakUsage();
+        }
+
+        long begin = System.nanoTime();
+        load.run();
+        long elapsed = System.nanoTime() - begin;
+
+        long peak = 0;
+        for ( MemoryPoolMXBean pool : heap )
+            peak += pool.getPeakUsage().getUsed();
+
+        System.out.printf( "%s %6d ms, peak heap +%d MB%n", name, elapsed / 1000000, ( peak - before ) >> 20 );
+    }
+
+    /**
+     * Writes the crossings of a jittered city as node file with seven
+     * decimals, the precision of OSM exports.
+     */
+    private static void writeCityNodes( int side, Path file ) throws IOException
+    {
+        try ( BufferedWriter out = Files.newBufferedWriter( file ) )
+        {
+            out.write( "X,Y,id,name\n" );
+            for ( int road = 0; road < 2 * side; road++ )
+            {
+                for ( int i = 0; i < side; i++ )
+                {
+                    String p[] = road < side ? jitteredPosition( i, road, "h" + road )
+                                             : jitteredPosition( road - side, i, "v" + ( road - side ) );
+
+                    out.write( String.format( "%.7f,%.7f,%s%n", Double.parseDouble( p[0] ), Double.parseDouble( p[1] ), p[2] ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a map of side horizontal and side vertical roads crossing
+     * at every grid point.
+     *
+     * @param side:  grid points per road
+     * @param start: String [longitude, latitude], null for a map without start and goals
+     * @param goals: String [longitude, latitude, name]
+     * @return map
+     */
+    static Map createGridMap( int side, String[] start, List<String[]> goals )
+    {
+        List<String[]> dataPoints = new ArrayList<String[]>( 2 * side * side );
+
+        for ( int row = 0; row < side; row++ )
+        {
+            for ( int column = 0; column < side; column++ )
+            {
+                dataPoints.add( position( column, row, "h" + row ) );
+            }
+        }
+        for ( int column = 0; column < side; column++ )
+        {
+            for ( int row = 0; row < side; row++ )
+            {
+                dataPoints.add( position( column, row, "v" + column ) );
+            }
+        }
+        return start == null ? new Map( dataPoints ) : new Map( start, goals, dataPoints );
+    }
+
+    /**
+     * Same as a grid map without start and goals, but every grid point is
+     * shifted by up to 30% of the grid step, so routes are unique as on a
+     * real street network.
+     *
+     * @param side: grid points per road
+     * @return map
+     */
+    static Map createCityMap( int side )
+    {
+        return createCityMap( side, false );
+    }
+
+    /**
+     * @param side:   grid points per road
+     * @param oneway: every second road is one-way, in alternating directions
+     * @return map
+     */
+    static Map createCityMap( int side, boolean oneway )
+    {
+        List<String[]> dataPoints = new ArrayList<String[]>( 2 * side * side );
+
+        for ( int row = 0; row < side; row++ )
+        {
+            for ( int column = 0; column < side; column++ )
+            {
+                dataPoints.add( withDirection( jitteredPosition( column, row, "h" + row ), oneway ? row : 0 ) );
+            }
+        }
+        for ( int column = 0; column < side; column++ )
+        {
+            for ( int row = 0; row < side; row++ )
+            {
+                dataPoints.add( withDirection( jitteredPosition( column, row, "v" + column ), oneway ? column : 0 ) );
+            }
+        }
+        return new Map( dataPoints );
+    }
+
+    /**
+     * @param p:    String [longitude, latitude, id]
+     * @param road: number of the road, odd roads are one-way
+     * @return String [longitude, latitude, id, name, oneway]
+     */
+    private static String[] withDirection( String p[], int road )
+    {
+        String oneway = road % 4 == 1 ? "1" : road % 4 == 3 ? "-1" : "0";
+
+        return new String[]{ p[0], p[1], p[2], p[2], oneway };
+    }
+
+    private static String[] jitteredPosition( int column, int row, String name )
+    {
+        Random random = new Random( 31L * column + 1000003L * row );    // same shift for both crossing roads
+
+        return new String[]{ String.valueOf( ORIGIN_LONGITUDE + ( column + 0.6 * random.nextDouble() - 0.3 ) * GRID_STEP ),
+                             String.valueOf( ORIGIN_LATITUDE + ( row + 0.6 * random.nextDouble() - 0.3 ) * GRID_STEP ),
+                             name };
+    }
+
+    static String[] position( int column, int row )
+    {
+        return new String[]{ String.valueOf( ORIGIN_LONGITUDE + column * GRID_STEP ),
+                             String.valueOf( ORIGIN_LATITUDE + row * GRID_STEP ) };
+    }
+
+    static String[] position( int column, int row, String name )
+    {
+        String[] p = position( column, row );
+        return new String[]{ p[0], p[1], name };
+    }
+
+    /**
+     * @param random
+     * @param side:  grid points per road
+     * @param name
+     * @return String [longitude, latitude, name] anywhere on a map of side x side grid points
+     */
+    static String[] randomPosition( Random random, int side, String name )
+    {
+        double extent = side * GRID_STEP;
+
+        return new String[]{ String.valueOf( ORIGIN_LONGITUDE + random.nextDouble() * extent ),
+                             String.valueOf( ORIGIN_LATITUDE + random.nextDouble() * extent ), name };
+    }
+}
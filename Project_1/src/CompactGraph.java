@@ -0,0 +1,337 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.graph.ValueGraph;
+
+/**
+ * Immutable directed graph in compressed sparse row layout. Nodes are
+ * addressed by their dense map index, the arcs of node v are stored at
+ * [offset[v], offset[v + 1]) of the target and weight arrays. Two-way
+ * roads are stored as two arcs, one-way roads as one. For backward
+ * searches the incoming arcs of node v are listed at
+ * [inOffset[v], inOffset[v + 1]) of inArc by their index, so they share
+ * target and weight (and live weights) with the outgoing arcs. Weights
+ * are in meters; the projected coordinates of every node are kept for the
+ * heuristics. The arrays are buffers, so a graph can be a view of a
+ * mapped {@link MapSnapshot} whose nodes are created on first use.
+ */
+public class CompactGraph
+{
+    private final AtomicReferenceArray<Node> nodes;
+    private final NodeFactory                nodeFactory;    // creates missing nodes, null if all are given
+    private final IntBuffer                  offset;
+    private final IntBuffer                  target;
+    private final DoubleBuffer               weight;
+
+    // reverse arcs
+    private final IntBuffer source;        // per arc
+    private final IntBuffer inOffset;
+    private final IntBuffer inArc;         // arcs by target node
+    private final boolean   symmetric;     // every arc has an opposite arc of the same weight
+    private final boolean   crossingLinks; // zero length arcs join nodes at the same point
+
+    private final Projection   projection;
+    private final DoubleBuffer x;           // projected coordinates in meters per node index
+    private final DoubleBuffer y;
+
+    private volatile long checksum;         // of the arcs, 0 until first asked for
+
+    public CompactGraph( Node nodes[], int offset[], int target[], double weight[] )
+    {
+        this( nodes, offset, target, weight, Projection.of( Arrays.asList( nodes ) ) );
+    }
+
+    /**
+     * @param nodes
+     * @param offset
+     * @param target
+     * @param weight:     per arc, in meters of projection
+     * @param projection
+     */
+    public CompactGraph( Node nodes[], int offset[], int target[], double weight[], Projection projection )
+    {
+        double x[] = new double[nodes.length];
+        double y[] = new double[nodes.length];
+
+        for ( int i = 0; i < nodes.length; i++ )
+        {
+            if ( nodes[i] == null )
+                continue;
+
+            x[i] = projection.x( nodes[i].getPoint().getLongitude() );
+            y[i] = projection.y( nodes[i].getPoint().getLatitude() );
+        }
+
+        int source[]   = new int[target.length];
+        int inOffset[] = new int[nodes.length + 1];
+        int inArc[]    = new int[target.length];
+
+        for ( int arc = 0; arc < target.length; arc++ )
+            inOffset[target[arc] + 1]++;
+        for ( int v = 0; v < nodes.length; v++ )
+            inOffset[v + 1] += inOffset[v];
+
+        int     cursor[]      = Arrays.copyOf( inOffset, nodes.length );
+        boolean symmetric     = true;
+        boolean crossingLinks = false;
+
+        for ( int v = 0; v < nodes.length; v++ )
+        {
+            for ( int arc = offset[v]; arc < offset[v + 1]; arc++ )
+            {
+                int back = findArc( offset, target, target[arc], v );
+
+                source[arc] = v;
+                inArc[cursor[target[arc]]++] = arc;
+                symmetric &= back >= 0 && weight[back] == weight[arc];
+                crossingLinks |= weight[arc] == 0 && target[arc] != v;
+            }
+        }
+
+        this.nodes = new AtomicReferenceArray<Node>( nodes );
+        this.nodeFactory = null;
+        this.offset = IntBuffer.wrap( offset );
+        this.target = IntBuffer.wrap( target );
+        this.weight = DoubleBuffer.wrap( weight );
+        this.source = IntBuffer.wrap( source );
+        this.inOffset = IntBuffer.wrap( inOffset );
+        this.inArc = IntBuffer.wrap( inArc );
+        this.symmetric = symmetric;
+        this.crossingLinks = crossingLinks;
+        this.projection = projection;
+        this.x = DoubleBuffer.wrap( x );
+        this.y = DoubleBuffer.wrap( y );
+    }
+
+    /**
+     * Graph over stored arrays, e.g. views of a mapped snapshot; nothing
+     * is copied or derived. Nodes are created by nodeFactory when first
+     * asked for.
+     *
+     * @param offset:        per node + 1
+     * @param target:        per arc
+     * @param weight:        per arc, in meters of projection
+     * @param source:        per arc
+     * @param inOffset:      per node + 1
+     * @param inArc:         arcs by target node
+     * @param x:             projected coordinates per node
+     * @param y
+     * @param symmetric:     see {@link #isSymmetric()}
+     * @param crossingLinks: see {@link #hasCrossingLinks()}
+     * @param projection
+     * @param nodeFactory
+     */
+    CompactGraph( IntBuffer offset, IntBuffer target, DoubleBuffer weight, IntBuffer source, IntBuffer inOffset, IntBuffer inArc,
+                  DoubleBuffer x, DoubleBuffer y, boolean symmetric, boolean crossingLinks, Projection projection,
+                  NodeFactory nodeFactory )
+    {
+        this.nodes = new AtomicReferenceArray<Node>( offset.limit() - 1 );
+        this.nodeFactory = nodeFactory;
+        this.offset = offset;
+        this.target = target;
+        this.weight = weight;
+        this.source = source;
+        this.inOffset = inOffset;
+        this.inArc = inArc;
+        this.symmetric = symmetric;
+        this.crossingLinks = crossingLinks;
+        this.projection = projection;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Copies a (builder side) value graph into compact form.
+     *
+     * @param g
+     * @param allNodes:   all map nodes, position equals node index (may contain null)
+     * @param projection: projection the edge values were computed in
+     * @return compact graph
+     */
+    public static CompactGraph freeze( ValueGraph<Node, Double> g, List<Node> allNodes, Projection projection )
+    {
+        int  nodeCount = allNodes.size();
+        Node nodes[]   = allNodes.toArray( new Node[nodeCount] );
+        int  offset[]  = new int[nodeCount + 1];
+
+        for ( int i = 0; i < nodeCount; i++ )
+        {
+            int degree = nodes[i] != null && g.nodes().contains( nodes[i] ) ? g.successors( nodes[i] ).size() : 0;
+            offset[i + 1] = offset[i] + degree;
+        }
+
+        int    target[] = new int[offset[nodeCount]];
+        double weight[] = new double[offset[nodeCount]];
+
+        for ( int i = 0; i < nodeCount; i++ )
+        {
+            if ( offset[i] == offset[i + 1] )
+                continue;
+
+            // arcs ordered by target index -> deterministic search order
+            Node adjacent[] = g.successors( nodes[i] ).toArray( new Node[0] );
+            Arrays.sort( adjacent, Comparator.comparingInt( Node::getIndex ) );
+
+            int arc = offset[i];
+            for ( Node n : adjacent )
+            {
+                target[arc] = n.getIndex();
+                weight[arc] = g.edgeValue( nodes[i], n ).get();
+                arc++;
+            }
+        }
+        return new CompactGraph( nodes, offset, target, weight, projection );
+    }
+
+    /**
+     * @param from: node index
+     * @param to:   node index
+     * @return first arc from -> to, -1 if there is none
+     */
+    public int findArc( int from, int to )
+    {
+        for ( int arc = firstArc( from ); arc < endArc( from ); arc++ )
+        {
+            if ( getTarget( arc ) == to )
+                return arc;
+        }
+        return -1;
+    }
+
+    private static int findArc( int offset[], int target[], int from, int to )
+    {
+        for ( int arc = offset[from]; arc < offset[from + 1]; arc++ )
+        {
+            if ( target[arc] == to )
+                return arc;
+        }
+        return -1;
+    }
+
+    /**
+     * @param index
+     * @return map node, created on first use for graphs over a snapshot
+     */
+    public Node getNode( int index )
+    {
+        Node node = this.nodes.get( index );
+
+        if ( node == null && this.nodeFactory != null )
+        {
+            // one node per index, so every caller sees the same node id
+            this.nodes.compareAndSet( index, null, this.nodeFactory.create( index ) );
+            node = this.nodes.get( index );
+        }
+        return node;
+    }
+
+    /**
+     * @param index
+     * @return false for gaps in the node indices of a graph built from nodes
+     */
+    public boolean hasNode( int index )
+    {
+        return this.nodeFactory != null || this.nodes.get( index ) != null;
+    }
+
+    /**
+     * @return view of the nodes by index, created on first access
+     */
+    public List<Node> getNodes()
+    {
+        return new AbstractList<Node>()
+        {
+            @Override
+            public Node get( int index ) { return getNode( index ); }
+
+            @Override
+            public int size() { return getNodeCount(); }
+        };
+    }
+
+    /**
+     * @return true if every arc has an opposite arc of the same weight,
+     *         so costs from and to a node are the same
+     */
+    public boolean isSymmetric() { return this.symmetric; }
+
+    /**
+     * @return true if crossing roads have a node each at the crossing, joined
+     *         by links of zero length, as in snapshots before version 5 of
+     *         {@link MapSnapshot}; false if they share the node
+     */
+    public boolean hasCrossingLinks() { return this.crossingLinks; }
+
+    /**
+     * Checksum over the sources, targets and weights of all arcs, so files
+     * computed for a graph (landmarks, hierarchies) can tell whether they
+     * still match it. Computed once, on the first call.
+     *
+     * @return checksum, never 0
+     */
+    public long getChecksum()
+    {
+        long result = this.checksum;
+
+        if ( result == 0 )
+        {
+            result = getArcCount();
+            for ( int v = 0; v < getNodeCount(); v++ )
+            {
+                for ( int arc = firstArc( v ); arc < endArc( v ); arc++ )
+                {
+                    result = mix( result, v );
+                    result = mix( result, getTarget( arc ) );
+                    result = mix( result, Double.doubleToLongBits( getWeight( arc ) ) );
+                }
+            }
+            result = result == 0 ? 1 : result;
+            this.checksum = result;
+        }
+        return result;
+    }
+
+    private static long mix( long hash, long value )
+    {
+        hash = ( hash ^ value ) * 0x9e3779b97f4a7c15L;
+        return hash ^ ( hash >>> 29 );
+    }
+
+    public int    getNodeCount()          { return this.nodes.length(); }
+    public int    getArcCount()           { return this.target.limit(); }
+    public int    firstArc( int index )   { return this.offset.get( index ); }
+    public int    endArc( int index )     { return this.offset.get( index + 1 ); }
+    public int    getTarget( int arc )    { return this.target.get( arc ); }
+    public int    getSource( int arc )    { return this.source.get( arc ); }
+    public double getWeight( int arc )    { return this.weight.get( arc ); }
+    public double getX( int index )       { return this.x.get( index ); }
+    public double getY( int index )       { return this.y.get( index ); }
+
+    // incoming arcs of a node: getInArc( i ) for firstInArc( index ) <= i < endInArc( index )
+    public int    firstInArc( int index ) { return this.inOffset.get( index ); }
+    public int    endInArc( int index )   { return this.inOffset.get( index + 1 ); }
+    public int    getInArc( int i )       { return this.inArc.get( i ); }
+
+    public Projection getProjection() { return this.projection; }
+
+    /**
+     * Creates the map node of an index, see {@link #getNode(int)}.
+     */
+    interface NodeFactory
+    {
+        Node create( int index );
+    }
+}
@@ -0,0 +1,1096 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction hierarchy over the compact graph. Nodes are contracted in
+ * order of importance; shortcuts keep the distances between the remaining
+ * nodes. Queries are bidirectional Dijkstra searches that only relax arcs
+ * towards higher ranked nodes, shortcuts are unpacked into map nodes.
+ *
+ * The hierarchy is immutable, queries keep per thread search state.
+ */
+public class ContractionHierarchy
+{
+    private static final int MAGIC   = 0x43483031;    // "CH01"
+    private static final int VERSION = 3;    // costs in meters since version 2, arc count and checksum of the graph since version 3
+
+    private final CompactGraph graph;
+    private final int          rank[];
+
+    // downward arcs by rank of their target, with source ranks, for the PHAST sweep
+    private final int    sweepFirst[];
+    private final int    sweepSource[];
+    private final double sweepWeight[];
+
+    // upward arcs u -> w (rank[u] < rank[w]), stored at u
+    private final int    upFirst[];
+    private final int    upTarget[];
+    private final double upWeight[];
+    private final int    upMiddle[];      // contracted node bridged by a shortcut, -1 for road arcs
+
+    // downward arcs u -> w (rank[u] > rank[w]), stored at w for the backward search
+    private final int    downFirst[];
+    private final int    downSource[];
+    private final double downWeight[];
+    private final int    downMiddle[];
+
+    private final ThreadLocal<QueryState> state = new ThreadLocal<QueryState>();
+
+    private ContractionHierarchy( CompactGraph graph, int rank[],
+                                  int upFirst[], int upTarget[], double upWeight[], int upMiddle[],
+                                  int downFirst[], int downSource[], double downWeight[], int downMiddle[] )
+    {
+        this.graph = graph;
+        this.rank = rank;
+
+        int byRank[] = new int[rank.length];
+        for ( int v = 0; v < rank.length; v++ )
+        {
+            byRank[rank[v]] = v;
+        }
+
+        this.sweepFirst = new int[rank.length + 1];
+        this.sweepSource = new int[downSource.length];
+        this.sweepWeight = new double[downSource.length];
+        for ( int r = 0; r < rank.length; r++ )
+        {
+            int v     = byRank[r];
+            int count = downFirst[v + 1] - downFirst[v];
+
+            for ( int i = 0; i < count; i++ )
+            {
+                this.sweepSource[this.sweepFirst[r] + i] = rank[downSource[downFirst[v] + i]];
+                this.sweepWeight[this.sweepFirst[r] + i] = downWeight[downFirst[v] + i];
+            }
+            this.sweepFirst[r + 1] = this.sweepFirst[r] + count;
+        }
+        this.upFirst = upFirst;
+        this.upTarget = upTarget;
+        this.upWeight = upWeight;
+        this.upMiddle = upMiddle;
+        this.downFirst = downFirst;
+        this.downSource = downSource;
+        this.downWeight = downWeight;
+        this.downMiddle = downMiddle;
+    }
+
+    /**
+     * Contracts all nodes of the graph.
+     *
+     * @param g
+     * @return hierarchy
+     */
+    public static ContractionHierarchy build( CompactGraph g )
+    {
+        return new Builder( g ).build();
+    }
+
+    /**
+     * Finds the cheapest route from start to any of the targets.
+     *
+     * @param start
+     * @param target
+     * @return route, null if no target is reachable
+     */
+    public Route route( Node start, List<Node> target )
+    {
+        QueryState q = queryState();
+
+        q.clear();
+        q.reachForward( start.getIndex(), 0, -1, -1 );
+        for ( Node t : target )
+        {
+            q.reachBackward( t.getIndex(), 0, -1, -1 );
+        }
+
+        double best    = Double.POSITIVE_INFINITY;
+        int    meeting = -1;
+
+        if ( q.backwardReached.contains( start.getIndex() ) )
+        {
+            best = 0;
+            meeting = start.getIndex();
+        }
+
+        while ( true )
+        {
+            boolean forward  = !q.forwardQueue.isEmpty() && q.forwardQueue.peekKey() < best;
+            boolean backward = !q.backwardQueue.isEmpty() && q.backwardQueue.peekKey() < best;
+
+            if ( !forward && !backward )
+                break;
+
+            if ( forward && ( !backward || q.forwardQueue.peekKey() <= q.backwardQueue.peekKey() ) )
+            {
+                int u = q.forwardQueue.pop();
+
+                if ( stalledForward( q, u ) )
+                    continue;
+
+                for ( int arc = this.upFirst[u]; arc < this.upFirst[u + 1]; arc++ )
+                {
+                    int    w    = this.upTarget[arc];
+                    double cost = q.forward[u] + this.upWeight[arc];
+
+                    if ( q.reachForward( w, cost, u, arc ) && q.backwardReached.contains( w ) && cost + q.backward[w] < best )
+                    {
+                        best = cost + q.backward[w];
+                        meeting = w;
+                    }
+                }
+            }
+            else
+            {
+                int u = q.backwardQueue.pop();
+
+                if ( stalledBackward( q, u ) )
+                    continue;
+
+                for ( int arc = this.downFirst[u]; arc < this.downFirst[u + 1]; arc++ )
+                {
+                    int    w    = this.downSource[arc];
+                    double cost = q.backward[u] + this.downWeight[arc];
+
+                    if ( q.reachBackward( w, cost, u, arc ) && q.forwardReached.contains( w ) && cost + q.forward[w] < best )
+                    {
+                        best = cost + q.forward[w];
+                        meeting = w;
+                    }
+                }
+            }
+        }
+
+        if ( meeting < 0 )
+            return null;
+
+        return new Route( best, unpackPath( q, meeting ) );
+    }
+
+    /**
+     * One-to-all costs (PHAST): an upward search from the source settles
+     * the source's cone of higher ranked nodes, then a single sweep over all
+     * nodes in descending rank relaxes the downward arcs. Every downward
+     * arc starts at a higher ranked node, which is final when the sweep
+     * reaches its target. Labels and arcs of the sweep are laid out by
+     * rank, so it reads memory sequentially.
+     *
+     * @param source
+     * @return cost per node index, infinity for unreachable nodes
+     */
+    public double[] distances( RoadPosition source )
+    {
+        double byRank[]   = sweep( source );
+        double distance[] = new double[byRank.length];
+
+        for ( int v = 0; v < distance.length; v++ )
+        {
+            distance[v] = byRank[this.rank[v]];
+        }
+        return distance;
+    }
+
+    /**
+     * Costs from source to every target by one {@link #distances(RoadPosition)} sweep.
+     *
+     * @param source
+     * @param targets
+     * @return table aligned with targets, without paths
+     */
+    public CostTable costs( RoadPosition source, List<RoadPosition> targets )
+    {
+        double distance[] = sweep( source );
+        double costs[]    = new double[targets.size()];
+
+        for ( int i = 0; i < targets.size(); i++ )
+        {
+            RoadPosition t = targets.get( i );
+
+            costs[i] = Math.min( distance[this.rank[t.getFrom()]] + t.getCostFrom( t.getFrom(), this.graph ),
+                                 distance[this.rank[t.getTo()]] + t.getCostFrom( t.getTo(), this.graph ) );
+            if ( source.isOnSameSegment( t ) )
+                costs[i] = Math.min( costs[i], source.getDirectCost( t, this.graph ) );
+        }
+        return new CostTable( costs );
+    }
+
+    /**
+     * Many-to-many costs with buckets: an upward search from every target
+     * leaves (target, cost) in a bucket at each node it settles, then an
+     * upward search from every source scans the buckets of the nodes it
+     * settles. Every shortest path meets at its highest ranked node, which
+     * both searches settle. Both phases run in parallel on the common
+     * fork-join pool.
+     *
+     * @param sources: one per row
+     * @param targets: one per column
+     * @param result:  sources.size() x targets.size()
+     * @return result
+     */
+    public CostMatrix costs( List<RoadPosition> sources, List<RoadPosition> targets, CostMatrix result )
+    {
+        result.checkSize( sources.size(), targets.size() );
+
+        int    n             = this.rank.length;
+        int    spaceNode[][] = new int[targets.size()][];    // search space per target
+        double spaceCost[][] = new double[targets.size()][];
+
+        IntStream.range( 0, targets.size() ).parallel().forEach( j ->
+        {
+            QueryState q     = queryState();
+            int        count = upwardSearch( q, targets.get( j ), true );
+
+            spaceNode[j] = Arrays.copyOf( q.settled, count );
+            spaceCost[j] = new double[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                spaceCost[j][i] = q.forward[q.settled[i]];
+            }
+        } );
+
+        // buckets by node
+        int bucketFirst[] = new int[n + 1];
+        for ( int nodes[] : spaceNode )
+        {
+            for ( int v : nodes )
+                bucketFirst[v + 1]++;
+        }
+        for ( int v = 0; v < n; v++ )
+        {
+            bucketFirst[v + 1] += bucketFirst[v];
+        }
+
+        int    cursor[]       = Arrays.copyOf( bucketFirst, n );
+        int    bucketTarget[] = new int[bucketFirst[n]];
+        double bucketCost[]   = new double[bucketFirst[n]];
+        for ( int j = 0; j < targets.size(); j++ )
+        {
+            for ( int i = 0; i < spaceNode[j].length; i++ )
+            {
+                int b = cursor[spaceNode[j][i]]++;
+
+                bucketTarget[b] = j;
+                bucketCost[b] = spaceCost[j][i];
+            }
+        }
+
+        IntStream.range( 0, sources.size() ).parallel().forEach( row ->
+        {
+            QueryState   q       = queryState();
+            RoadPosition source  = sources.get( row );
+            int          count   = upwardSearch( q, source, false );
+            double       costs[] = new double[targets.size()];
+
+            Arrays.fill( costs, Double.POSITIVE_INFINITY );
+            for ( int i = 0; i < count; i++ )
+            {
+                int    u = q.settled[i];
+                double d = q.forward[u];
+
+                for ( int b = bucketFirst[u]; b < bucketFirst[u + 1]; b++ )
+                {
+                    costs[bucketTarget[b]] = Math.min( costs[bucketTarget[b]], d + bucketCost[b] );
+                }
+            }
+            for ( int j = 0; j < targets.size(); j++ )
+            {
+                RoadPosition t = targets.get( j );
+
+                if ( source.isOnSameSegment( t ) )
+                    costs[j] = Math.min( costs[j], source.getDirectCost( t, this.graph ) );
+            }
+            result.setRow( row, costs );
+        } );
+        return result;
+    }
+
+    /**
+     * Upward Dijkstra search from the ends of a position reachable in the
+     * direction of the search, with stall on demand; stalled nodes are not
+     * on a shortest path and are not reported. Labels are left in
+     * q.forward.
+     *
+     * @param q
+     * @param p
+     * @param backward: follow the arcs of the backward search
+     * @return number of settled nodes, listed in q.settled
+     */
+    private int upwardSearch( QueryState q, RoadPosition p, boolean backward )
+    {
+        int    first[]       = backward ? this.downFirst : this.upFirst;
+        int    next[]        = backward ? this.downSource : this.upTarget;
+        double weight[]      = backward ? this.downWeight : this.upWeight;
+        int    stallFirst[]  = backward ? this.upFirst : this.downFirst;
+        int    stallNext[]   = backward ? this.upTarget : this.downSource;
+        double stallWeight[] = backward ? this.upWeight : this.downWeight;
+        int    count         = 0;
+
+        q.clear();
+        for ( int end : new int[]{ p.getFrom(), p.getTo() } )
+        {
+            double cost = backward ? p.getCostFrom( end, this.graph ) : p.getCostTo( end, this.graph );
+
+            if ( cost < Double.POSITIVE_INFINITY )
+                q.reachForward( end, cost, -1, -1 );
+        }
+
+        while ( !q.forwardQueue.isEmpty() )
+        {
+            int     u       = q.forwardQueue.pop();
+            boolean stalled = false;
+
+            for ( int arc = stallFirst[u]; arc < stallFirst[u + 1] && !stalled; arc++ )
+            {
+                int w = stallNext[arc];
+                stalled = q.forwardReached.contains( w ) && q.forward[w] + stallWeight[arc] < q.forward[u];
+            }
+            if ( stalled )
+                continue;
+
+            q.settled[count++] = u;
+            for ( int arc = first[u]; arc < first[u + 1]; arc++ )
+            {
+                q.reachForward( next[arc], q.forward[u] + weight[arc], u, arc );
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return cost per rank
+     */
+    private double[] sweep( RoadPosition source )
+    {
+        int            n          = this.rank.length;
+        double         distance[] = new double[n];
+        IndexedMinHeap queue      = new IndexedMinHeap( n );
+
+        Arrays.fill( distance, Double.POSITIVE_INFINITY );
+        for ( int end : new int[]{ source.getFrom(), source.getTo() } )
+        {
+            double cost = source.getCostTo( end, this.graph );
+
+            if ( cost < distance[this.rank[end]] )
+            {
+                distance[this.rank[end]] = cost;
+                queue.insertOrDecrease( end, cost );
+            }
+        }
+
+        while ( !queue.isEmpty() )
+        {
+            int u = queue.pop();
+
+            for ( int arc = this.upFirst[u]; arc < this.upFirst[u + 1]; arc++ )
+            {
+                int    w    = this.upTarget[arc];
+                double cost = distance[this.rank[u]] + this.upWeight[arc];
+
+                if ( cost < distance[this.rank[w]] )
+                {
+                    distance[this.rank[w]] = cost;
+                    queue.insertOrDecrease( w, cost );
+                }
+            }
+        }
+
+        for ( int r = n - 1; r >= 0; r-- )
+        {
+            double best = distance[r];
+
+            for ( int arc = this.sweepFirst[r]; arc < this.sweepFirst[r + 1]; arc++ )
+            {
+                best = Math.min( best, distance[this.sweepSource[arc]] + this.sweepWeight[arc] );
+            }
+            distance[r] = best;
+        }
+        return distance;
+    }
+
+    /**
+     * Stall on demand: u cannot be on a shortest path if a higher ranked
+     * node reaches it cheaper through a downward arc.
+     */
+    private boolean stalledForward( QueryState q, int u )
+    {
+        for ( int arc = this.downFirst[u]; arc < this.downFirst[u + 1]; arc++ )
+        {
+            int w = this.downSource[arc];
+            if ( q.forwardReached.contains( w ) && q.forward[w] + this.downWeight[arc] < q.forward[u] )
+                return true;
+        }
+        return false;
+    }
+
+    private boolean stalledBackward( QueryState q, int u )
+    {
+        for ( int arc = this.upFirst[u]; arc < this.upFirst[u + 1]; arc++ )
+        {
+            int w = this.upTarget[arc];
+            if ( q.backwardReached.contains( w ) && q.backward[w] + this.upWeight[arc] < q.backward[u] )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param q:       finished query
+     * @param meeting: node settled by both searches on the best route
+     * @return map nodes from start to target
+     */
+    private List<Node> unpackPath( QueryState q, int meeting )
+    {
+        List<Integer> upArcs = new ArrayList<Integer>();
+        for ( int v = meeting; q.forwardParent[v] >= 0; v = q.forwardParent[v] )
+        {
+            upArcs.add( q.forwardArc[v] );
+        }
+        Collections.reverse( upArcs );
+
+        List<Node> path = new ArrayList<Node>();
+        int        v    = meeting;
+
+        while ( q.forwardParent[v] >= 0 )
+            v = q.forwardParent[v];
+        path.add( this.graph.getNode( v ) );
+
+        for ( int arc : upArcs )
+        {
+            unpack( v, this.upTarget[arc], this.upMiddle[arc], path );
+            v = this.upTarget[arc];
+        }
+        for ( ; q.backwardParent[v] >= 0; v = q.backwardParent[v] )
+        {
+            unpack( v, q.backwardParent[v], this.downMiddle[q.backwardArc[v]], path );
+        }
+        return path;
+    }
+
+    /**
+     * Appends the map nodes of arc from -> to, excluding from.
+     */
+    private void unpack( int from, int to, int middle, List<Node> path )
+    {
+        if ( middle < 0 )
+        {
+            path.add( this.graph.getNode( to ) );
+            return;
+        }
+
+        // both halves of a shortcut were recorded when middle was contracted
+        unpack( from, middle, this.downMiddle[findDownArc( middle, from )], path );
+        unpack( middle, to, this.upMiddle[findUpArc( middle, to )], path );
+    }
+
+    private int findUpArc( int from, int to )
+    {
+        int arc = this.upFirst[from];
+        while ( this.upTarget[arc] != to )
+            arc++;
+        return arc;
+    }
+
+    private int findDownArc( int to, int from )
+    {
+        int arc = this.downFirst[to];
+        while ( this.downSource[arc] != from )
+            arc++;
+        return arc;
+    }
+
+    private QueryState queryState()
+    {
+        QueryState q = this.state.get();
+
+        if ( q == null )
+        {
+            q = new QueryState( this.rank.length );
+            this.state.set( q );
+        }
+        return q;
+    }
+
+    /**
+     * Writes the hierarchy to a file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save( Path file ) throws IOException
+    {
+        int  n    = this.rank.length;
+        long size = 32L + 4L * ( n + 2 * ( n + 1 ) ) + 16L * ( this.upTarget.length + this.downSource.length );
+
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            buffer.putInt( MAGIC ).putInt( VERSION ).putInt( n ).putInt( this.graph.getArcCount() ).putLong( this.graph.getChecksum() );
+            buffer.putInt( this.upTarget.length );
+            putInts( buffer, this.rank );
+            putInts( buffer, this.upFirst );
+            putInts( buffer, this.upTarget );
+            putDoubles( buffer, this.upWeight );
+            putInts( buffer, this.upMiddle );
+
+            buffer.putInt( this.downSource.length );
+            putInts( buffer, this.downFirst );
+            putInts( buffer, this.downSource );
+            putDoubles( buffer, this.downWeight );
+            putInts( buffer, this.downMiddle );
+            buffer.force();
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by {@link #save(Path)}.
+     *
+     * @param file
+     * @param g:    graph the hierarchy was built for
+     * @return hierarchy
+     * @throws IOException if the file is no hierarchy or was built for other
+     *                     arcs or weights than those of g
+     */
+    public static ContractionHierarchy load( Path file, CompactGraph g ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            ByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION )
+                throw new IOException( "Not a contraction hierarchy file: " + file );
+
+            int  n        = buffer.getInt();
+            int  arcCount = buffer.getInt();
+            long checksum = buffer.getLong();
+            if ( n != g.getNodeCount() || arcCount != g.getArcCount() || checksum != g.getChecksum() )
+                throw new IOException( "Contraction hierarchy " + file + " was built for a different graph" );
+
+            int    upArcs     = buffer.getInt();
+            int    rank[]     = getInts( buffer, n );
+            int    upFirst[]  = getInts( buffer, n + 1 );
+            int    upTarget[] = getInts( buffer, upArcs );
+            double upWeight[] = getDoubles( buffer, upArcs );
+            int    upMiddle[] = getInts( buffer, upArcs );
+
+            int    downArcs     = buffer.getInt();
+            int    downFirst[]  = getInts( buffer, n + 1 );
+            int    downSource[] = getInts( buffer, downArcs );
+            double downWeight[] = getDoubles( buffer, downArcs );
+            int    downMiddle[] = getInts( buffer, downArcs );
+
+            return new ContractionHierarchy( g, rank, upFirst, upTarget, upWeight, upMiddle,
+                                             downFirst, downSource, downWeight, downMiddle );
+        }
+    }
+
+    private static void putInts( ByteBuffer buffer, int values[] )
+    {
+        buffer.asIntBuffer().put( values );
+        buffer.position( buffer.position() + 4 * values.length );
+    }
+
+    private static void putDoubles( ByteBuffer buffer, double values[] )
+    {
+        buffer.asDoubleBuffer().put( values );
+        buffer.position( buffer.position() + 8 * values.length );
+    }
+
+    private static int[] getInts( ByteBuffer buffer, int count )
+    {
+        int values[] = new int[count];
+        buffer.asIntBuffer().get( values );
+        buffer.position( buffer.position() + 4 * count );
+        return values;
+    }
+
+    private static double[] getDoubles( ByteBuffer buffer, int count )
+    {
+        double values[] = new double[count];
+        buffer.asDoubleBuffer().get( values );
+        buffer.position( buffer.position() + 8 * count );
+        return values;
+    }
+
+    /**
+     * @return number of shortcut arcs in the hierarchy
+     */
+    public int getShortcutCount()
+    {
+        int count = 0;
+        for ( int m : this.upMiddle )
+            count += m >= 0 ? 1 : 0;
+        for ( int m : this.downMiddle )
+            count += m >= 0 ? 1 : 0;
+        return count;
+    }
+
+    public int getRank( int index ) { return this.rank[index]; }
+
+
+    /**
+     * Labels of the forward and backward search, reused between queries.
+     */
+    private static class QueryState
+    {
+        double         forward[];
+        double         backward[];
+        int            forwardParent[];
+        int            forwardArc[];
+        int            backwardParent[];
+        int            backwardArc[];
+        VisitedSet     forwardReached;
+        VisitedSet     backwardReached;
+        IndexedMinHeap forwardQueue;
+        IndexedMinHeap backwardQueue;
+        int            settled[];          // nodes in settle order of an upward search
+
+        QueryState( int nodeCount )
+        {
+            this.settled = new int[nodeCount];
+            this.forward = new double[nodeCount];
+            this.backward = new double[nodeCount];
+            this.forwardParent = new int[nodeCount];
+            this.forwardArc = new int[nodeCount];
+            this.backwardParent = new int[nodeCount];
+            this.backwardArc = new int[nodeCount];
+            this.forwardReached = new VisitedSet( nodeCount );
+            this.backwardReached = new VisitedSet( nodeCount );
+            this.forwardQueue = new IndexedMinHeap( nodeCount );
+            this.backwardQueue = new IndexedMinHeap( nodeCount );
+        }
+
+        void clear()
+        {
+            this.forwardReached.clear();
+            this.backwardReached.clear();
+            this.forwardQueue.clear();
+            this.backwardQueue.clear();
+        }
+
+        /**
+         * @return true if cost improved the forward label of v
+         */
+        boolean reachForward( int v, double cost, int parent, int arc )
+        {
+            if ( this.forwardReached.contains( v ) && this.forward[v] <= cost )
+                return false;
+
+            this.forwardReached.add( v );
+            this.forward[v] = cost;
+            this.forwardParent[v] = parent;
+            this.forwardArc[v] = arc;
+            this.forwardQueue.insertOrDecrease( v, cost );
+            return true;
+        }
+
+        /**
+         * @return true if cost improved the backward label of v
+         */
+        boolean reachBackward( int v, double cost, int parent, int arc )
+        {
+            if ( this.backwardReached.contains( v ) && this.backward[v] <= cost )
+                return false;
+
+            this.backwardReached.add( v );
+            this.backward[v] = cost;
+            this.backwardParent[v] = parent;
+            this.backwardArc[v] = arc;
+            this.backwardQueue.insertOrDecrease( v, cost );
+            return true;
+        }
+    }
+
+
+    /**
+     * Growable list of arcs of one node in the remaining graph.
+     */
+    private static class ArcList
+    {
+        int    node[]   = new int[4];
+        double weight[] = new double[4];
+        int    middle[] = new int[4];
+        int    size;
+
+        int find( int n )
+        {
+            for ( int i = 0; i < this.size; i++ )
+            {
+                if ( this.node[i] == n )
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Adds the arc or lowers the weight of an existing one.
+         */
+        void put( int n, double w, int m )
+        {
+            int i = find( n );
+
+            if ( i >= 0 )
+            {
+                if ( w < this.weight[i] )
+                {
+                    this.weight[i] = w;
+                    this.middle[i] = m;
+                }
+                return;
+            }
+            if ( this.size == this.node.length )
+            {
+                this.node = Arrays.copyOf( this.node, 2 * this.size );
+                this.weight = Arrays.copyOf( this.weight, 2 * this.size );
+                this.middle = Arrays.copyOf( this.middle, 2 * this.size );
+            }
+            this.node[this.size] = n;
+            this.weight[this.size] = w;
+            this.middle[this.size] = m;
+            this.size++;
+        }
+
+        void remove( int n )
+        {
+            int i = find( n );
+
+            if ( i >= 0 )
+            {
+                this.size--;
+                this.node[i] = this.node[this.size];
+                this.weight[i] = this.weight[this.size];
+                this.middle[i] = this.middle[this.size];
+            }
+        }
+
+        double maxWeight()
+        {
+            double max = 0;
+            for ( int i = 0; i < this.size; i++ )
+                max = Math.max( max, this.weight[i] );
+            return max;
+        }
+    }
+
+
+    /**
+     * Node ordering and contraction with lazy priority updates.
+     * Priority is the edge difference plus the number of contracted
+     * neighbors and the hierarchy level, which spreads the contraction
+     * evenly over the map and keeps the hierarchy shallow.
+     *
+     * The shortcut count in the edge difference comes from a simulated
+     * contraction with short witness searches. It is kept between
+     * evaluations: neighbors of a contracted node only get their degree,
+     * level and neighbor terms updated, and a node is simulated again
+     * when it reaches the top of the queue. Only the contraction itself
+     * runs the full witness searches.
+     */
+    private static class Builder
+    {
+        private static final int WITNESS_SETTLE_LIMIT  = 500;
+        private static final int SIMULATE_SETTLE_LIMIT = 10;
+
+        private final CompactGraph g;
+        private final int          n;
+
+        private final ArcList out[];
+        private final ArcList in[];
+        private final ArcList up[];      // arcs to higher ranked nodes, recorded at contraction
+        private final ArcList down[];
+        private final int     contractedNeighbors[];
+        private final int     level[];      // longest chain of contracted nodes below v
+        private final int     shortcuts[];  // shortcut count of the last simulated contraction
+
+        // witness search
+        private final double         distance[];
+        private final VisitedSet     reached;
+        private final VisitedSet     targets;
+        private final VisitedSet     witnessed;
+        private final double         bound[];    // cost of the path over the excluded node
+        private final IndexedMinHeap queue;
+
+        Builder( CompactGraph g )
+        {
+            this.g = g;
+            this.n = g.getNodeCount();
+            this.out = new ArcList[this.n];
+            this.in = new ArcList[this.n];
+            this.up = new ArcList[this.n];
+            this.down = new ArcList[this.n];
+            this.contractedNeighbors = new int[this.n];
+            this.level = new int[this.n];
+            this.shortcuts = new int[this.n];
+            this.distance = new double[this.n];
+            this.reached = new VisitedSet( this.n );
+            this.targets = new VisitedSet( this.n );
+            this.witnessed = new VisitedSet( this.n );
+            this.bound = new double[this.n];
+            this.queue = new IndexedMinHeap( this.n );
+
+            for ( int v = 0; v < this.n; v++ )
+            {
+                this.out[v] = new ArcList();
+                this.in[v] = new ArcList();
+            }
+            for ( int v = 0; v < this.n; v++ )
+            {
+                for ( int arc = g.firstArc( v ); arc < g.endArc( v ); arc++ )
+                {
+                    int w = g.getTarget( arc );
+                    if ( w != v )
+                    {
+                        this.out[v].put( w, g.getWeight( arc ), -1 );
+                        this.in[w].put( v, g.getWeight( arc ), -1 );
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build()
+        {
+            IndexedMinHeap order = new IndexedMinHeap( this.n );
+            int            rank[] = new int[this.n];
+
+            for ( int v = 0; v < this.n; v++ )
+            {
+                order.insert( v, priority( v ) );
+            }
+
+            int next = 0;
+            while ( !order.isEmpty() )
+            {
+                int    v        = order.pop();
+                double priority = priority( v );
+
+                // lazy update: priority may have grown since v was queued
+                if ( !order.isEmpty() && priority > order.peekKey() )
+                {
+                    order.insert( v, priority );
+                    continue;
+                }
+
+                contract( v, true );
+                rank[v] = next++;
+
+                for ( int i = 0; i < this.up[v].size; i++ )
+                    order.changeKey( this.up[v].node[i], estimate( this.up[v].node[i] ) );
+                for ( int i = 0; i < this.down[v].size; i++ )
+                    order.changeKey( this.down[v].node[i], estimate( this.down[v].node[i] ) );
+            }
+            return freeze( rank );
+        }
+
+        /**
+         * Simulates the contraction of v.
+         */
+        private double priority( int v )
+        {
+            this.shortcuts[v] = contract( v, false );
+            return estimate( v );
+        }
+
+        /**
+         * @return priority of v with the shortcut count of its last simulation
+         */
+        private double estimate( int v )
+        {
+            return this.shortcuts[v] - this.out[v].size - this.in[v].size + this.contractedNeighbors[v] + this.level[v];
+        }
+
+        /**
+         * Adds (or counts) the shortcuts needed to remove v.
+         *
+         * @param v
+         * @param apply: false to only simulate
+         * @return number of shortcuts
+         */
+        private int contract( int v, boolean apply )
+        {
+            ArcList incoming  = this.in[v];
+            ArcList outgoing  = this.out[v];
+            int     limit     = apply ? WITNESS_SETTLE_LIMIT : SIMULATE_SETTLE_LIMIT;
+            int     shortcuts = 0;
+
+            for ( int i = 0; i < incoming.size; i++ )
+            {
+                int    u  = incoming.node[i];
+                double uv = incoming.weight[i];
+
+                witnessSearch( u, v, uv, outgoing, limit );
+
+                for ( int j = 0; j < outgoing.size; j++ )
+                {
+                    int    w    = outgoing.node[j];
+                    double cost = uv + outgoing.weight[j];
+
+                    if ( w == u || ( this.reached.contains( w ) && this.distance[w] <= cost ) )
+                        continue;
+
+                    shortcuts++;
+                    if ( apply )
+                    {
+                        this.out[u].put( w, cost, v );
+                        this.in[w].put( u, cost, v );
+                    }
+                }
+            }
+
+            if ( apply )
+            {
+                this.up[v] = copy( outgoing );
+                this.down[v] = copy( incoming );
+
+                for ( int j = 0; j < outgoing.size; j++ )
+                {
+                    this.in[outgoing.node[j]].remove( v );
+                    this.contractedNeighbors[outgoing.node[j]]++;
+                    this.level[outgoing.node[j]] = Math.max( this.level[outgoing.node[j]], this.level[v] + 1 );
+                }
+                for ( int i = 0; i < incoming.size; i++ )
+                {
+                    this.out[incoming.node[i]].remove( v );
+                    this.contractedNeighbors[incoming.node[i]]++;
+                    this.level[incoming.node[i]] = Math.max( this.level[incoming.node[i]], this.level[v] + 1 );
+                }
+                this.out[v] = null;
+                this.in[v] = null;
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Bounded Dijkstra in the remaining graph avoiding a node, stopped
+         * once every target is settled or reached no costlier than over the
+         * excluded node. Labels of unsettled nodes are upper bounds, which
+         * only leads to extra shortcuts.
+         *
+         * @param source
+         * @param excluded
+         * @param first:    cost of the arc from source to excluded
+         * @param targets:  arcs leaving excluded
+         * @param limit:    maximum number of settled nodes
+         */
+        private void witnessSearch( int source, int excluded, double first, ArcList targets, int limit )
+        {
+            this.reached.clear();
+            this.queue.clear();
+            this.targets.clear();
+            this.witnessed.clear();
+
+            for ( int j = 0; j < targets.size; j++ )
+            {
+                this.targets.add( targets.node[j] );
+                this.bound[targets.node[j]] = first + targets.weight[j];
+            }
+            double maxCost   = first + targets.maxWeight();
+            int    remaining = targets.size;
+
+            this.reached.add( source );
+            this.distance[source] = 0;
+            this.queue.insert( source, 0 );
+
+            int settled = 0;
+            while ( !this.queue.isEmpty() && remaining > 0 && settled++ < limit )
+            {
+                int x = this.queue.pop();
+
+                if ( this.distance[x] > maxCost )
+                    break;
+                if ( this.targets.contains( x ) && !this.witnessed.contains( x ) )
+                {
+                    this.witnessed.add( x );
+                    remaining--;
+                }
+
+                ArcList arcs = this.out[x];
+                for ( int i = 0; i < arcs.size; i++ )
+                {
+                    int    y    = arcs.node[i];
+                    double cost = this.distance[x] + arcs.weight[i];
+
+                    if ( y == excluded )
+                        continue;
+
+                    if ( !this.reached.contains( y ) || cost < this.distance[y] )
+                    {
+                        this.reached.add( y );
+                        this.distance[y] = cost;
+                        this.queue.insertOrDecrease( y, cost );
+
+                        if ( this.targets.contains( y ) && cost <= this.bound[y] && !this.witnessed.contains( y ) )
+                        {
+                            this.witnessed.add( y );
+                            remaining--;
+                        }
+                    }
+                }
+            }
+        }
+
+        private static ArcList copy( ArcList arcs )
+        {
+            ArcList result = new ArcList();
+            for ( int i = 0; i < arcs.size; i++ )
+                result.put( arcs.node[i], arcs.weight[i], arcs.middle[i] );
+            return result;
+        }
+
+        private ContractionHierarchy freeze( int rank[] )
+        {
+            int upFirst[]   = new int[this.n + 1];
+            int downFirst[] = new int[this.n + 1];
+
+            for ( int v = 0; v < this.n; v++ )
+            {
+                upFirst[v + 1] = upFirst[v] + this.up[v].size;
+                downFirst[v + 1] = downFirst[v] + this.down[v].size;
+            }
+
+            int    upTarget[]   = new int[upFirst[this.n]];
+            double upWeight[]   = new double[upFirst[this.n]];
+            int    upMiddle[]   = new int[upFirst[this.n]];
+            int    downSource[] = new int[downFirst[this.n]];
+            double downWeight[] = new double[downFirst[this.n]];
+            int    downMiddle[] = new int[downFirst[this.n]];
+
+            for ( int v = 0; v < this.n; v++ )
+            {
+                for ( int i = 0; i < this.up[v].size; i++ )
+                {
+                    upTarget[upFirst[v] + i] = this.up[v].node[i];
+                    upWeight[upFirst[v] + i] = this.up[v].weight[i];
+                    upMiddle[upFirst[v] + i] = this.up[v].middle[i];
+                }
+                for ( int i = 0; i < this.down[v].size; i++ )
+                {
+                    downSource[downFirst[v] + i] = this.down[v].node[i];
+                    downWeight[downFirst[v] + i] = this.down[v].weight[i];
+                    downMiddle[downFirst[v] + i] = this.down[v].middle[i];
+                }
+            }
+            return new ContractionHierarchy( this.g, rank, upFirst, upTarget, upWeight, upMiddle,
+                                             downFirst, downSource, downWeight, downMiddle );
+        }
+    }
+}
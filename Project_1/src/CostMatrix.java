@@ -0,0 +1,192 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Dense rows x columns matrix of travel costs, row major, e.g. from idle
+ * taxis to demand zones. The costs are kept on the heap or in a memory
+ * mapped file. File layout (little endian):
+ *
+ *   int    magic, version, rows, columns
+ *   double cost[rows * columns]
+ *
+ * Rows are written by one thread each, so a matrix may be filled in
+ * parallel; see {@link #compute(CompactGraph, List, List, CostMatrix)}
+ * and {@link ContractionHierarchy#costs(List, List, CostMatrix)}.
+ */
+public class CostMatrix
+{
+    private static final int MAGIC   = 0x434d3031;    // "CM01"
+    private static final int VERSION = 1;
+    private static final int HEADER  = 16;
+
+    private final int              rows;
+    private final int              columns;
+    private final DoubleBuffer     costs;
+    private final MappedByteBuffer file;      // null for matrices on the heap
+
+    private CostMatrix( int rows, int columns, DoubleBuffer costs, MappedByteBuffer file )
+    {
+        this.rows = rows;
+        this.columns = columns;
+        this.costs = costs;
+        this.file = file;
+    }
+
+    /**
+     * @param rows
+     * @param columns
+     * @return matrix on the heap
+     */
+    public static CostMatrix allocate( int rows, int columns )
+    {
+        return new CostMatrix( rows, columns, DoubleBuffer.wrap( new double[Math.multiplyExact( rows, columns )] ), null );
+    }
+
+    /**
+     * Creates a matrix backed by a file, replacing an existing file.
+     *
+     * @param file
+     * @param rows
+     * @param columns
+     * @return matrix mapped read write
+     * @throws IOException
+     */
+    public static CostMatrix create( Path file, int rows, int columns ) throws IOException
+    {
+        long size = HEADER + 8L * rows * columns;
+
+        if ( size > Integer.MAX_VALUE )
+            throw new IOException( "Cost matrix too large to map: " + rows + " x " + columns );
+
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            buffer.putInt( MAGIC ).putInt( VERSION ).putInt( rows ).putInt( columns );
+
+            return new CostMatrix( rows, columns, costs( buffer ), buffer );
+        }
+    }
+
+    /**
+     * Maps a matrix written by {@link #create(Path, int, int)} read only.
+     *
+     * @param file
+     * @return matrix
+     * @throws IOException if the file is no cost matrix
+     */
+    public static CostMatrix load( Path file ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            if ( channel.size() < HEADER || buffer.getInt() != MAGIC )
+                throw new IOException( "Not a cost matrix: " + file );
+            if ( buffer.getInt() != VERSION )
+                throw new IOException( "Unsupported cost matrix version: " + file );
+
+            int rows    = buffer.getInt();
+            int columns = buffer.getInt();
+
+            if ( channel.size() != HEADER + 8L * rows * columns )
+                throw new IOException( "Corrupt cost matrix: " + file );
+            return new CostMatrix( rows, columns, costs( buffer ), buffer );
+        }
+    }
+
+    private static DoubleBuffer costs( ByteBuffer buffer )
+    {
+        buffer.position( HEADER );
+        return buffer.slice().order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer();
+    }
+
+    /**
+     * Fills the matrix by one one-to-many search per source, in parallel
+     * on the common fork-join pool.
+     *
+     * @param g
+     * @param sources: one per row
+     * @param targets: one per column
+     * @param result:  sources.size() x targets.size()
+     * @return result
+     */
+    public static CostMatrix compute( CompactGraph g, List<RoadPosition> sources, List<RoadPosition> targets, CostMatrix result )
+    {
+        result.checkSize( sources.size(), targets.size() );
+
+        IntStream.range( 0, sources.size() )
+                 .parallel()
+                 .forEach( row -> result.setRow( row, Dijkstra.costs( g, sources.get( row ), targets ) ) );
+        return result;
+    }
+
+    void checkSize( int rows, int columns )
+    {
+        if ( rows != this.rows || columns != this.columns )
+            throw new IllegalArgumentException( "Matrix is " + this.rows + " x " + this.columns + ", not " + rows + " x " + columns );
+    }
+
+    /**
+     * Writes one row; rows may be written by different threads.
+     *
+     * @param row
+     * @param costs: one per column
+     */
+    void setRow( int row, double costs[] )
+    {
+        DoubleBuffer view = this.costs.duplicate();    // own position per writer
+
+        view.position( row * this.columns );
+        view.put( costs, 0, this.columns );
+    }
+
+    public double get( int row, int column )
+    {
+        return this.costs.get( row * this.columns + column );
+    }
+
+    /**
+     * @param row
+     * @return copy of the row
+     */
+    public double[] getRow( int row )
+    {
+        double       result[] = new double[this.columns];
+        DoubleBuffer view     = this.costs.duplicate();
+
+        view.position( row * this.columns );
+        view.get( result );
+        return result;
+    }
+
+    /**
+     * Writes the costs of a mapped matrix to its file.
+     */
+    public void force()
+    {
+        if ( this.file != null )
+            this.file.force();
+    }
+
+    public int getRows()    { return this.rows; }
+    public int getColumns() { return this.columns; }
+}
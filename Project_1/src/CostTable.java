@@ -0,0 +1,103 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Costs from one source to many targets, aligned with the target list,
+ * e.g. travel costs from a client to every taxi of the fleet. Tables of
+ * a one-to-many search keep the labelled paths to the targets as a tree,
+ * so the path to every target can be unpacked on demand. Tables of a many-to-one search hold
+ * the costs and paths the other way round, from every listed position to
+ * the source of the search.
+ */
+public class CostTable
+{
+    public static final int UNREACHED = -1;    // exit of a target without route
+    public static final int DIRECT    = -2;    // exit of a target on the segment of the source
+
+    private final double             costs[];
+    private final CompactGraph       graph;
+    private final RoadPosition       source;
+    private final List<RoadPosition> targets;
+    private final int                node[];      // node index per slot of the path tree
+    private final int                parent[];    // predecessor slot per slot, -1 for the nodes of the source
+    private final int                exit[];      // slot of the node the route to each target leaves the graph at
+    private final boolean            reverse;     // routes lead from the targets to the source
+
+    /**
+     * @param costs: cost per target
+     */
+    public CostTable( double costs[] )
+    {
+        this( costs, null, null, null, null, null, null, false );
+    }
+
+    CostTable( double costs[], CompactGraph graph, RoadPosition source, List<RoadPosition> targets, int node[], int parent[],
+               int exit[], boolean reverse )
+    {
+        this.costs = costs;
+        this.graph = graph;
+        this.source = source;
+        this.targets = targets;
+        this.node = node;
+        this.parent = parent;
+        this.exit = exit;
+        this.reverse = reverse;
+    }
+
+    /**
+     * @return cost per target, infinity for unreachable targets
+     */
+    public double[] getCosts() { return this.costs; }
+
+    public double getCost( int target ) { return this.costs[target]; }
+
+    public int size() { return this.costs.length; }
+
+    /**
+     * @return true if {@link #getPath(int)} is available
+     */
+    public boolean hasPaths() { return this.parent != null; }
+
+    /**
+     * @param target: position in the target list
+     * @return nodes in driving direction: from the source to the target,
+     *         from the target to the source for a many-to-one table; empty
+     *         if the target was not reached
+     */
+    public List<Node> getPath( int target )
+    {
+        if ( this.parent == null )
+            throw new IllegalStateException( "Cost table without paths" );
+
+        if ( this.exit[target] == UNREACHED )
+            return Collections.emptyList();
+
+        List<Node> path = new ArrayList<Node>();
+        Node       end  = this.targets.get( target ).getNode();
+
+        if ( end.getIndex() < 0 )
+            path.add( end );
+        for ( int s = this.exit[target]; s >= 0; s = this.parent[s] )
+        {
+            path.add( this.graph.getNode( this.node[s] ) );
+        }
+        if ( this.source.isVirtual() )
+            path.add( this.source.getNode() );
+        else if ( !path.isEmpty() && path.get( path.size() - 1 ).getIndex() == this.source.getNode().getIndex() )
+            path.set( path.size() - 1, this.source.getNode() );    // labelled source node
+
+        // labels of a many-to-one search lead towards its source already
+        if ( !this.reverse )
+            Collections.reverse( path );
+        return path;
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plain Dijkstra searches on the compact graph, used for preprocessing
+ * and for cost tables from one source to many targets. Labels and queue
+ * are kept per thread and reused by the next search on the same graph.
+ */
+public class Dijkstra
+{
+    private static final ThreadLocal<SearchState> STATE = new ThreadLocal<SearchState>();
+
+    private Dijkstra()
+    { }
+
+    /**
+     * Computes the shortest path cost from source to every node.
+     *
+     * @param g
+     * @param source: node index
+     * @return cost per node index, infinity for unreachable nodes
+     */
+    public static double[] distances( CompactGraph g, int source )
+    {
+        return distances( g, source, false );
+    }
+
+    /**
+     * Computes the shortest path cost from every node to target, along the
+     * incoming arcs.
+     *
+     * @param g
+     * @param target: node index
+     * @return cost per node index, infinity for nodes that cannot reach target
+     */
+    public static double[] distancesTo( CompactGraph g, int target )
+    {
+        return distances( g, target, true );
+    }
+
+    private static double[] distances( CompactGraph g, int origin, boolean reverse )
+    {
+        double         distance[] = new double[g.getNodeCount()];
+        IndexedMinHeap queue      = searchState( g ).queue;
+
+        Arrays.fill( distance, Double.POSITIVE_INFINITY );
+        distance[origin] = 0;
+        queue.insert( origin, 0 );
+
+        while ( !queue.isEmpty() )
+        {
+            int node  = queue.pop();
+            int first = reverse ? g.firstInArc( node ) : g.firstArc( node );
+            int end   = reverse ? g.endInArc( node ) : g.endArc( node );
+
+            for ( int i = first; i < end; i++ )
+            {
+                int    arc  = reverse ? g.getInArc( i ) : i;
+                int    next = reverse ? g.getSource( arc ) : g.getTarget( arc );
+                double cost = distance[node] + g.getWeight( arc );
+
+                if ( cost < distance[next] )
+                {
+                    distance[next] = cost;
+                    queue.insertOrDecrease( next, cost );
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Costs and paths from a node to every goal, e.g. the goals of a map.
+     *
+     * @param g
+     * @param source
+     * @param goals
+     * @return table aligned with goals
+     */
+    public static CostTable oneToMany( CompactGraph g, Node source, List<Node> goals )
+    {
+        List<RoadPosition> targets = new ArrayList<RoadPosition>( goals.size() );
+        for ( Node n : goals )
+        {
+            targets.add( RoadPosition.of( n ) );
+        }
+        return oneToMany( g, RoadPosition.of( source ), targets );
+    }
+
+    /**
+     * Settles the search space of source once, until both ends of every
+     * target segment are settled, instead of one search per target.
+     *
+     * @param g
+     * @param source
+     * @param targets
+     * @return table aligned with targets, with paths
+     */
+    public static CostTable oneToMany( CompactGraph g, RoadPosition source, List<RoadPosition> targets )
+    {
+        return search( g, source, targets, false, true );
+    }
+
+    /**
+     * Costs from source to every target without their paths, e.g. for the
+     * rows of a cost matrix.
+     *
+     * @param g
+     * @param source
+     * @param targets
+     * @return cost per target, infinity for unreachable targets
+     */
+    public static double[] costs( CompactGraph g, RoadPosition source, List<RoadPosition> targets )
+    {
+        return search( g, source, targets, false, false ).getCosts();
+    }
+
+    /**
+     * Costs and paths from every node of sources to target, e.g. from the
+     * taxis of a fleet to a client.
+     *
+     * @param g
+     * @param sources
+     * @param target
+     * @return table aligned with sources
+     */
+    public static CostTable manyToOne( CompactGraph g, List<Node> sources, Node target )
+    {
+        List<RoadPosition> positions = new ArrayList<RoadPosition>( sources.size() );
+        for ( Node n : sources )
+        {
+            positions.add( RoadPosition.of( n ) );
+        }
+        return manyToOne( g, positions, RoadPosition.of( target ) );
+    }
+
+    /**
+     * Costs and paths from every source to one target, e.g. from every
+     * taxi of the fleet to a client, by one search along the incoming
+     * arcs of the target.
+     *
+     * @param g
+     * @param sources
+     * @param target
+     * @return table aligned with sources, with paths from each source to target
+     */
+    public static CostTable manyToOne( CompactGraph g, List<RoadPosition> sources, RoadPosition target )
+    {
+        return search( g, target, sources, true, true );
+    }
+
+    /**
+     * @param g
+     * @param origin:  source of a one-to-many search, target of a many-to-one search
+     * @param others:  targets of a one-to-many search, sources of a many-to-one search
+     * @param reverse: true to search from origin along the incoming arcs
+     * @param paths:   false for a table of costs only
+     * @return table aligned with others
+     */
+    private static CostTable search( CompactGraph g, RoadPosition origin, List<RoadPosition> others, boolean reverse, boolean paths )
+    {
+        SearchState    st        = searchState( g );
+        IndexedMinHeap queue     = st.queue;
+        VisitedSet     pending   = st.pending;    // segment ends of others not settled yet
+        int            remaining = 0;
+
+        st.clear();
+
+        for ( RoadPosition t : others )
+        {
+            for ( int end : new int[]{ t.getFrom(), t.getTo() } )
+            {
+                if ( !pending.contains( end ) )
+                {
+                    pending.add( end );
+                    remaining++;
+                }
+            }
+        }
+
+        for ( int end : new int[]{ origin.getFrom(), origin.getTo() } )
+        {
+            seed( st, end, reverse ? origin.getCostFrom( end, g ) : origin.getCostTo( end, g ) );
+        }
+
+        while ( !queue.isEmpty() && remaining > 0 )
+        {
+            int node  = queue.pop();
+            int first = reverse ? g.firstInArc( node ) : g.firstArc( node );
+            int end   = reverse ? g.endInArc( node ) : g.endArc( node );
+
+            if ( pending.contains( node ) )
+                remaining--;
+
+            for ( int i = first; i < end; i++ )
+            {
+                int    arc  = reverse ? g.getInArc( i ) : i;
+                int    next = reverse ? g.getSource( arc ) : g.getTarget( arc );
+                double cost = st.distance[node] + g.getWeight( arc );
+
+                if ( cost < st.getDistance( next ) )
+                {
+                    st.reach( next, cost, node );
+                }
+            }
+        }
+
+        double costs[] = new double[others.size()];
+        int    exit[]  = new int[others.size()];
+
+        for ( int i = 0; i < others.size(); i++ )
+        {
+            RoadPosition t       = others.get( i );
+            double       viaFrom = st.getDistance( t.getFrom() ) + ( reverse ? t.getCostTo( t.getFrom(), g ) : t.getCostFrom( t.getFrom(), g ) );
+            double       viaTo   = st.getDistance( t.getTo() ) + ( reverse ? t.getCostTo( t.getTo(), g ) : t.getCostFrom( t.getTo(), g ) );
+
+            costs[i] = Math.min( viaFrom, viaTo );
+            exit[i] = costs[i] == Double.POSITIVE_INFINITY ? CostTable.UNREACHED : viaFrom <= viaTo ? t.getFrom() : t.getTo();
+
+            if ( origin.isOnSameSegment( t ) )
+            {
+                double direct = reverse ? t.getDirectCost( origin, g ) : origin.getDirectCost( t, g );
+
+                if ( direct < costs[i] )
+                {
+                    costs[i] = direct;
+                    exit[i] = CostTable.DIRECT;
+                }
+            }
+        }
+        if ( !paths )
+            return new CostTable( costs );
+
+        // copy the paths to the targets out of the labels, which the next search reuses
+        PathTree tree = new PathTree();
+        for ( int i = 0; i < others.size(); i++ )
+        {
+            if ( exit[i] >= 0 )
+                exit[i] = tree.add( st, exit[i] );
+        }
+        return new CostTable( costs, g, origin, others, tree.trim( tree.node ), tree.trim( tree.parent ), exit, reverse );
+    }
+
+    private static void seed( SearchState st, int node, double cost )
+    {
+        if ( cost < st.getDistance( node ) )
+            st.reach( node, cost, -1 );
+    }
+
+    /**
+     * @return search state of the calling thread for g
+     */
+    private static SearchState searchState( CompactGraph g )
+    {
+        SearchState st = STATE.get();
+
+        if ( st == null || st.graph != g )
+        {
+            st = new SearchState( g );
+            STATE.set( st );
+        }
+        return st;
+    }
+
+
+    /**
+     * Labels and queue of one thread. Labels are valid for reached nodes
+     * only, so a search starts without clearing the arrays.
+     */
+    private static class SearchState
+    {
+        final CompactGraph graph;
+
+        final double         distance[];
+        final int            parent[];    // predecessor per node index, -1 for the nodes of the origin
+        final IndexedMinHeap queue;
+        final VisitedSet     reached;
+        final VisitedSet     pending;
+
+        // slots of nodes copied into a path tree
+        final int        slot[];
+        final VisitedSet copied;
+        final int        chain[];
+
+        SearchState( CompactGraph g )
+        {
+            int n = g.getNodeCount();
+
+            this.graph = g;
+            this.distance = new double[n];
+            this.parent = new int[n];
+            this.queue = new IndexedMinHeap( n );
+            this.reached = new VisitedSet( n );
+            this.pending = new VisitedSet( n );
+            this.slot = new int[n];
+            this.copied = new VisitedSet( n );
+            this.chain = new int[n];
+        }
+
+        void clear()
+        {
+            this.queue.clear();
+            this.reached.clear();
+            this.pending.clear();
+            this.copied.clear();
+        }
+
+        double getDistance( int node )
+        {
+            return this.reached.contains( node ) ? this.distance[node] : Double.POSITIVE_INFINITY;
+        }
+
+        void reach( int node, double cost, int from )
+        {
+            this.reached.add( node );
+            this.distance[node] = cost;
+            this.parent[node] = from;
+            this.queue.insertOrDecrease( node, cost );
+        }
+    }
+
+    /**
+     * Union of the labelled paths to the targets of a table, as slots
+     * holding a node index and the slot of its predecessor. Its size is
+     * bounded by the search space, not by the graph.
+     */
+    private static class PathTree
+    {
+        int node[]   = new int[16];
+        int parent[] = new int[16];    // slot, -1 for the nodes of the origin
+        int size;
+
+        /**
+         * @param st:  state of the finished search
+         * @param end: reached node index
+         * @return slot of end
+         */
+        int add( SearchState st, int end )
+        {
+            int length = 0;
+            int top    = end;
+
+            while ( top >= 0 && !st.copied.contains( top ) )
+            {
+                st.chain[length++] = top;
+                top = st.parent[top];
+            }
+
+            int above = top < 0 ? -1 : st.slot[top];
+            for ( int k = length - 1; k >= 0; k-- )
+            {
+                if ( this.size == this.node.length )
+                {
+                    this.node = Arrays.copyOf( this.node, 2 * this.size );
+                    this.parent = Arrays.copyOf( this.parent, 2 * this.size );
+                }
+                this.node[this.size] = st.chain[k];
+                this.parent[this.size] = above;
+                st.copied.add( st.chain[k] );
+                st.slot[st.chain[k]] = this.size;
+                above = this.size++;
+            }
+            return st.slot[end];
+        }
+
+        int[] trim( int values[] )
+        {
+            return Arrays.copyOf( values, this.size );
+        }
+    }
+}
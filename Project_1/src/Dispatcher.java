@@ -0,0 +1,290 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Assigns taxis to a batch of clients. Map, graph and fleet are set up
+ * once and shared by every request of the batch. A dispatcher is
+ * immutable and may be used from several threads. Clients and taxis are
+ * snapped to the nearest road segment; with a {@link FleetRegistry} every
+ * request routes to the taxis of its latest snapshot. Routes lead from a taxi to the client,
+ * found by one search from the client along the incoming arcs, so one-way
+ * roads are driven the right way. With turn costs the routes start at
+ * all candidate taxis at once and respect the restricted turns.
+ */
+public class Dispatcher
+{
+    private static final int CANDIDATES = 8;     // taxis routed to in the first round
+
+    private final Map                map;
+    private final List<RoadPosition> positions;   // fixed fleet snapped to the road
+    private final List<Node>         fleet;       // nodes of positions
+    private final SearchTree         fleetTree;   // fixed fleet by list position
+    private final FleetRegistry      registry;    // live fleet, null for a fixed fleet
+    private final AStar              aStar;
+
+    /**
+     * @param map
+     * @param taxis:     String [longitude, latitude, taxiId]
+     * @param heuristic
+     */
+    public Dispatcher( Map map, List<String[]> taxis, AStar.HeuristicType heuristic )
+    {
+        this( map, taxis, heuristic, null );
+    }
+
+    /**
+     * @param map
+     * @param taxis:     String [longitude, latitude, taxiId]
+     * @param heuristic
+     * @param turns:     turn restrictions and costs of the map's graph, may be null
+     */
+    public Dispatcher( Map map, List<String[]> taxis, AStar.HeuristicType heuristic, TurnCosts turns )
+    {
+        List<Node> fleet = new ArrayList<Node>( taxis.size() );
+
+        this.map = map;
+        this.positions = Collections.unmodifiableList( map.locateTaxisOnRoad( taxis ) );    // snap fleet once per batch
+        for ( RoadPosition p : this.positions )
+        {
+            fleet.add( p.getNode() );
+        }
+        this.fleet = Collections.unmodifiableList( fleet );
+        this.fleetTree = new SearchTree( map.getCompactGraph().getProjection() );
+        this.fleetTree.createSearchTree( this.fleet );
+        this.registry = null;
+        this.aStar = new AStar( heuristic, AStar.SearchDirection.forward, null, null, turns );
+    }
+
+    /**
+     * @param map
+     * @param registry:  live taxi positions on map
+     * @param heuristic
+     */
+    public Dispatcher( Map map, FleetRegistry registry, AStar.HeuristicType heuristic )
+    {
+        this( map, registry, heuristic, null );
+    }
+
+    /**
+     * @param map
+     * @param registry:  live taxi positions on map
+     * @param heuristic
+     * @param turns:     turn restrictions and costs of the map's graph, may be null
+     */
+    public Dispatcher( Map map, FleetRegistry registry, AStar.HeuristicType heuristic, TurnCosts turns )
+    {
+        this.map = map;
+        this.positions = Collections.emptyList();
+        this.fleet = Collections.emptyList();
+        this.fleetTree = null;
+        this.registry = registry;
+        this.aStar = new AStar( heuristic, AStar.SearchDirection.forward, null, null, turns );
+    }
+
+    /**
+     * Finds the closest taxi and its route for every client.
+     *
+     * @param clients: String [longitude, latitude]
+     * @return one assignment per client, in input order
+     */
+    public List<Assignment> dispatch( List<String[]> clients )
+    {
+        List<Assignment> result = new ArrayList<Assignment>( clients.size() );
+
+        for ( String[] c : clients )
+        {
+            result.add( dispatch( c ) );
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #dispatch(List)}, but routes the clients in parallel
+     * on the common fork-join pool.
+     *
+     * @param clients: String [longitude, latitude]
+     * @return one assignment per client, in input order
+     */
+    public List<Assignment> dispatchParallel( List<String[]> clients )
+    {
+        return clients.parallelStream()
+                      .map( this::dispatch )
+                      .collect( Collectors.toList() );
+    }
+
+    /**
+     * Routes to the nearest taxis by straight line distance only. Route
+     * costs are path lengths in the map projection, so the projected
+     * straight line distance to a taxi is a lower bound of its route
+     * cost: once the best route found is cheaper than the distance to the
+     * nearest taxi left out, no other taxi can be closer. Otherwise the
+     * number of candidates is doubled.
+     *
+     * @param client: String [longitude, latitude]
+     * @return assignment, without taxi and route if no taxi is reachable
+     */
+    public Assignment dispatch( String[] client )
+    {
+        if ( this.registry != null )
+            return dispatch( client, this.registry.snapshot() );
+
+        RoadPosition start      = this.map.locateClientOnRoad( client );
+        double       latitude   = start.getNode().getPoint().getLatitude();
+        double       longitude  = start.getNode().getPoint().getLongitude();
+        int          nearest[]  = new int[CANDIDATES + 1];
+        double       distance[] = new double[CANDIDATES + 1];
+
+        for ( int k = CANDIDATES; ; k *= 2 )
+        {
+            if ( nearest.length < k + 1 )
+            {
+                nearest = new int[k + 1];
+                distance = new double[k + 1];
+            }
+
+            int                count      = this.fleetTree.nearest( latitude, longitude, k + 1, nearest, distance );
+            List<RoadPosition> candidates = new ArrayList<RoadPosition>( k );
+            List<Node>         taxis      = new ArrayList<Node>( k );
+
+            for ( int i = 0; i < Math.min( count, k ); i++ )
+            {
+                candidates.add( this.positions.get( nearest[i] ) );
+                taxis.add( this.fleet.get( nearest[i] ) );
+            }
+
+            List<AStar.AStarNode> routes = this.aStar.findPathsTo( candidates, start, this.map.getCompactGraph() );
+
+            if ( count <= k || ( !routes.isEmpty() && routes.get( 0 ).getCost() < Math.sqrt( distance[k] ) ) )
+            {
+                if ( routes.isEmpty() )
+                    return new Assignment( start.getNode(), null, routes );
+
+                return new Assignment( start.getNode(), findTaxi( firstNode( routes.get( 0 ) ), taxis ), routes );
+            }
+        }
+    }
+
+    /**
+     * Costs from every taxi to a client by one search, e.g. to rank or
+     * price the whole fleet. Turn costs are not included.
+     *
+     * @param client: String [longitude, latitude]
+     * @return costs and paths aligned with {@link #getFleet()}
+     */
+    public CostTable getCosts( String[] client )
+    {
+        return Dijkstra.manyToOne( this.map.getCompactGraph(), this.positions, this.map.locateClientOnRoad( client ) );
+    }
+
+    /**
+     * @param client: String [longitude, latitude]
+     * @param fleet:  taxis of a registry
+     * @return costs and paths aligned with {@link FleetRegistry.Snapshot#getPositions()}
+     */
+    public CostTable getCosts( String[] client, FleetRegistry.Snapshot fleet )
+    {
+        return Dijkstra.manyToOne( this.map.getCompactGraph(), fleet.getPositions(), this.map.locateClientOnRoad( client ) );
+    }
+
+    /**
+     * Same as {@link #dispatch(String[])} on the taxis of a registry.
+     *
+     * @param client: String [longitude, latitude]
+     * @param fleet:  taxis of a registry
+     * @return assignment, without taxi and route if no taxi is reachable
+     */
+    private Assignment dispatch( String[] client, FleetRegistry.Snapshot fleet )
+    {
+        RoadPosition start = this.map.locateClientOnRoad( client );
+        Point        point = start.getNode().getPoint();
+
+        for ( int k = CANDIDATES; ; k *= 2 )
+        {
+            List<FleetRegistry.Taxi> nearest    = fleet.nearest( point.getLatitude(), point.getLongitude(), k + 1 );
+            List<RoadPosition>       candidates = new ArrayList<RoadPosition>( k );
+            List<Node>               taxis      = new ArrayList<Node>( k );
+
+            for ( int i = 0; i < Math.min( nearest.size(), k ); i++ )
+            {
+                candidates.add( nearest.get( i ).getPosition() );
+                taxis.add( nearest.get( i ).getPosition().getNode() );
+            }
+
+            List<AStar.AStarNode> routes = this.aStar.findPathsTo( candidates, start, this.map.getCompactGraph() );
+
+            if ( nearest.size() <= k || ( !routes.isEmpty() && routes.get( 0 ).getCost() < distance( point, nearest.get( k ) ) ) )
+            {
+                if ( routes.isEmpty() )
+                    return new Assignment( start.getNode(), null, routes );
+
+                return new Assignment( start.getNode(), findTaxi( firstNode( routes.get( 0 ) ), taxis ), routes );
+            }
+        }
+    }
+
+    private double distance( Point p, FleetRegistry.Taxi taxi )
+    {
+        return this.map.getCompactGraph().getProjection().distance( p, taxi.getPosition().getNode().getPoint() );
+    }
+
+    /**
+     * @return node a route starts on
+     */
+    private static Node firstNode( AStar.AStarNode route )
+    {
+        return route.getPathToNode().get( 0 );
+    }
+
+    /**
+     * @param goal:  node a route started on
+     * @param fleet: taxis routed from
+     * @return taxi located at goal
+     */
+    private static Node findTaxi( Node goal, List<Node> fleet )
+    {
+        for ( Node t : fleet )
+        {
+            if ( t.equals( goal ) || t.getPoint().equals( goal.getPoint() ) )
+                return t;
+        }
+        return goal;
+    }
+
+    public List<Node>         getFleet()          { return this.fleet; }
+    public List<RoadPosition> getFleetPositions() { return this.positions; }
+
+    public static class Assignment
+    {
+        private final Node                  client;
+        private final Node                  taxi;
+        private final List<AStar.AStarNode> routes;
+
+        public Assignment( Node client, Node taxi, List<AStar.AStarNode> routes )
+        {
+            this.client = client;
+            this.taxi = taxi;
+            this.routes = routes;
+        }
+
+        public boolean hasTaxi() { return this.taxi != null; }
+
+        public double getCost()
+        {
+            return this.routes.isEmpty() ? Double.POSITIVE_INFINITY : this.routes.get( 0 ).getCost();
+        }
+
+        public Node                  getClient() { return this.client; }
+        public Node                  getTaxi()   { return this.taxi; }
+        public List<AStar.AStarNode> getRoutes() { return this.routes; }
+    }
+}
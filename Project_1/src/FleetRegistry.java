@@ -0,0 +1,557 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live taxi positions of a map. Position updates are streamed in; only
+ * taxis that moved are snapped to the road again, and a grid of taxi
+ * locations is updated incrementally.
+ *
+ * Queries work on immutable snapshots. Taxis and grid cells are kept in
+ * two level copy-on-write arrays: publishing a snapshot only starts a new
+ * generation, the next writes copy the chunks they touch. Writers are
+ * serialized, readers never wait: {@link #snapshot()} publishes pending
+ * updates only if no writer holds the lock, else it returns the last
+ * published snapshot, which is consistent but may miss the update in
+ * progress.
+ */
+public class FleetRegistry
+{
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK      = 1 << CHUNK_BITS;
+    private static final int GRID_SIDE  = 128;    // cells per side of the taxi grid
+
+    private final Map        map;
+    private final Projection projection;
+    private final double     minY;          // grid origin and cell size in meters of projection
+    private final double     minX;
+    private final double     cellSize;
+
+    // writer state
+    private final ReentrantLock         lock  = new ReentrantLock();
+    private final VersionedArray<Taxi>  taxis = new VersionedArray<Taxi>();
+    private final VersionedArray<int[]> cells = new VersionedArray<int[]>();
+    private HashMap<String, Integer>    slots = new HashMap<String, Integer>();
+    private boolean                     slotsShared;
+    private final List<Integer>         freeSlots = new ArrayList<Integer>();
+    private int                         slotCount;
+    private int                         taxiCount;
+    private long                        version;
+    private boolean                     dirty;
+
+    private volatile Snapshot published;
+
+    /**
+     * @param map: taxis are snapped to its roads
+     */
+    public FleetRegistry( Map map )
+    {
+        CompactGraph g    = map.getCompactGraph();
+        double       minY = Double.POSITIVE_INFINITY;
+        double       minX = Double.POSITIVE_INFINITY;
+        double       maxY = Double.NEGATIVE_INFINITY;
+        double       maxX = Double.NEGATIVE_INFINITY;
+
+        for ( int v = 0; v < g.getNodeCount(); v++ )
+        {
+            minY = Math.min( minY, g.getY( v ) );
+            minX = Math.min( minX, g.getX( v ) );
+            maxY = Math.max( maxY, g.getY( v ) );
+            maxX = Math.max( maxX, g.getX( v ) );
+        }
+
+        this.map = map;
+        this.projection = g.getProjection();
+        this.minY = minY;
+        this.minX = minX;
+        this.cellSize = Math.max( Math.max( maxY - minY, maxX - minX ) / GRID_SIDE, 1e-9 );
+        this.published = new Snapshot( this, new Object[0][], new Object[0][], this.slots, 0, 0, 0 );
+        this.slotsShared = true;
+    }
+
+    /**
+     * Reports the position of a taxi, registering unknown taxis.
+     *
+     * @param taxiId
+     * @param latitude
+     * @param longitude
+     * @return false if the taxi did not move
+     */
+    public boolean update( String taxiId, double latitude, double longitude )
+    {
+        this.lock.lock();
+        try
+        {
+            return apply( taxiId, latitude, longitude );
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a batch of positions under one lock.
+     *
+     * @param positions: String [longitude, latitude, taxiId] as in the taxi file
+     * @return number of taxis that moved
+     */
+    public int update( List<String[]> positions )
+    {
+        int moved = 0;
+
+        this.lock.lock();
+        try
+        {
+            for ( String[] p : positions )
+            {
+                if ( apply( p[2], Double.parseDouble( p[1] ), Double.parseDouble( p[0] ) ) )
+                    moved++;
+            }
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+        return moved;
+    }
+
+    /**
+     * @param taxiId
+     * @return false for unknown taxis
+     */
+    public boolean remove( String taxiId )
+    {
+        this.lock.lock();
+        try
+        {
+            Integer slot = this.slots.get( taxiId );
+
+            if ( slot == null )
+                return false;
+
+            Taxi old = this.taxis.get( slot );
+
+            removeFromCell( cell( old ), slot );
+            this.taxis.set( slot, null );
+            writableSlots().remove( taxiId );
+            this.freeSlots.add( slot );
+            this.taxiCount--;
+            this.version++;
+            this.dirty = true;
+            return true;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean apply( String taxiId, double latitude, double longitude )
+    {
+        Integer slot = this.slots.get( taxiId );
+        Taxi    old  = slot == null ? null : this.taxis.get( slot );
+
+        if ( old != null && old.latitude == latitude && old.longitude == longitude )
+            return false;
+
+        Taxi taxi = new Taxi( taxiId, latitude, longitude, snap( taxiId, latitude, longitude ) );
+
+        if ( slot == null )
+        {
+            slot = this.freeSlots.isEmpty() ? this.slotCount++ : this.freeSlots.remove( this.freeSlots.size() - 1 );
+            writableSlots().put( taxiId, slot );
+            this.taxiCount++;
+            addToCell( cell( taxi ), slot );
+        }
+        else if ( cell( old ) != cell( taxi ) )
+        {
+            removeFromCell( cell( old ), slot );
+            addToCell( cell( taxi ), slot );
+        }
+
+        this.taxis.set( slot, taxi );
+        this.version++;
+        this.dirty = true;
+        return true;
+    }
+
+    private RoadPosition snap( String taxiId, double latitude, double longitude )
+    {
+        RoadPosition position = this.map.getSegmentIndex().snap( latitude, longitude );
+
+        // maps without any road segment
+        if ( position == null )
+            position = RoadPosition.of( this.map.getAllNodes().get( this.map.getSearchTree().nearest( latitude, longitude ) ) );
+        return position.withOptionalName( taxiId );
+    }
+
+    private HashMap<String, Integer> writableSlots()
+    {
+        if ( this.slotsShared )
+        {
+            this.slots = new HashMap<String, Integer>( this.slots );
+            this.slotsShared = false;
+        }
+        return this.slots;
+    }
+
+    private void addToCell( int cell, int slot )
+    {
+        int old[]  = this.cells.get( cell );
+        int list[] = old == null ? new int[1] : Arrays.copyOf( old, old.length + 1 );
+
+        list[list.length - 1] = slot;
+        this.cells.set( cell, list );
+    }
+
+    private void removeFromCell( int cell, int slot )
+    {
+        int old[]  = this.cells.get( cell );
+        int list[] = new int[old.length - 1];
+
+        for ( int i = 0, j = 0; i < old.length; i++ )
+        {
+            if ( old[i] != slot )
+                list[j++] = old[i];
+        }
+        this.cells.set( cell, list.length == 0 ? null : list );
+    }
+
+    private int cell( Taxi taxi )
+    {
+        Point p = taxi.position.getNode().getPoint();
+        return row( this.projection.y( p.getLatitude() ) ) * GRID_SIDE + column( this.projection.x( p.getLongitude() ) );
+    }
+
+    private int row( double y )
+    {
+        return ( int ) Math.max( 0, Math.min( GRID_SIDE - 1, Math.floor( ( y - this.minY ) / this.cellSize ) ) );
+    }
+
+    private int column( double x )
+    {
+        return ( int ) Math.max( 0, Math.min( GRID_SIDE - 1, Math.floor( ( x - this.minX ) / this.cellSize ) ) );
+    }
+
+    /**
+     * @return lower bound of the distance to taxis outside the cells within ring r
+     */
+    private double uncoveredDistance( int r, double y, double x )
+    {
+        double south = y - ( this.minY + ( row( y ) - r ) * this.cellSize );
+        double north = this.minY + ( row( y ) + r + 1 ) * this.cellSize - y;
+        double west  = x - ( this.minX + ( column( x ) - r ) * this.cellSize );
+        double east  = this.minX + ( column( x ) + r + 1 ) * this.cellSize - x;
+
+        return Math.max( 0, Math.min( Math.min( south, north ), Math.min( west, east ) ) );
+    }
+
+    /**
+     * @return latest consistent state of the fleet, never blocks
+     */
+    public Snapshot snapshot()
+    {
+        if ( this.dirty && this.lock.tryLock() )
+        {
+            try
+            {
+                if ( this.dirty )
+                {
+                    this.published = new Snapshot( this, this.taxis.publish(), this.cells.publish(), this.slots,
+                                                   this.slotCount, this.taxiCount, this.version );
+                    this.slotsShared = true;
+                    this.dirty = false;
+                }
+            }
+            finally
+            {
+                this.lock.unlock();
+            }
+        }
+        return this.published;
+    }
+
+    /**
+     * Reported and snapped position of a taxi, immutable.
+     */
+    public static class Taxi
+    {
+        private final String       id;
+        private final double       latitude;
+        private final double       longitude;
+        private final RoadPosition position;
+
+        public Taxi( String id, double latitude, double longitude, RoadPosition position )
+        {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.position = position;
+        }
+
+        public String       getId()        { return this.id; }
+        public double       getLatitude()  { return this.latitude; }
+        public double       getLongitude() { return this.longitude; }
+        public RoadPosition getPosition()  { return this.position; }
+    }
+
+    /**
+     * Immutable state of the fleet at one version.
+     */
+    public static class Snapshot
+    {
+        private final FleetRegistry            registry;
+        private final Object                   taxis[][];
+        private final Object                   cells[][];
+        private final HashMap<String, Integer> slots;
+        private final int                      slotCount;
+        private final int                      size;
+        private final long                     version;
+
+        private Snapshot( FleetRegistry registry, Object taxis[][], Object cells[][], HashMap<String, Integer> slots,
+                          int slotCount, int size, long version )
+        {
+            this.registry = registry;
+            this.taxis = taxis;
+            this.cells = cells;
+            this.slots = slots;
+            this.slotCount = slotCount;
+            this.size = size;
+            this.version = version;
+        }
+
+        /**
+         * @param taxiId
+         * @return taxi, null if unknown
+         */
+        public Taxi get( String taxiId )
+        {
+            Integer slot = this.slots.get( taxiId );
+            return slot == null ? null : VersionedArray.get( this.taxis, slot );
+        }
+
+        /**
+         * @return all taxis
+         */
+        public List<Taxi> getTaxis()
+        {
+            List<Taxi> result = new ArrayList<Taxi>( this.size );
+
+            for ( int slot = 0; slot < this.slotCount; slot++ )
+            {
+                Taxi t = VersionedArray.get( this.taxis, slot );
+                if ( t != null )
+                    result.add( t );
+            }
+            return result;
+        }
+
+        /**
+         * @return snapped positions of all taxis, e.g. as search targets
+         */
+        public List<RoadPosition> getPositions()
+        {
+            List<RoadPosition> result = new ArrayList<RoadPosition>( this.size );
+
+            for ( Taxi t : getTaxis() )
+            {
+                result.add( t.position );
+            }
+            return result;
+        }
+
+        /**
+         * Finds the taxis whose road position is within a straight line
+         * distance, using the taxi grid.
+         *
+         * @param latitude
+         * @param longitude
+         * @param radius:    in meters
+         * @return taxis in no particular order
+         */
+        public List<Taxi> within( double latitude, double longitude, double radius )
+        {
+            if ( this.size == 0 )
+                return Collections.emptyList();
+
+            Projection projection = this.registry.projection;
+            double     y          = projection.y( latitude );
+            double     x          = projection.x( longitude );
+            List<Taxi> result     = new ArrayList<Taxi>();
+            int        row0       = this.registry.row( y - radius );
+            int        row1       = this.registry.row( y + radius );
+            int        col0       = this.registry.column( x - radius );
+            int        col1       = this.registry.column( x + radius );
+
+            for ( int row = row0; row <= row1; row++ )
+            {
+                for ( int column = col0; column <= col1; column++ )
+                {
+                    int list[] = VersionedArray.get( this.cells, row * GRID_SIDE + column );
+                    if ( list == null )
+                        continue;
+
+                    for ( int slot : list )
+                    {
+                        Taxi   t  = VersionedArray.get( this.taxis, slot );
+                        Point  p  = t.position.getNode().getPoint();
+                        double dy = projection.y( p.getLatitude() ) - y;
+                        double dx = projection.x( p.getLongitude() ) - x;
+
+                        if ( dx * dx + dy * dy <= radius * radius )
+                            result.add( t );
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Finds the taxis nearest to a point by straight line distance of
+         * their road positions, searching rings of grid cells until no
+         * unvisited cell can hold a closer taxi.
+         *
+         * @param latitude
+         * @param longitude
+         * @param k
+         * @return up to k taxis, nearest first
+         */
+        public List<Taxi> nearest( double latitude, double longitude, int k )
+        {
+            Projection projection = this.registry.projection;
+            double     y          = projection.y( latitude );
+            double     x          = projection.x( longitude );
+            Taxi       best[]     = new Taxi[k];
+            double     distance[] = new double[k];
+            int        count      = 0;
+            int        row0       = this.registry.row( y );
+            int        column0    = this.registry.column( x );
+
+            for ( int r = 0; this.size > 0 && k > 0; r++ )
+            {
+                for ( int row = Math.max( row0 - r, 0 ); row <= Math.min( row0 + r, GRID_SIDE - 1 ); row++ )
+                {
+                    boolean edgeRow = row == row0 - r || row == row0 + r;
+
+                    for ( int column = Math.max( column0 - r, 0 ); column <= Math.min( column0 + r, GRID_SIDE - 1 ); column++ )
+                    {
+                        // only the ring at distance r, inner cells were searched before
+                        if ( !edgeRow && column != column0 - r && column != column0 + r )
+                            continue;
+
+                        int list[] = VersionedArray.get( this.cells, row * GRID_SIDE + column );
+                        if ( list == null )
+                            continue;
+
+                        for ( int slot : list )
+                        {
+                            Taxi   t  = VersionedArray.get( this.taxis, slot );
+                            Point  p  = t.position.getNode().getPoint();
+                            double dy = projection.y( p.getLatitude() ) - y;
+                            double dx = projection.x( p.getLongitude() ) - x;
+                            double d  = dx * dx + dy * dy;
+
+                            // insertion into the sorted result
+                            int i = count < k ? count : k;
+                            while ( i > 0 && d < distance[i - 1] )
+                            {
+                                if ( i < k )
+                                {
+                                    best[i] = best[i - 1];
+                                    distance[i] = distance[i - 1];
+                                }
+                                i--;
+                            }
+                            if ( i < k )
+                            {
+                                best[i] = t;
+                                distance[i] = d;
+                                count = Math.min( count + 1, k );
+                            }
+                        }
+                    }
+                }
+
+                boolean covered = row0 - r <= 0 && column0 - r <= 0 && row0 + r >= GRID_SIDE - 1 && column0 + r >= GRID_SIDE - 1;
+                if ( covered || ( count == k && Math.sqrt( distance[k - 1] ) <= this.registry.uncoveredDistance( r, y, x ) ) )
+                    break;
+            }
+            return Arrays.asList( best ).subList( 0, count );
+        }
+
+        public int  size()       { return this.size; }
+        public long getVersion() { return this.version; }
+    }
+
+    /**
+     * Array of chunks copied on write once per generation: chunks and the
+     * chunk table written before {@link #publish()} are never changed
+     * again, so a published table may be read without locking.
+     */
+    private static class VersionedArray<T>
+    {
+        private Object table[][]         = new Object[0][];
+        private int    chunkGeneration[] = new int[0];
+        private int    tableGeneration;
+        private int    generation        = 1;
+
+        @SuppressWarnings( "unchecked" )
+        static <T> T get( Object table[][], int index )
+        {
+            int chunk = index >>> CHUNK_BITS;
+            return chunk < table.length && table[chunk] != null ? ( T ) table[chunk][index & ( CHUNK - 1 )] : null;
+        }
+
+        T get( int index )
+        {
+            return get( this.table, index );
+        }
+
+        void set( int index, T value )
+        {
+            int chunk = index >>> CHUNK_BITS;
+
+            if ( this.tableGeneration != this.generation || chunk >= this.table.length )
+            {
+                int length = Math.max( this.table.length, chunk < this.table.length ? 0 : Math.max( 2 * this.table.length, chunk + 1 ) );
+
+                this.table = Arrays.copyOf( this.table, length );
+                this.chunkGeneration = Arrays.copyOf( this.chunkGeneration, length );
+                this.tableGeneration = this.generation;
+            }
+
+            if ( this.table[chunk] == null )
+            {
+                this.table[chunk] = new Object[CHUNK];
+                this.chunkGeneration[chunk] = this.generation;
+            }
+            else if ( this.chunkGeneration[chunk] != this.generation )
+            {
+                this.table[chunk] = this.table[chunk].clone();
+                this.chunkGeneration[chunk] = this.generation;
+            }
+            this.table[chunk][index & ( CHUNK - 1 )] = value;
+        }
+
+        /**
+         * @return current table, later writes copy before changing it
+         */
+        Object[][] publish()
+        {
+            this.generation++;
+            return this.table;
+        }
+    }
+}
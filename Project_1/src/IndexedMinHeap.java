@@ -0,0 +1,173 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap over dense integer ids (e.g. node indices) with
+ * O(log n) insert, pop-min and decrease-key.
+ */
+public class IndexedMinHeap
+{
+    private int    heap[];        // heap slot -> id
+    private int    position[];    // id -> heap slot, -1 if not queued
+    private double key[];         // id -> priority
+    private int    size;
+
+    public IndexedMinHeap( int capacity )
+    {
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.key = new double[capacity];
+        Arrays.fill( this.position, -1 );
+    }
+
+    public boolean contains( int id )
+    {
+        return this.position[id] >= 0;
+    }
+
+    /**
+     * Inserts id or lowers its priority if it is already queued.
+     * Higher priorities for queued ids are ignored.
+     *
+     * @param id
+     * @param priority
+     */
+    public void insertOrDecrease( int id, double priority )
+    {
+        if ( contains( id ) )
+        {
+            decreaseKey( id, priority );
+        }
+        else
+        {
+            insert( id, priority );
+        }
+    }
+
+    public void insert( int id, double priority )
+    {
+        this.key[id] = priority;
+        this.heap[this.size] = id;
+        this.position[id] = this.size;
+        siftUp( this.size++ );
+    }
+
+    public void decreaseKey( int id, double priority )
+    {
+        if ( priority < this.key[id] )
+        {
+            this.key[id] = priority;
+            siftUp( this.position[id] );
+        }
+    }
+
+    /**
+     * Sets the priority of a queued id, moving it up or down as needed.
+     *
+     * @param id
+     * @param priority
+     */
+    public void changeKey( int id, double priority )
+    {
+        if ( priority < this.key[id] )
+        {
+            decreaseKey( id, priority );
+        }
+        else
+        {
+            this.key[id] = priority;
+            siftDown( this.position[id] );
+        }
+    }
+
+    /**
+     * Removes the id with the lowest priority.
+     *
+     * @return removed id
+     */
+    public int pop()
+    {
+        int top = this.heap[0];
+
+        this.size--;
+        if ( this.size > 0 )
+        {
+            move( this.heap[this.size], 0 );
+            siftDown( 0 );
+        }
+        this.position[top] = -1;
+        return top;
+    }
+
+    /**
+     * Empties the heap in O(size), leaving it ready for the next search.
+     */
+    public void clear()
+    {
+        for ( int i = 0; i < this.size; i++ )
+        {
+            this.position[this.heap[i]] = -1;
+        }
+        this.size = 0;
+    }
+
+    private void siftUp( int slot )
+    {
+        int    id       = this.heap[slot];
+        double priority = this.key[id];
+
+        while ( slot > 0 )
+        {
+            int parent = ( slot - 1 ) >>> 1;
+
+            if ( this.key[this.heap[parent]] <= priority )
+                break;
+
+            move( this.heap[parent], slot );
+            slot = parent;
+        }
+        move( id, slot );
+    }
+
+    private void siftDown( int slot )
+    {
+        int    id       = this.heap[slot];
+        double priority = this.key[id];
+
+        while ( true )
+        {
+            int child = 2 * slot + 1;
+
+            if ( child >= this.size )
+                break;
+            if ( child + 1 < this.size && this.key[this.heap[child + 1]] < this.key[this.heap[child]] )
+                child++;
+            if ( this.key[this.heap[child]] >= priority )
+                break;
+
+            move( this.heap[child], slot );
+            slot = child;
+        }
+        move( id, slot );
+    }
+
+    private void move( int id, int slot )
+    {
+        this.heap[slot] = id;
+        this.position[id] = slot;
+    }
+
+    public boolean isEmpty()        { return this.size == 0; }
+    public int     size()           { return this.size; }
+    public int     capacity()       { return this.position.length; }
+    public int     peek()           { return this.heap[0]; }
+    public double  peekKey()        { return this.key[this.heap[0]]; }
+    public double  getKey( int id ) { return this.key[id]; }
+}
@@ -14,6 +14,7 @@ import org.jdom2.output.XMLOutputter;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -24,6 +25,28 @@ public class KMLGenerator
     public void generatePathKML( String fileName, String layerName,
                                  List<AStar.AStarNode> pathList,
                                  Node start, List<Node> target )
+    {
+        List<List<Node>> paths = new ArrayList<List<Node>>();
+        for( AStar.AStarNode n : pathList )
+            paths.add( n.getPathToNode() );
+
+        generateKML( fileName, layerName, paths, start, target );
+    }
+
+    public void generateRouteKML( String fileName, String layerName,
+                                  List<Route> routeList,
+                                  Node start, List<Node> target )
+    {
+        List<List<Node>> paths = new ArrayList<List<Node>>();
+        for( Route r : routeList )
+            paths.add( r.getPath() );
+
+        generateKML( fileName, layerName, paths, start, target );
+    }
+
+    private void generateKML( String fileName, String layerName,
+                              List<List<Node>> pathList,
+                              Node start, List<Node> target )
     {
         // create root node
         Element   kml = new Element( "kml");
@@ -72,7 +95,7 @@ public class KMLGenerator
             // coordinates (format: longitude latitude)
             Element coordinates = new Element("coordinates");
 
-            for( Node n: pathList.get(i).getPathToNode() )
+            for( Node n: pathList.get(i) )
             {
                 Point p = n.getPoint();
                 coordinates.addContent( p.getLongitude() + ", " + p.getLatitude() + "\n" );
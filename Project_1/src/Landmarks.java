@@ -0,0 +1,218 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Landmark distance tables for the ALT heuristic. For every landmark l
+ * the shortest path costs d(l, v) from and d(v, l) to every node v are
+ * precomputed; by the triangle inequality d(l, t) - d(l, v) and
+ * d(v, l) - d(t, l) are lower bounds of d(v, t). On graphs without
+ * one-way roads both tables are the same and only one is kept.
+ */
+public class Landmarks
+{
+    private static final int MAGIC   = 0x414c5431;    // "ALT1"
+    private static final int VERSION = 4;    // costs in meters since version 2, costs to the landmarks since version 3,
+                                             // arc count and checksum of the graph since version 4
+
+    private final int    landmarks[];
+    private final int    nodeCount;
+    private final int    arcCount;
+    private final long   checksum;       // of the graph, see CompactGraph#getChecksum()
+    private final double distance[];     // d(l, v) at distance[v * landmarks.length + l]
+    private final double distanceTo[];   // d(v, l), same array as distance on symmetric graphs
+
+    private Landmarks( int landmarks[], CompactGraph g, double distance[], double distanceTo[] )
+    {
+        this.landmarks = landmarks;
+        this.nodeCount = g.getNodeCount();
+        this.arcCount = g.getArcCount();
+        this.checksum = g.getChecksum();
+        this.distance = distance;
+        this.distanceTo = distanceTo;
+    }
+
+    /**
+     * Selects landmarks by farthest selection: each new landmark is the
+     * reachable node farthest from all landmarks chosen so far.
+     *
+     * @param g
+     * @param count: number of landmarks
+     * @return landmark tables
+     */
+    public static Landmarks compute( CompactGraph g, int count )
+    {
+        int    nodeCount    = g.getNodeCount();
+        int    landmarks[]  = new int[count];
+        double distance[]   = new double[nodeCount * count];
+        double distanceTo[] = g.isSymmetric() ? distance : new double[nodeCount * count];
+        double nearest[]    = new double[nodeCount];    // cost from the closest chosen landmark
+
+        // the farthest node from an arbitrary connected node is the first landmark
+        int seed = 0;
+        while ( seed < nodeCount - 1 && g.firstArc( seed ) == g.endArc( seed ) )
+            seed++;
+        int next = farthest( Dijkstra.distances( g, seed ) );
+
+        for ( int l = 0; l < count; l++ )
+        {
+            double d[] = Dijkstra.distances( g, next );
+
+            landmarks[l] = next;
+            for ( int v = 0; v < nodeCount; v++ )
+            {
+                distance[v * count + l] = d[v];
+                nearest[v] = l == 0 ? d[v] : Math.min( nearest[v], d[v] );
+            }
+
+            if ( distanceTo != distance )
+            {
+                double to[] = Dijkstra.distancesTo( g, next );
+
+                for ( int v = 0; v < nodeCount; v++ )
+                    distanceTo[v * count + l] = to[v];
+            }
+            next = farthest( nearest );
+        }
+        return new Landmarks( landmarks, g, distance, distanceTo );
+    }
+
+    /**
+     * @param cost: per node
+     * @return index of the node with the highest finite cost
+     */
+    private static int farthest( double cost[] )
+    {
+        int result = 0;
+
+        for ( int v = 1; v < cost.length; v++ )
+        {
+            if ( cost[v] != Double.POSITIVE_INFINITY && ( cost[result] == Double.POSITIVE_INFINITY || cost[v] > cost[result] ) )
+                result = v;
+        }
+        return result;
+    }
+
+    /**
+     * Lower bound of the path cost between two nodes.
+     *
+     * @param from: node index
+     * @param to:   node index
+     * @return admissible estimate, 0 if no landmark applies
+     */
+    public double lowerBound( int from, int to )
+    {
+        int    count  = this.landmarks.length;
+        int    a      = from * count;
+        int    b      = to * count;
+        double result = 0;
+
+        for ( int l = 0; l < count; l++ )
+        {
+            double la = this.distance[a + l];      // d(l, from)
+            double lb = this.distance[b + l];      // d(l, to)
+            double al = this.distanceTo[a + l];    // d(from, l)
+            double bl = this.distanceTo[b + l];    // d(to, l)
+
+            // landmarks in another component give no information
+            if ( la != Double.POSITIVE_INFINITY && lb != Double.POSITIVE_INFINITY )
+                result = Math.max( result, lb - la );
+            if ( al != Double.POSITIVE_INFINITY && bl != Double.POSITIVE_INFINITY )
+                result = Math.max( result, al - bl );
+        }
+        return result;
+    }
+
+    /**
+     * Writes the tables to a file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save( Path file ) throws IOException
+    {
+        boolean symmetric = this.distanceTo == this.distance;
+        long    size      = 32L + 4L * this.landmarks.length + 8L * this.distance.length * ( symmetric ? 1 : 2 );
+
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            buffer.putInt( MAGIC ).putInt( VERSION ).putInt( this.nodeCount ).putInt( this.landmarks.length );
+            buffer.putInt( symmetric ? 1 : 0 );    // one table only
+            buffer.putInt( this.arcCount ).putLong( this.checksum );
+            buffer.asIntBuffer().put( this.landmarks );
+            buffer.position( buffer.position() + 4 * this.landmarks.length );
+            buffer.asDoubleBuffer().put( this.distance );
+            if ( !symmetric )
+            {
+                buffer.position( buffer.position() + 8 * this.distance.length );
+                buffer.asDoubleBuffer().put( this.distanceTo );
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * Reads tables written by {@link #save(Path)}.
+     *
+     * @param file
+     * @param g:    graph the tables were computed for
+     * @return landmark tables
+     * @throws IOException if the file is no landmark file or was computed for
+     *                     other arcs or weights than those of g
+     */
+    public static Landmarks load( Path file, CompactGraph g ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            ByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION )
+                throw new IOException( "Not a landmark file: " + file );
+
+            int     nodeCount = buffer.getInt();
+            int     count     = buffer.getInt();
+            boolean symmetric = buffer.getInt() != 0;
+            int     arcCount  = buffer.getInt();
+            long    checksum  = buffer.getLong();
+
+            if ( nodeCount != g.getNodeCount() || arcCount != g.getArcCount() || symmetric != g.isSymmetric()
+                 || checksum != g.getChecksum() )
+                throw new IOException( "Landmark file " + file + " was computed for a different graph" );
+
+            int    landmarks[]  = new int[count];
+            double distance[]   = new double[nodeCount * count];
+            double distanceTo[] = symmetric ? distance : new double[nodeCount * count];
+
+            buffer.asIntBuffer().get( landmarks );
+            buffer.position( buffer.position() + 4 * count );
+            buffer.asDoubleBuffer().get( distance );
+            if ( !symmetric )
+            {
+                buffer.position( buffer.position() + 8 * distance.length );
+                buffer.asDoubleBuffer().get( distanceTo );
+            }
+
+            return new Landmarks( landmarks, g, distance, distanceTo );
+        }
+    }
+
+    public int getCount()              { return this.landmarks.length; }
+    public int getLandmark( int i )    { return this.landmarks[i]; }
+}
@@ -6,7 +6,11 @@
  *
  */
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -18,10 +22,18 @@ public class Main
     {
         currentWorkingDirectory = Paths.get( "" ).toAbsolutePath().toString();
 
-        if ( args.length == 4 )
+        if ( ( args.length == 4 || args.length == 5 ) && !args[0].startsWith( "-" ) )
         {
             runApp( args );
         }
+        else if ( ( args.length == 5 || args.length == 6 ) && args[0].equals( "-batch" ) )
+        {
+            runBatch( Arrays.copyOfRange( args, 1, args.length ) );
+        }
+        else if ( args.length == 3 && args[0].equals( "-convert" ) )
+        {
+            runConvert( Arrays.copyOfRange( args, 1, args.length ) );
+        }
         else
         {
             printUsage();
@@ -32,11 +44,16 @@ public class Main
     private static void printUsage()
     {
         System.out.println( "Usage:\n" +
-                                    "\tjava -jar AI_TaxiService.jar <arg1> <arg2> <arg3> <arg4>\n\n" +
+                                    "\tjava -jar AI_TaxiService.jar <arg1> <arg2> <arg3> <arg4> [<arg5>]\n\n" +
                                     "\tArg1: Relative path to client csv file\n" +
                                     "\tArg2: Relative path to taxis csv file\n" +
-                                    "\tArg3: Relative path to map nodes csv file\n" +
-                                    "\tArg4: Output file name (without ending)\n\n" );
+                                    "\tArg3: Relative path to map nodes csv file or map snapshot\n" +
+                                    "\tArg4: Output file name (without ending)\n" +
+                                    "\tArg5: Optional relative path to turn restrictions csv file\n\n" +
+                                    "\tjava -jar AI_TaxiService.jar -batch <arg1> <arg2> <arg3> <arg4> [<arg5>]\n\n" +
+                                    "\tRoutes every row of the client csv file, writing <arg4>_<row>.kml per client\n\n" +
+                                    "\tjava -jar AI_TaxiService.jar -convert <arg1> <arg2>\n\n" +
+                                    "\tConverts the map nodes csv file <arg1> to the map snapshot <arg2>\n\n" );
     }
 
     private static void runApp( String[] args )
@@ -45,22 +62,32 @@ public class Main
 
         List<String[]> client = reader.read( currentWorkingDirectory + "/" + args[0], "," );
         List<String[]> taxi   = reader.read( currentWorkingDirectory + "/" + args[1], "," );
-        List<String[]> nodes  = reader.read( currentWorkingDirectory + "/" + args[2], "," );
 
         client.remove( 0 );    // remove first row -> non data elements
         taxi.remove( 0 );
-        nodes.remove( 0 );
 
-        Map map = new Map( client.get( 0 ), taxi, nodes );
+        Map       map;
+        TurnCosts turns;
+        try
+        {
+            map = loadMap( args[2] ).withStartAndGoal( client.get( 0 ), taxi );
+            turns = loadTurns( args, 4, map );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( "Error. Cannot read map: " + e.getMessage() );
+            return;
+        }
 
-        AStar aStar = new AStar( AStar.HeuristicType.EuclideanDistance );
+        AStar aStar = new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.forward, null, null, turns );
 
-        List<AStar.AStarNode> result = aStar.findPaths( map.getStart(), map.getGoals(), map.getGraph(), AStar.SearchType.strict );
+        // routes lead from the taxis to the client
+        List<AStar.AStarNode> result = aStar.findPathsTo( map.getGoals(), map.getStart(), map.getCompactGraph() );
 
         if ( !result.isEmpty() )
         {
             KMLGenerator kml = new KMLGenerator();
-            kml.generatePathKML( args[3], "Routes", result, map.getStart(), map.getGoals() );
+            kml.generatePathKML( args[3], "Routes", result, map.getStart().getNode(), nodes( map.getGoals() ) );
             System.out.println( "Done. Result in /Routes/ folder." );
         }
         else
@@ -69,4 +96,104 @@ public class Main
         }
     }
 
+    private static void runBatch( String[] args )
+    {
+        CSV_Reader reader = new CSV_Reader();
+
+        List<String[]> clients = reader.read( currentWorkingDirectory + "/" + args[0], "," );
+        List<String[]> taxi    = reader.read( currentWorkingDirectory + "/" + args[1], "," );
+
+        clients.remove( 0 );    // remove first row -> non data elements
+        taxi.remove( 0 );
+
+        Map       map;
+        TurnCosts turns;
+        try
+        {
+            map = loadMap( args[2] );
+            turns = loadTurns( args, 4, map );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( "Error. Cannot read map: " + e.getMessage() );
+            return;
+        }
+
+        Dispatcher dispatcher = new Dispatcher( map, taxi, AStar.HeuristicType.EuclideanDistance, turns );
+
+        List<Dispatcher.Assignment> result = dispatcher.dispatch( clients );
+
+        KMLGenerator kml = new KMLGenerator();
+
+        for ( int i = 0; i < result.size(); i++ )
+        {
+            Dispatcher.Assignment a = result.get( i );
+
+            if ( a.hasTaxi() )
+            {
+                kml.generatePathKML( args[3] + "_" + ( i + 1 ), "Routes", a.getRoutes(), a.getClient(), dispatcher.getFleet() );
+                System.out.println( "Client " + ( i + 1 ) + ": taxi " + a.getTaxi().getOptionalName() + ", cost " + a.getCost() );
+            }
+            else
+            {
+                System.out.println( "Client " + ( i + 1 ) + ": no path found!" );
+            }
+        }
+        System.out.println( "Done. Result in /Routes/ folder." );
+    }
+
+    private static void runConvert( String[] args )
+    {
+        try
+        {
+            long start = System.nanoTime();
+            Map  map   = new Map( Paths.get( currentWorkingDirectory, args[0] ) );
+
+            MapSnapshot.save( map, Paths.get( currentWorkingDirectory, args[1] ) );
+            System.out.println( "Done. " + map.getAllNodes().size() + " nodes, " + map.getRoads().size() + " roads converted in "
+                                + ( System.nanoTime() - start ) / 1000000 + " ms." );
+        }
+        catch ( IOException e )
+        {
+            System.out.println( "Error. Cannot convert map nodes: " + e.getMessage() );
+        }
+    }
+
+    /**
+     * @param path: relative path to a map nodes csv file (streamed, header row skipped) or a map snapshot
+     * @return map without start and goals
+     * @throws IOException
+     */
+    private static Map loadMap( String path ) throws IOException
+    {
+        Path file = Paths.get( currentWorkingDirectory, path );
+
+        return MapSnapshot.isSnapshot( file ) ? MapSnapshot.load( file ) : new Map( file );
+    }
+
+    /**
+     * @param positions
+     * @return nodes of positions, virtual nodes at the snapped points
+     */
+    private static List<Node> nodes( List<RoadPosition> positions )
+    {
+        List<Node> result = new ArrayList<Node>( positions.size() );
+        for ( RoadPosition p : positions )
+        {
+            result.add( p.getNode() );
+        }
+        return result;
+    }
+
+    /**
+     * @param args
+     * @param index: position of the optional turn restrictions file in args
+     * @param map
+     * @return turn costs of map, null if args end before index
+     * @throws IOException
+     */
+    private static TurnCosts loadTurns( String[] args, int index, Map map ) throws IOException
+    {
+        return args.length > index ? TurnCosts.load( Paths.get( currentWorkingDirectory, args[index] ), map ) : null;
+    }
 }
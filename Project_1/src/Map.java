@@ -6,71 +6,243 @@
  *
  */
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
 import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraph;
 import com.google.common.graph.ValueGraphBuilder;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Map
 {
-    private List<Road> roads;
-    private List<Node> allNodes;
-    private List<Node> goals;
-    private Node       start;
+    private List<Road>               roads;           // derived on demand for snapshots
+    private final List<Node>         allNodes;
+    private final List<RoadPosition> goals;
+    private final RoadPosition       start;
 
-    private MutableValueGraph<Node, Double> graph;
+    private final Map                network;         // map owning the road network, this for base maps
+    private ValueGraph<Node, Double> graph;           // builder side graph, derived on demand for snapshots
+    private final CompactGraph       compactGraph;
 
-    private SearchTree searchTree;
+    private final SearchTree            searchTree;
+    private SegmentIndex                segmentIndex;     // created on first use
+    private final MapSnapshot.RoadTable snapshotRoads;    // roads of a mapped snapshot, null for other maps
 
     public Map( String[] start, List<String[]> goals, List<String[]> dataPoints )
     {
-        Tuple<List<Node>, List<Road>> result = createMapNodes( dataPoints );
-        this.allNodes = result.getFirst();
-        this.roads = result.getSecond();
+        this( new Map( dataPoints ), start, goals );
+    }
+
+    /**
+     * @param start:     String [longitude, latitude]
+     * @param goals:     String [longitude, latitude, roadName]
+     * @param nodesFile: map nodes csv file, streamed by {@link NodeFileReader}
+     * @throws IOException
+     */
+    public Map( String[] start, List<String[]> goals, Path nodesFile ) throws IOException
+    {
+        this( new Map( nodesFile ), start, goals );
+    }
+
+    /**
+     * Shares the (read only) road network of another map. Start and goals
+     * are snapped to the nearest road segments.
+     */
+    private Map( Map network, String[] start, List<String[]> goals )
+    {
+        this.allNodes = network.allNodes;
+        this.network = network.network;
+        this.compactGraph = network.compactGraph;
+        this.searchTree = network.searchTree;
+        this.snapshotRoads = null;
+
+        this.start = locateClientOnRoad( start );
+        this.goals = locateTaxisOnRoad( goals );
+    }
+
+    /**
+     * Creates a map without start and goal, e.g. to route many requests
+     * via {@link #locateClient(String[])} and {@link #locateTaxis(List)}.
+     *
+     * @param dataPoints String [longitude, latitude, roadName(, name, oneway)], see {@link Road.Direction#parse(String)}
+     */
+    public Map( List<String[]> dataPoints )
+    {
+        this( createMapNodes( dataPoints ) );
+    }
+
+    /**
+     * Creates a map without start and goal from a node file, without
+     * holding its rows in memory.
+     *
+     * @param nodesFile: map nodes csv file [longitude, latitude, roadName, name, oneway]
+     * @throws IOException
+     */
+    public Map( Path nodesFile ) throws IOException
+    {
+        this( readMapNodes( nodesFile ) );
+    }
 
-        this.searchTree = new SearchTree();
+    private Map( Tuple<List<Node>, List<Road>> result )
+    {
+        this.allNodes = Collections.unmodifiableList( result.getFirst() );
+        this.roads = Collections.unmodifiableList( result.getSecond() );
+        this.start = null;
+        this.goals = Collections.emptyList();
+        this.snapshotRoads = null;
+
+        Projection projection = Projection.of( this.allNodes );
+
+        this.searchTree = new SearchTree( projection );
         searchTree.createSearchTree( this.allNodes );    // populate search tree with map nodes
 
-        this.start = findStartNode( start, searchTree );
-        this.goals = findGoalNodes( goals, searchTree );
+        this.network = this;
+        this.graph = createMap( this.allNodes, this.roads, projection );
+        this.compactGraph = CompactGraph.freeze( this.graph, this.allNodes, projection );    // query side graph
+    }
 
-        this.graph = createMap( this.allNodes, this.roads );
+    /**
+     * Creates a map without start and goal from an already connected
+     * network, e.g. a snapshot.
+     *
+     * @param allNodes:     position equals node index
+     * @param roads
+     * @param compactGraph: graph over allNodes
+     * @param searchTree:   spatial index over allNodes, null to create it
+     */
+    Map( List<Node> allNodes, List<Road> roads, CompactGraph compactGraph, SearchTree searchTree )
+    {
+        this.allNodes = Collections.unmodifiableList( allNodes );
+        this.roads = Collections.unmodifiableList( roads );
+        this.start = null;
+        this.goals = Collections.emptyList();
+        this.network = this;
+        this.compactGraph = compactGraph;
+        this.snapshotRoads = null;
+
+        if ( searchTree == null )
+        {
+            searchTree = new SearchTree( compactGraph.getProjection() );
+            searchTree.createSearchTree( this.allNodes );    // populate search tree with map nodes
+        }
+        this.searchTree = searchTree;
+    }
+
+    /**
+     * Creates a map without start and goal over a mapped snapshot. Nodes
+     * are created on first use, roads get their nodes on first
+     * {@link #getRoads()}.
+     *
+     * @param compactGraph: graph over views of the snapshot
+     * @param searchTree:   spatial index over the nodes of compactGraph
+     * @param roads:        roads of the snapshot
+     */
+    Map( CompactGraph compactGraph, SearchTree searchTree, MapSnapshot.RoadTable roads )
+    {
+        this.allNodes = Collections.unmodifiableList( compactGraph.getNodes() );
+        this.start = null;
+        this.goals = Collections.emptyList();
+        this.network = this;
+        this.compactGraph = compactGraph;
+        this.searchTree = searchTree;
+        this.snapshotRoads = roads;
+    }
+
+    /**
+     * Finds nearest node on map to a client position without changing
+     * the start of this map. Queries snap to the road instead, see
+     * {@link #locateClientOnRoad(String[])}; node positions are for
+     * searches between map nodes only, e.g. to compare search variants.
+     *
+     * @param client: String [longitude, latitude]
+     * @return client node on map
+     */
+    public Node locateClient( String[] client )
+    {
+        return findStartNode( client, this.searchTree );
+    }
+
+    /**
+     * Finds nearest nodes on map for taxi positions without changing the
+     * goals of this map, see {@link #locateClient(String[])}.
+     *
+     * @param taxis: String [longitude, latitude, roadName]
+     * @return List of taxi nodes on the map
+     */
+    public List<Node> locateTaxis( List<String[]> taxis )
+    {
+        return findGoalNodes( taxis, this.searchTree );
+    }
+
+    /**
+     * Snaps a client position to the nearest road segment, so the search
+     * starts between the ends of the segment instead of at the nearest
+     * node, which can be far away on sparse road geometry.
+     *
+     * @param client: String [longitude, latitude]
+     * @return client position on the road
+     */
+    public RoadPosition locateClientOnRoad( String[] client )
+    {
+        return snapToRoad( client ).withOptionalName( "Client" );
+    }
+
+    /**
+     * Snaps taxi positions to the nearest road segments.
+     *
+     * @param taxis: String [longitude, latitude, roadName]
+     * @return List of taxi positions on the road
+     */
+    public List<RoadPosition> locateTaxisOnRoad( List<String[]> taxis )
+    {
+        List<RoadPosition> result = new ArrayList<RoadPosition>( taxis.size() );
+        for ( String[] s : taxis )
+        {
+            result.add( snapToRoad( s ).withOptionalName( s[2] ) );    // add taxi number
+        }
+        return result;
+    }
+
+    private RoadPosition snapToRoad( String[] position )
+    {
+        RoadPosition result = getSegmentIndex().snap( Double.parseDouble( position[1] ), Double.parseDouble( position[0] ) );
+
+        // maps without any road segment
+        if ( result == null )
+            result = RoadPosition.of( this.allNodes.get( this.searchTree.nearest( Double.parseDouble( position[1] ), Double.parseDouble( position[0] ) ) ) );
+        return result;
     }
 
     /**
      * Finds nearest node on map to provided start position.
      *
-     * @param start:     String [latitude, longitude]
+     * @param start:     String [longitude, latitude]
      * @param searchTree
      * @return start node on map
      */
     private Node findStartNode( String[] start, SearchTree searchTree )
     {
-        Node node   = new Node( new Point( Double.valueOf( start[1] ), Double.valueOf( start[0] ) ), "" );
-        Node result = searchTree.search( node, 1, this.allNodes ).get( 0 );
-        result.setOptionalName( "Client" );
-        return result;
+        int nearest = searchTree.nearest( Double.parseDouble( start[1] ), Double.parseDouble( start[0] ) );
+        return this.allNodes.get( nearest ).withOptionalName( "Client" );
     }
 
     /**
      * Finds nearest node on map for the provided goal positions
      *
-     * @param goals:     String [latitude, longitude, roadName]
+     * @param goals:     String [longitude, latitude, roadName]
      * @param searchTree
      * @return List of goal nodes on the map
      */
     private List<Node> findGoalNodes( List<String[]> goals, SearchTree searchTree )
     {
-        List<Node> result = new ArrayList<Node>();
+        List<Node> result = new ArrayList<Node>( goals.size() );
         for ( String[] s : goals )
         {
-            Node node  = new Node( new Point( Double.valueOf( s[1] ), Double.valueOf( s[0] ) ), s[2] );
-            Node match = searchTree.search( node, 1, this.allNodes ).get( 0 );
-            match.setOptionalName( node.getRoadId() );              // add taxi number
-            result.add( match );
+            int nearest = searchTree.nearest( Double.parseDouble( s[1] ), Double.parseDouble( s[0] ) );
+            result.add( this.allNodes.get( nearest ).withOptionalName( s[2] ) );    // add taxi number
         }
         return result;
     }
@@ -79,52 +251,50 @@ public class Map
      * Creates Nodes for all data points and adds them to
      * their corresponding roads.
      *
-     * @param dataPoints String [latitude, longitude, roadName]
+     * @param dataPoints String [longitude, latitude, roadName(, name, oneway)]
      * @return Tuple [allNodes, allRoads]
      */
-    private Tuple<List<Node>, List<Road>> createMapNodes( List<String[]> dataPoints )
+    private static Tuple<List<Node>, List<Road>> createMapNodes( List<String[]> dataPoints )
     {
-        List<Node> allNodes = new ArrayList<Node>();
-        List<Road> roads    = new ArrayList<Road>();
-
-        Road currentRoad = new Road( dataPoints.get( 0 )[2] );
+        RoadBuilder builder = new RoadBuilder();
 
         for ( String[] item : dataPoints )
         {
-            Point newPoint = new Point( Double.parseDouble( item[1] ), Double.parseDouble( item[0] ) );
-            Node  newNode  = new Node( newPoint, currentRoad.getId() );
+            Road.Direction direction = item.length > 4 ? Road.Direction.parse( item[4] ) : Road.Direction.both;
 
-            allNodes.add( newNode );
-
-            // item[2] is never empty -> skip in first iteration
-            if ( item[2].equals( currentRoad.getName() ) )
-            {
+            builder.row( Double.parseDouble( item[0] ), Double.parseDouble( item[1] ), item[2], direction );
+        }
+        return builder.getResult();
+    }
 
-                currentRoad.appendNode( newNode );
-                //Road.getAllRoads().get( Road.getAllRoads().size() - 1 ).appendNode( newNode );
-            }
-            else
-            {
-                roads.add( currentRoad );
+    /**
+     * Streams the rows of a node file into nodes and roads.
+     *
+     * @param nodesFile
+     * @return Tuple [allNodes, allRoads]
+     * @throws IOException
+     */
+    private static Tuple<List<Node>, List<Road>> readMapNodes( Path nodesFile ) throws IOException
+    {
+        RoadBuilder builder = new RoadBuilder();
 
-                // create next road
-                currentRoad = new Road( item[2] );
-                currentRoad.appendNode( newNode );
-            }
-        }
-        return new Tuple<List<Node>, List<Road>>( allNodes, roads );
+        NodeFileReader.read( nodesFile, builder );
+        return builder.getResult();
     }
 
     /**
-     * Creates a map with all roads connected
+     * Creates a map with all roads connected. Crossing roads share the
+     * node of their common point (see {@link RoadBuilder}), so no links
+     * between crossing roads are needed.
      *
      * @param allNodes
      * @param roads
-     * @return undirected graph
+     * @param projection: edge costs are distances in meters of this projection
+     * @return directed graph, one arc per driving direction of a road segment
      */
-    private MutableValueGraph<Node, Double> createMap( List<Node> allNodes, List<Road> roads )
+    private MutableValueGraph<Node, Double> createMap( List<Node> allNodes, List<Road> roads, Projection projection )
     {
-        MutableValueGraph<Node, Double> g = ValueGraphBuilder.undirected().build();
+        MutableValueGraph<Node, Double> g = ValueGraphBuilder.directed().expectedNodeCount( allNodes.size() ).build();
 
         for ( Road r : roads )
         {
@@ -133,95 +303,137 @@ public class Map
             {
                 Node   a    = r.getNodes().get( i );
                 Node   b    = r.getNodes().get( i + 1 );
-                double cost = Road.getCostBetweenNodes( a, b );
-
-                g.putEdgeValue( a, b, cost );
+                double cost = Road.getCostBetweenNodes( a, b, projection );
+
+                g.addNode( a );
+                g.addNode( b );
+                if ( r.allows( i, i + 1 ) )
+                    g.putEdgeValue( a, b, cost );
+                if ( r.allows( i + 1, i ) )
+                    g.putEdgeValue( b, a, cost );
             }
         }
-        // add crossings
-        ListMultimap<Point, Node> map = ArrayListMultimap.create( this.allNodes.size(), 10 );
-        for ( Node n : allNodes )
-        {
-            map.put( n.getPoint(), n );
-        }
-        for ( Point p : map.keySet() )
-        {
-            List<Node> crossing = map.get( p );
+        return g;
+    }
 
-            if ( crossing.size() > 1 )
+    /**
+     * Creates a map for a different search. The road network is shared,
+     * this map is left unchanged.
+     *
+     * @param start: String [longitude, latitude]
+     * @param goals: String [longitude, latitude, roadName]
+     * @return map with the new start and goal nodes
+     */
+    public Map withStartAndGoal( String[] start, List<String[]> goals )
+    {
+        return new Map( this, start, goals );
+    }
+
+    /**
+     * Groups consecutive rows of the same road name into roads and creates
+     * a node per distinct point, in one pass: rows at a point seen before
+     * (roads crossing there) reuse its node, so the node belongs to every
+     * road through the point. Points are compared within a tolerance, see
+     * {@link PointTable}.
+     */
+    private static class RoadBuilder implements NodeFileReader.RowHandler
+    {
+        private final List<Node> allNodes = new ArrayList<Node>();
+        private final List<Road> roads    = new ArrayList<Road>();
+        private final PointTable points   = new PointTable();
+        private Road             currentRoad;
+
+        /**
+         * The direction of a road is taken from its first row.
+         */
+        @Override
+        public void row( double longitude, double latitude, String roadName, Road.Direction direction )
+        {
+            if ( this.currentRoad == null || !roadName.equals( this.currentRoad.getName() ) )
             {
-                Node n = crossing.get( 0 );
+                this.currentRoad = new Road( roadName, direction );
+                this.roads.add( this.currentRoad );
+            }
 
-                for ( int i = 1; i < crossing.size(); i++ )
-                {
-                    Node   nextNode = crossing.get( i );
-                    double cost     = Road.getCostBetweenNodes( n, nextNode );
-                    g.putEdgeValue( n, nextNode, cost );
-                }
+            int        index = this.points.intern( latitude, longitude, this.allNodes.size() );
+            List<Node> nodes = this.currentRoad.getNodes();
 
+            if ( index == this.allNodes.size() )
+                this.allNodes.add( new Node( new Point( latitude, longitude ), this.currentRoad.getId(), index ) );
 
-                // testing
-                /*
-                for( Node a : crossing )
-                {
-                    for( Node b : crossing )
-                    {
-                        if( !a.equals( b ) )
-                        {
-                            double cost = Road.getCostBetweenNodes( a, b );
-                            g.putEdgeValue( a, b, cost );
-                        }
-                    }
-                }
-                */
-            }
+            // repeated rows of a point do not form a segment
+            if ( nodes.isEmpty() || nodes.get( nodes.size() - 1 ).getIndex() != index )
+                this.currentRoad.appendNode( this.allNodes.get( index ) );
+        }
 
+        public Tuple<List<Node>, List<Road>> getResult()
+        {
+            return new Tuple<List<Node>, List<Road>>( this.allNodes, this.roads );
         }
+    }
 
-        return g;
+    public List<Node>               getAllNodes()     { return this.allNodes; }
+    public List<RoadPosition>       getGoals()        { return this.goals; }
+    public RoadPosition             getStart()        { return this.start; }
+    public CompactGraph             getCompactGraph() { return this.compactGraph; }
+    public SearchTree               getSearchTree()   { return this.searchTree; }
+
+    /**
+     * @return segment grid of the road network, created on first use
+     */
+    public SegmentIndex getSegmentIndex()
+    {
+        return this.network.buildSegmentIndex();
     }
 
-    private void findCrossings()
+    private synchronized SegmentIndex buildSegmentIndex()
     {
-        ListMultimap<Point, Node> map = ArrayListMultimap.create( this.allNodes.size(), 10 );
+        if ( this.segmentIndex == null )
+            this.segmentIndex = new SegmentIndex( this.compactGraph );
+        return this.segmentIndex;
+    }
 
-        for ( Node n : this.allNodes )
-        {
-            map.put( n.getPoint(), n );
-        }
+    /**
+     * @return roads of the network; maps over a mapped snapshot append
+     *         their nodes on first use
+     */
+    public List<Road> getRoads()
+    {
+        return this.network.buildRoads();
+    }
 
-        for ( Point p : map.keySet() )
-        {
-            List<Node> crossing = map.get( p );
+    private synchronized List<Road> buildRoads()
+    {
+        if ( this.roads == null )
+            this.roads = Collections.unmodifiableList( this.snapshotRoads.createRoads( this.compactGraph ) );
+        return this.roads;
+    }
 
-            int inner = crossing.size() - 1;
-            int outer = inner - 1;
+    /**
+     * @return builder side graph; maps loaded from a snapshot create it
+     *         from the compact graph on first use
+     */
+    public ValueGraph<Node, Double> getGraph()
+    {
+        return this.network.buildGraph();
+    }
 
-            for ( int i = 0; i < outer; i++ )
+    private synchronized ValueGraph<Node, Double> buildGraph()
+    {
+        if ( this.graph == null )
+        {
+            MutableValueGraph<Node, Double> g = ValueGraphBuilder.directed().build();
+
+            for ( int v = 0; v < this.compactGraph.getNodeCount(); v++ )
             {
-                for ( int j = i + 1; j < inner; j++ )
+                for ( int arc = this.compactGraph.firstArc( v ); arc < this.compactGraph.endArc( v ); arc++ )
                 {
-                    crossing.get( i ).getRoadId().substring( 1 );
+                    g.putEdgeValue( this.compactGraph.getNode( v ), this.compactGraph.getNode( this.compactGraph.getTarget( arc ) ),
+                                    this.compactGraph.getWeight( arc ) );
                 }
             }
+            this.graph = g;
         }
+        return this.graph;
     }
-
-    /**
-     * Updates start and goal nodes for different search
-     *
-     * @param start: String [latitude, longitude]
-     * @param goals: String [latitude, longitude, roadName]
-     */
-    public void changeStartAndGoal( String[] start, List<String[]> goals )
-    {
-        this.start = findStartNode( start, this.searchTree );
-        this.goals = findGoalNodes( goals, this.searchTree );
-    }
-
-    public List<Road> getRoads()                      { return this.roads; }
-    public List<Node> getAllNodes()                   { return this.allNodes; }
-    public List<Node> getGoals()                      { return this.goals; }
-    public Node       getStart()                      { return this.start; }
-    public MutableValueGraph<Node, Double> getGraph() { return this.graph; }
 }
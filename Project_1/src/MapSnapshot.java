@@ -0,0 +1,441 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary snapshot of a road network, so a map is loaded without parsing
+ * and connecting the node file again. Layout (little endian), chosen so
+ * every array is aligned to its element size:
+ *
+ *   int    magic, version, nodeCount, arcCount, roadCount, nameBytes
+ *   int    flags, reserved                             SYMMETRIC, CROSSING_LINKS of the compact graph
+ *   double referenceLatitude                           of the projection
+ *   double longitude[nodeCount], latitude[nodeCount]
+ *   double x[nodeCount], y[nodeCount]                  projected coordinates
+ *   double treeY[nodeCount], treeX[nodeCount]          projected coordinates per search tree slot
+ *   double weight[arcCount]                            meters
+ *   int    offset[nodeCount + 1], target[arcCount]     compact graph
+ *   int    source[arcCount]
+ *   int    inOffset[nodeCount + 1], inArc[arcCount]    incoming arcs
+ *   int    order[nodeCount]                            search tree, node index per slot
+ *   int    nodeRoad[nodeCount]                         first road through each node
+ *   int    roadFirst[roadCount + 1]                    nodes of road r: roadNode[roadFirst[r] .. roadFirst[r + 1])
+ *   int    roadNode[roadFirst[roadCount]]              node indices in road order
+ *   int    nameOffset[roadCount + 1]
+ *   byte   names[nameBytes]                            road names, UTF-8
+ *   byte   direction[roadCount]                        Road.Direction ordinal
+ *
+ * Since version 6 a snapshot holds everything the compact graph and the
+ * search tree derive, so a load maps the file and reads it in place:
+ * nothing is copied, nodes are created on first use and the nodes of
+ * the roads on first {@link Map#getRoads()}. Older versions are read
+ * into memory and the graph is derived from them. Their layout is the
+ * part from weight on without the derived arrays, with these changes:
+ * weights were in degrees before version 3, version 1 had no search
+ * tree, version 4 added the road directions, and before version 5 there
+ * was no roadNode array because roads covered consecutive node indices.
+ */
+public class MapSnapshot
+{
+    private static final int MAGIC   = 0x4d415031;    // "MAP1"
+    private static final int VERSION = 6;
+
+    private static final int SYMMETRIC      = 1;
+    private static final int CROSSING_LINKS = 2;
+
+    private MapSnapshot()
+    { }
+
+    /**
+     * Writes the road network of a map.
+     *
+     * @param map
+     * @param file
+     * @throws IOException
+     */
+    public static void save( Map map, Path file ) throws IOException
+    {
+        CompactGraph g          = map.getCompactGraph();
+        List<Road>   roads      = map.getRoads();
+        IntBuffer    order      = map.getSearchTree().getOrder();
+        int          n          = g.getNodeCount();
+        int          m          = g.getArcCount();
+        byte         names[][]  = new byte[roads.size()][];
+        int          nodeRoad[] = new int[n];
+        int          nameBytes  = 0;
+        int          roadNodes  = 0;
+
+        Arrays.fill( nodeRoad, -1 );
+        for ( int r = 0; r < roads.size(); r++ )
+        {
+            names[r] = roads.get( r ).getName().getBytes( StandardCharsets.UTF_8 );
+            nameBytes += names[r].length;
+            roadNodes += roads.get( r ).getNodes().size();
+
+            // a node belongs to the first road through it, like in a map read from a node file
+            for ( Node node : roads.get( r ).getNodes() )
+            {
+                if ( nodeRoad[node.getIndex()] < 0 )
+                    nodeRoad[node.getIndex()] = r;
+            }
+        }
+
+        long size = 40L + 8L * ( 6L * n + m ) + 4L * ( 2L * ( n + 1 ) + 3L * m + 2L * n + 2L * ( roads.size() + 1 ) + roadNodes )
+                + nameBytes + roads.size();
+
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            buffer.putInt( MAGIC ).putInt( VERSION ).putInt( n ).putInt( m ).putInt( roads.size() ).putInt( nameBytes );
+            buffer.putInt( ( g.isSymmetric() ? SYMMETRIC : 0 ) | ( g.hasCrossingLinks() ? CROSSING_LINKS : 0 ) ).putInt( 0 );
+            buffer.putDouble( g.getProjection().getReferenceLatitude() );
+
+            for ( int v = 0; v < n; v++ )
+                buffer.putDouble( g.getNode( v ).getPoint().getLongitude() );
+            for ( int v = 0; v < n; v++ )
+                buffer.putDouble( g.getNode( v ).getPoint().getLatitude() );
+            for ( int v = 0; v < n; v++ )
+                buffer.putDouble( g.getX( v ) );
+            for ( int v = 0; v < n; v++ )
+                buffer.putDouble( g.getY( v ) );
+            for ( int slot = 0; slot < n; slot++ )
+                buffer.putDouble( g.getY( order.get( slot ) ) );
+            for ( int slot = 0; slot < n; slot++ )
+                buffer.putDouble( g.getX( order.get( slot ) ) );
+            for ( int arc = 0; arc < m; arc++ )
+                buffer.putDouble( g.getWeight( arc ) );
+
+            for ( int v = 0; v < n; v++ )
+                buffer.putInt( g.firstArc( v ) );
+            buffer.putInt( m );
+            for ( int arc = 0; arc < m; arc++ )
+                buffer.putInt( g.getTarget( arc ) );
+            for ( int arc = 0; arc < m; arc++ )
+                buffer.putInt( g.getSource( arc ) );
+            for ( int v = 0; v < n; v++ )
+                buffer.putInt( g.firstInArc( v ) );
+            buffer.putInt( m );
+            for ( int i = 0; i < m; i++ )
+                buffer.putInt( g.getInArc( i ) );
+            for ( int slot = 0; slot < n; slot++ )
+                buffer.putInt( order.get( slot ) );
+            putInts( buffer, nodeRoad );
+
+            // crossing roads share nodes
+            int first = 0;
+            for ( Road r : roads )
+            {
+                buffer.putInt( first );
+                first += r.getNodes().size();
+            }
+            buffer.putInt( first );
+            for ( Road r : roads )
+            {
+                for ( Node node : r.getNodes() )
+                    buffer.putInt( node.getIndex() );
+            }
+
+            int offset = 0;
+            for ( byte name[] : names )
+            {
+                buffer.putInt( offset );
+                offset += name.length;
+            }
+            buffer.putInt( offset );
+
+            for ( byte name[] : names )
+                buffer.put( name );
+            for ( Road r : roads )
+                buffer.put( ( byte ) r.getDirection().ordinal() );
+            buffer.force();
+        }
+    }
+
+    /**
+     * @param file
+     * @return true if file starts like a snapshot
+     * @throws IOException
+     */
+    public static boolean isSnapshot( Path file ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            ByteBuffer magic = ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN );
+
+            return channel.size() >= 4 && channel.read( magic, 0 ) == 4 && magic.getInt( 0 ) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads a map written by {@link #save(Map, Path)}. The file is mapped
+     * read only, so concurrent loads share the page cache; the map of a
+     * current snapshot reads its arrays in place, see the class comment.
+     *
+     * @param file
+     * @return map without start and goals
+     * @throws IOException if the file is no snapshot of a known version
+     */
+    public static Map load( Path file ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            ByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            if ( buffer.getInt() != MAGIC )
+                throw new IOException( "Not a map snapshot: " + file );
+            int version = buffer.getInt();
+            if ( version < 1 || version > VERSION )
+                throw new IOException( "Unsupported map snapshot version " + version + ": " + file );
+
+            return version == VERSION ? view( buffer, file ) : copy( buffer, version, file );
+        }
+    }
+
+    /**
+     * @param buffer: current snapshot, positioned after the version
+     * @param file
+     * @return map over views of buffer
+     * @throws IOException if the file is truncated or inconsistent
+     */
+    private static Map view( ByteBuffer buffer, Path file ) throws IOException
+    {
+        int n         = buffer.getInt();
+        int m         = buffer.getInt();
+        int roadCount = buffer.getInt();
+        int nameBytes = buffer.getInt();
+        int flags     = buffer.getInt();
+        buffer.getInt();    // reserved
+
+        Projection projection = new Projection( buffer.getDouble() );
+
+        if ( buffer.remaining() < 8L * ( 6L * n + m ) + 4L * ( 2L * ( n + 1 ) + 3L * m + 2L * n + 2L * ( roadCount + 1 ) )
+                                 + nameBytes + roadCount )
+            throw new IOException( "Corrupt map snapshot: " + file );
+
+        DoubleBuffer longitude  = doubles( buffer, n );
+        DoubleBuffer latitude   = doubles( buffer, n );
+        DoubleBuffer x          = doubles( buffer, n );
+        DoubleBuffer y          = doubles( buffer, n );
+        DoubleBuffer treeY      = doubles( buffer, n );
+        DoubleBuffer treeX      = doubles( buffer, n );
+        DoubleBuffer weight     = doubles( buffer, m );
+        IntBuffer    offset     = ints( buffer, n + 1 );
+        IntBuffer    target     = ints( buffer, m );
+        IntBuffer    source     = ints( buffer, m );
+        IntBuffer    inOffset   = ints( buffer, n + 1 );
+        IntBuffer    inArc      = ints( buffer, m );
+        IntBuffer    order      = ints( buffer, n );
+        IntBuffer    nodeRoad   = ints( buffer, n );
+        IntBuffer    roadFirst  = ints( buffer, roadCount + 1 );
+        int          roadNodes  = roadFirst.get( roadCount );
+
+        if ( offset.get( n ) != m || inOffset.get( n ) != m || roadNodes < 0
+             || buffer.remaining() != 4L * ( roadNodes + roadCount + 1 ) + nameBytes + roadCount )
+            throw new IOException( "Corrupt map snapshot: " + file );
+
+        IntBuffer roadNode   = ints( buffer, roadNodes );
+        IntBuffer nameOffset = ints( buffer, roadCount + 1 );
+        byte      names[]    = new byte[nameBytes];
+        buffer.get( names );
+
+        List<Road> roads = new ArrayList<Road>( roadCount );
+        for ( int r = 0; r < roadCount; r++ )
+        {
+            roads.add( new Road( new String( names, nameOffset.get( r ), nameOffset.get( r + 1 ) - nameOffset.get( r ), StandardCharsets.UTF_8 ),
+                                 Road.Direction.values()[buffer.get()] ) );
+        }
+
+        CompactGraph g = new CompactGraph( offset, target, weight, source, inOffset, inArc, x, y, ( flags & SYMMETRIC ) != 0,
+                                           ( flags & CROSSING_LINKS ) != 0, projection,
+                                           v -> new Node( new Point( latitude.get( v ), longitude.get( v ) ), roads.get( nodeRoad.get( v ) ).getId(), v ) );
+
+        return new Map( g, new SearchTree( order, treeY, treeX, projection ), new RoadTable( roads, roadFirst, roadNode ) );
+    }
+
+    /**
+     * @param buffer:  snapshot before version 6, positioned after the version
+     * @param version
+     * @param file
+     * @return map over copies of the arrays in buffer
+     * @throws IOException if the file is inconsistent
+     */
+    private static Map copy( ByteBuffer buffer, int version, Path file ) throws IOException
+    {
+        int n         = buffer.getInt();
+        int m         = buffer.getInt();
+        int roadCount = buffer.getInt();
+        int nameBytes = buffer.getInt();
+
+        double longitude[]  = getDoubles( buffer, n );
+        double latitude[]   = getDoubles( buffer, n );
+        double weight[]     = getDoubles( buffer, m );
+        int    offset[]     = getInts( buffer, n + 1 );
+        int    target[]     = getInts( buffer, m );
+        int    order[]      = version >= 2 ? getInts( buffer, n ) : null;
+        int    roadFirst[]  = getInts( buffer, roadCount + 1 );
+        int    roadNode[]   = version >= 5 ? getInts( buffer, roadFirst[roadCount] ) : identity( n );
+        int    nameOffset[] = getInts( buffer, roadCount + 1 );
+        byte   names[]      = new byte[nameBytes];
+        buffer.get( names );
+
+        // roads of older snapshots are two-way
+        byte direction[] = new byte[roadCount];
+        if ( version >= 4 )
+            buffer.get( direction );
+
+        Node       nodes[] = new Node[n];
+        List<Road> roads   = new ArrayList<Road>( roadCount );
+
+        // a node belongs to the first road through it, like in a map read from a node file
+        for ( int r = 0; r < roadCount; r++ )
+        {
+            Road road = new Road( new String( names, nameOffset[r], nameOffset[r + 1] - nameOffset[r], StandardCharsets.UTF_8 ),
+                                  Road.Direction.values()[direction[r]] );
+
+            for ( int k = roadFirst[r]; k < roadFirst[r + 1]; k++ )
+            {
+                int v = roadNode[k];
+
+                if ( v < 0 || v >= n )
+                    throw new IOException( "Corrupt map snapshot: " + file );
+                if ( nodes[v] == null )
+                    nodes[v] = new Node( new Point( latitude[v], longitude[v] ), road.getId(), v );
+                road.appendNode( nodes[v] );
+            }
+            roads.add( road );
+        }
+
+        List<Node> allNodes = Arrays.asList( nodes );
+        if ( allNodes.contains( null ) )
+            throw new IOException( "Corrupt map snapshot: " + file );
+
+        Projection projection = Projection.of( allNodes );
+
+        // weights of older snapshots are in degrees
+        if ( version < 3 )
+        {
+            for ( int v = 0; v < n; v++ )
+            {
+                for ( int arc = offset[v]; arc < offset[v + 1]; arc++ )
+                    weight[arc] = Road.getCostBetweenNodes( allNodes.get( v ), allNodes.get( target[arc] ), projection );
+            }
+        }
+
+        // version 1 snapshots have no search tree, the map creates it
+        CompactGraph g = new CompactGraph( nodes, offset, target, weight, projection );
+        return new Map( allNodes, roads, g, order == null ? null : new SearchTree( order, g ) );
+    }
+
+    /**
+     * @return road nodes of snapshots before version 5: roads cover consecutive node indices
+     */
+    private static int[] identity( int n )
+    {
+        int values[] = new int[n];
+        for ( int v = 0; v < n; v++ )
+            values[v] = v;
+        return values;
+    }
+
+    private static void putInts( ByteBuffer buffer, int values[] )
+    {
+        buffer.asIntBuffer().put( values );
+        buffer.position( buffer.position() + 4 * values.length );
+    }
+
+    private static int[] getInts( ByteBuffer buffer, int count )
+    {
+        int values[] = new int[count];
+        buffer.asIntBuffer().get( values );
+        buffer.position( buffer.position() + 4 * count );
+        return values;
+    }
+
+    private static double[] getDoubles( ByteBuffer buffer, int count )
+    {
+        double values[] = new double[count];
+        buffer.asDoubleBuffer().get( values );
+        buffer.position( buffer.position() + 8 * count );
+        return values;
+    }
+
+    /**
+     * @return view of the next count ints of buffer
+     */
+    private static IntBuffer ints( ByteBuffer buffer, int count )
+    {
+        return slice( buffer, 4 * count ).asIntBuffer();
+    }
+
+    /**
+     * @return view of the next count doubles of buffer
+     */
+    private static DoubleBuffer doubles( ByteBuffer buffer, int count )
+    {
+        return slice( buffer, 8 * count ).asDoubleBuffer();
+    }
+
+    private static ByteBuffer slice( ByteBuffer buffer, int bytes )
+    {
+        ByteBuffer slice = buffer.slice().order( ByteOrder.LITTLE_ENDIAN );
+
+        slice.limit( bytes );
+        buffer.position( buffer.position() + bytes );
+        return slice;
+    }
+
+
+    /**
+     * Roads of a mapped snapshot. The roads exist from the load on, so
+     * nodes can name their road; their nodes are appended on first use.
+     */
+    static class RoadTable
+    {
+        private final List<Road> roads;
+        private final IntBuffer  roadFirst;
+        private final IntBuffer  roadNode;
+
+        RoadTable( List<Road> roads, IntBuffer roadFirst, IntBuffer roadNode )
+        {
+            this.roads = roads;
+            this.roadFirst = roadFirst;
+            this.roadNode = roadNode;
+        }
+
+        /**
+         * @param g: graph of the snapshot
+         * @return roads with their nodes, to be called once
+         */
+        List<Road> createRoads( CompactGraph g )
+        {
+            for ( int r = 0; r < this.roads.size(); r++ )
+            {
+                for ( int k = this.roadFirst.get( r ); k < this.roadFirst.get( r + 1 ); k++ )
+                    this.roads.get( r ).appendNode( g.getNode( this.roadNode.get( k ) ) );
+            }
+            return this.roads;
+        }
+    }
+}
@@ -6,21 +6,48 @@
  *
  */
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable map or query node. Labelled copies (see
+ * {@link #withOptionalName(String)}) keep the id and thus compare equal.
+ */
 public class Node
 {
-    static private int        counter  = 0;
+    static private final AtomicInteger counter = new AtomicInteger();
 
-    private String id;
-    private Point  point;
-    private String roadId;
-    private String optionalName;
+    private final String id;
+    private final Point  point;
+    private final String roadId;
+    private final String optionalName;
+    private final int    index;         // dense position in the owning map, -1 if not on a map
 
     public Node( Point point, String roadId )
     {
+        this( point, roadId, -1 );
+    }
+
+    public Node( Point point, String roadId, int index )
+    {
+        this( "n" + Node.counter.getAndIncrement(), point, roadId, null, index );
+    }
+
+    private Node( String id, Point point, String roadId, String optionalName, int index )
+    {
+        this.id = id;
         this.point = point;
         this.roadId = roadId;
-        this.id = "n" + counter;
-        Node.counter++;
+        this.optionalName = optionalName;
+        this.index = index;
+    }
+
+    /**
+     * @param name: e.g. "Client" or a taxi id
+     * @return copy of this node carrying the name
+     */
+    public Node withOptionalName( String name )
+    {
+        return new Node( this.id, this.point, this.roadId, name, this.index );
     }
 
     @Override
@@ -38,10 +65,16 @@ public class Node
         return res;
     }
 
+    @Override
+    public int hashCode()
+    {
+        return this.id.hashCode();
+    }
+
     public String getId()                        { return this.id; }
     public Point  getPoint()                     { return this.point; }
     public String getRoadId()                    { return this.roadId; }
     public String getOptionalName()              { return this.optionalName; }
-    public void   setOptionalName( String name ) { this.optionalName = name; }
+    public int    getIndex()                     { return this.index; }
 
 }
@@ -0,0 +1,247 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming reader for map node files (X,Y,id[,name[,oneway]] with a
+ * header row). The file is memory mapped window by window and the
+ * coordinates are parsed straight from the bytes, so no line or field
+ * strings are created. Only the road id is turned into a String, once per
+ * road. The oneway column is read as by {@link Road.Direction#parse(String)}.
+ */
+public class NodeFileReader
+{
+    private static final long WINDOW = 1L << 30;    // bytes mapped at a time
+
+    private static final double POWERS_OF_TEN[] = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Receives the rows of a node file in file order.
+     */
+    public interface RowHandler
+    {
+        /**
+         * @param longitude: X column
+         * @param latitude:  Y column
+         * @param roadId:    id column, the same instance for consecutive rows of one road
+         * @param direction: oneway column, {@link Road.Direction#both} if the row has none
+         */
+        void row( double longitude, double latitude, String roadId, Road.Direction direction );
+    }
+
+    private MappedByteBuffer buffer;
+    private byte             roadBytes[] = new byte[64];
+    private int              roadLength  = -1;
+    private String           road;
+
+    private NodeFileReader()
+    { }
+
+    /**
+     * Reads all rows of a node file, skipping the header row.
+     *
+     * @param file
+     * @param handler
+     * @throws IOException if the file cannot be read or a row is malformed
+     */
+    public static void read( Path file, RowHandler handler ) throws IOException
+    {
+        new NodeFileReader().readFile( file, handler );
+    }
+
+    private void readFile( Path file, RowHandler handler ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            long    size     = channel.size();
+            long    position = 0;
+            boolean header   = true;
+
+            while ( position < size )
+            {
+                long    length = Math.min( WINDOW, size - position );
+                boolean last   = position + length == size;
+
+                this.buffer = channel.map( FileChannel.MapMode.READ_ONLY, position, length );
+
+                int lineStart = 0;
+                for ( int i = 0; i < length; i++ )
+                {
+                    if ( this.buffer.get( i ) != '\n' )
+                        continue;
+
+                    if ( header )
+                        header = false;
+                    else
+                        parseLine( lineStart, i, handler, file );
+                    lineStart = i + 1;
+                }
+
+                if ( last )
+                {
+                    // last line without line break
+                    if ( lineStart < length && !header )
+                        parseLine( lineStart, ( int ) length, handler, file );
+                    break;
+                }
+                if ( lineStart == 0 )
+                    throw new IOException( "Line longer than " + WINDOW + " bytes in " + file );
+
+                // continue with the line cut off by the window end
+                position += lineStart;
+            }
+        }
+    }
+
+    /**
+     * Parses the line [start, end) and passes it to the handler.
+     * Blank lines are skipped.
+     */
+    private void parseLine( int start, int end, RowHandler handler, Path file ) throws IOException
+    {
+        if ( end > start && this.buffer.get( end - 1 ) == '\r' )
+            end--;
+        if ( end == start )
+            return;
+
+        int xEnd    = find( ',', start, end );
+        int yEnd    = find( ',', xEnd + 1, end );
+        int roadEnd = find( ',', yEnd + 1, end );
+        int nameEnd = roadEnd < end ? find( ',', roadEnd + 1, end ) : end;
+
+        if ( yEnd >= end )
+            throw new IOException( "Malformed row in " + file + ": " + text( start, end ) );
+
+        try
+        {
+            double         longitude = parseDouble( start, xEnd );
+            double         latitude  = parseDouble( xEnd + 1, yEnd );
+            Road.Direction direction = nameEnd < end ? direction( nameEnd + 1, find( ',', nameEnd + 1, end ) ) : Road.Direction.both;
+
+            handler.row( longitude, latitude, roadId( yEnd + 1, roadEnd ), direction );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // malformed number or oneway flag
+            throw new IOException( "Malformed row in " + file + ": " + text( start, end ), e );
+        }
+    }
+
+    /**
+     * @return direction of the oneway column [start, end); the common
+     *         flags are matched on the bytes
+     */
+    private Road.Direction direction( int start, int end )
+    {
+        if ( end == start )
+            return Road.Direction.both;
+        if ( end == start + 1 && this.buffer.get( start ) == '0' )
+            return Road.Direction.both;
+        if ( end == start + 1 && this.buffer.get( start ) == '1' )
+            return Road.Direction.forward;
+        return Road.Direction.parse( text( start, end ) );
+    }
+
+    private int find( char c, int from, int end )
+    {
+        while ( from < end && this.buffer.get( from ) != c )
+            from++;
+        return from;
+    }
+
+    /**
+     * @return road id of [start, end), the previous instance if it did not change
+     */
+    private String roadId( int start, int end )
+    {
+        int length = end - start;
+
+        if ( length == this.roadLength )
+        {
+            int i = 0;
+            while ( i < length && this.buffer.get( start + i ) == this.roadBytes[i] )
+                i++;
+            if ( i == length )
+                return this.road;
+        }
+
+        if ( this.roadBytes.length < length )
+            this.roadBytes = new byte[2 * length];
+        for ( int i = 0; i < length; i++ )
+            this.roadBytes[i] = this.buffer.get( start + i );
+
+        this.roadLength = length;
+        this.road = new String( this.roadBytes, 0, length, StandardCharsets.UTF_8 );
+        return this.road;
+    }
+
+    /**
+     * Parses a plain decimal number. Up to 15 significant digits the
+     * result is exact: both the digits and the power of ten are exact
+     * doubles, so one division rounds correctly. Other formats are left
+     * to Double.parseDouble.
+     */
+    private double parseDouble( int start, int end )
+    {
+        int     i        = start;
+        boolean negative = false;
+        long    digits   = 0;
+        int     count    = 0;    // significant digits
+        int     scale    = -1;   // digits after the point, -1 before the point
+        boolean empty    = true;
+
+        if ( i < end && ( this.buffer.get( i ) == '-' || this.buffer.get( i ) == '+' ) )
+            negative = this.buffer.get( i++ ) == '-';
+
+        for ( ; i < end; i++ )
+        {
+            byte b = this.buffer.get( i );
+
+            if ( b >= '0' && b <= '9' )
+            {
+                if ( count > 0 || b != '0' )
+                    count++;
+                digits = 10 * digits + ( b - '0' );
+                empty = false;
+                if ( scale >= 0 )
+                    scale++;
+            }
+            else if ( b == '.' && scale < 0 )
+            {
+                scale = 0;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        if ( i < end || empty || count > 15 || scale >= POWERS_OF_TEN.length )
+            return Double.parseDouble( text( start, end ).trim() );
+
+        double value = scale > 0 ? digits / POWERS_OF_TEN[scale] : digits;
+        return negative ? -value : value;
+    }
+
+    private String text( int start, int end )
+    {
+        byte bytes[] = new byte[end - start];
+        for ( int i = 0; i < bytes.length; i++ )
+            bytes[i] = this.buffer.get( start + i );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
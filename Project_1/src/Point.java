@@ -32,12 +32,11 @@ public class Point
 				&& ( this.longitude == other.getLongitude() );
 	}
 
+	// consistent with equals, both coordinates contribute separately
 	@Override
 	public int hashCode()
 	{
-		double res = this.longitude;
-		res = 31 * res * this.latitude;
-		return Double.valueOf( res ).hashCode();
+		return 31 * Double.hashCode( this.latitude ) + Double.hashCode( this.longitude );
 	}
 
 	public double getLongitude() { return this.longitude; }
@@ -0,0 +1,192 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from coordinates to node indices, used to
+ * intern the points of a node file while it is read. Points closer than
+ * half of 1e-7 degrees (about 5 mm) in both coordinates are equal, so rows
+ * of crossing roads that differ by floating point noise get the same
+ * node, also where the noise straddles a boundary of the fixed point grid.
+ * Points are hashed by their grid cell and kept in primitive arrays with
+ * linear probing; a lookup probes the cells its tolerance overlaps.
+ */
+public class PointTable
+{
+    private static final double SCALE     = 1e7;              // fixed point steps per degree
+    private static final double TOLERANCE = 0.5 / SCALE;      // largest difference of equal coordinates
+
+    private long   keys[];         // grid cell per slot
+    private double latitudes[];
+    private double longitudes[];
+    private int    values[];       // -1 for an empty slot
+    private int    size;
+
+    public PointTable()
+    {
+        this( 16 );
+    }
+
+    /**
+     * @param expected: number of points, to size the table
+     */
+    public PointTable( int expected )
+    {
+        int capacity = Integer.highestOneBit( Math.max( 2 * expected - 1, 15 ) ) << 1;
+
+        this.keys = new long[capacity];
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.values = new int[capacity];
+        Arrays.fill( this.values, -1 );
+    }
+
+    /**
+     * Equality within the tolerance is not transitive; a point joins the
+     * nearest point added before it, not points equal only to that one.
+     *
+     * @param latitude
+     * @param longitude
+     * @param index: value for a new point
+     * @return value of an equal point added before, index if the point is new
+     */
+    public int intern( double latitude, double longitude, int index )
+    {
+        int value = get( latitude, longitude );
+
+        if ( value >= 0 )
+            return value;
+
+        int slot = empty( cell( latitude, longitude ) );
+
+        this.keys[slot] = cell( latitude, longitude );
+        this.latitudes[slot] = latitude;
+        this.longitudes[slot] = longitude;
+        this.values[slot] = index;
+        if ( ++this.size > this.keys.length / 2 )
+            grow();
+        return index;
+    }
+
+    /**
+     * @param latitude
+     * @param longitude
+     * @return value of the nearest equal point, -1 if there is none
+     */
+    public int get( double latitude, double longitude )
+    {
+        long   latLow  = step( latitude - TOLERANCE );
+        long   latHigh = step( latitude + TOLERANCE );
+        long   lonLow  = step( longitude - TOLERANCE );
+        long   lonHigh = step( longitude + TOLERANCE );
+        int    mask    = this.keys.length - 1;
+        int    value   = -1;
+        double nearest = Double.POSITIVE_INFINITY;
+
+        for ( long i = latLow; i <= latHigh; i++ )
+        {
+            for ( long j = lonLow; j <= lonHigh; j++ )
+            {
+                long key = key( i, j );
+
+                // points of a cell share its probe sequence, up to the first empty slot
+                for ( int slot = hash( key ) & mask; this.values[slot] >= 0; slot = ( slot + 1 ) & mask )
+                {
+                    if ( this.keys[slot] != key )
+                        continue;
+
+                    double dLat = Math.abs( this.latitudes[slot] - latitude );
+                    double dLon = Math.abs( this.longitudes[slot] - longitude );
+
+                    if ( dLat <= TOLERANCE && dLon <= TOLERANCE && dLat + dLon < nearest )
+                    {
+                        nearest = dLat + dLon;
+                        value = this.values[slot];
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
+    public int size() { return this.size; }
+
+    /**
+     * @return first empty slot of the probe sequence of key
+     */
+    private int empty( long key )
+    {
+        int mask = this.keys.length - 1;
+        int slot = hash( key ) & mask;
+
+        while ( this.values[slot] >= 0 )
+            slot = ( slot + 1 ) & mask;
+        return slot;
+    }
+
+    private void grow()
+    {
+        long   keys[]       = this.keys;
+        double latitudes[]  = this.latitudes;
+        double longitudes[] = this.longitudes;
+        int    values[]     = this.values;
+
+        this.keys = new long[2 * keys.length];
+        this.latitudes = new double[2 * keys.length];
+        this.longitudes = new double[2 * keys.length];
+        this.values = new int[2 * values.length];
+        Arrays.fill( this.values, -1 );
+
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            if ( values[i] < 0 )
+                continue;
+
+            int slot = empty( keys[i] );
+            this.keys[slot] = keys[i];
+            this.latitudes[slot] = latitudes[i];
+            this.longitudes[slot] = longitudes[i];
+            this.values[slot] = values[i];
+        }
+    }
+
+    /**
+     * @return fixed point grid step below a coordinate
+     */
+    private static long step( double degrees )
+    {
+        return ( long ) Math.floor( degrees * SCALE );
+    }
+
+    private static long cell( double latitude, double longitude )
+    {
+        return key( step( latitude ), step( longitude ) );
+    }
+
+    /**
+     * @return latitude step in the high, longitude step in the low 32 bits
+     */
+    private static long key( long latitude, long longitude )
+    {
+        return latitude << 32 | ( longitude & 0xffffffffL );
+    }
+
+    /**
+     * Mixes all bits of the key into the low bits (finalizer of MurmurHash3).
+     */
+    private static int hash( long key )
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return ( int ) key;
+    }
+}
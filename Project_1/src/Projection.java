@@ -0,0 +1,77 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.List;
+
+/**
+ * Equirectangular projection of the map to a plane in meters, true to
+ * scale at the reference latitude. Edge weights are straight line
+ * distances in this plane, so the straight line distance between the
+ * projected coordinates of two nodes is a lower bound of every route
+ * between them and needs neither trig nor {@link Math#pow} per call.
+ */
+public class Projection
+{
+    public static final double EARTH_RADIUS      = 6371008.8;                          // mean radius in meters
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    private final double referenceLatitude;
+    private final double scaleX;            // meters per degree of longitude
+    private final double scaleY;            // meters per degree of latitude
+
+    /**
+     * @param referenceLatitude: latitude the projection is true to scale at
+     */
+    public Projection( double referenceLatitude )
+    {
+        this.referenceLatitude = referenceLatitude;
+        this.scaleX = METERS_PER_DEGREE * Math.cos( Math.toRadians( referenceLatitude ) );
+        this.scaleY = METERS_PER_DEGREE;
+    }
+
+    /**
+     * @param nodes: map nodes (may contain null)
+     * @return projection true to scale at the middle latitude of the nodes
+     */
+    public static Projection of( List<Node> nodes )
+    {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        for ( Node n : nodes )
+        {
+            if ( n == null )
+                continue;
+
+            min = Math.min( min, n.getPoint().getLatitude() );
+            max = Math.max( max, n.getPoint().getLatitude() );
+        }
+        return new Projection( min <= max ? ( min + max ) / 2 : 0 );
+    }
+
+    public double x( double longitude ) { return longitude * this.scaleX; }
+    public double y( double latitude )  { return latitude * this.scaleY; }
+
+    public double toLongitude( double x ) { return x / this.scaleX; }
+    public double toLatitude( double y )  { return y / this.scaleY; }
+
+    /**
+     * @param a
+     * @param b
+     * @return distance in meters
+     */
+    public double distance( Point a, Point b )
+    {
+        double dx = ( a.getLongitude() - b.getLongitude() ) * this.scaleX;
+        double dy = ( a.getLatitude() - b.getLatitude() ) * this.scaleY;
+
+        return Math.sqrt( dx * dx + dy * dy );
+    }
+
+    public double getReferenceLatitude() { return this.referenceLatitude; }
+}
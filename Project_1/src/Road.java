@@ -8,23 +8,67 @@
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class Road
 {
     private String id;
     private String name;
+    private Direction direction;
     private List<Node> nodes = new ArrayList<Node>();
 
-    static private List<Road> allRoads = new ArrayList<Road>();
-    static private int        counter  = 0;
+    static private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Driving direction of a road relative to the order of its nodes.
+     */
+    public enum Direction
+    {
+        both,          // two-way road
+        forward,       // one-way in node order
+        backward;      // one-way against node order
+
+        /**
+         * @param flag: oneway column of a node file; empty, 0 or no for two-way roads, 1, yes or
+         *              true for one-way roads in node order, -1 for one-way roads against it
+         * @return direction
+         * @throws IllegalArgumentException for other values
+         */
+        public static Direction parse( String flag )
+        {
+            switch ( flag.trim().toLowerCase() )
+            {
+                case "":
+                case "0":
+                case "no":
+                case "false":
+                    return both;
+
+                case "1":
+                case "yes":
+                case "true":
+                    return forward;
+
+                case "-1":
+                    return backward;
+
+                default:
+                    throw new IllegalArgumentException( "Unknown oneway flag: " + flag );
+            }
+        }
+    }
 
     public Road( String name )
+    {
+        this( name, Direction.both );
+    }
+
+    public Road( String name, Direction direction )
     {
         this.name = name;
-        this.id = "r" + counter;
-        Road.counter++;
-        Road.allRoads.add( this );
+        this.direction = direction;
+        this.id = "r" + Road.counter.getAndIncrement();
     }
 
     public void appendNode( Node node )
@@ -32,17 +76,28 @@ public class Road
         nodes.add( node );
     }
 
-    static public double getCostBetweenNodes( Node a, Node b )
+    /**
+     * @param a
+     * @param b
+     * @param projection
+     * @return distance between the nodes in meters
+     */
+    static public double getCostBetweenNodes( Node a, Node b, Projection projection )
     {
-        Point pa = a.getPoint();
-        Point pb = b.getPoint();
-        double dLongitude = pa.getLongitude() - pb.getLongitude();
-        double dLatitude = pa.getLatitude() - pb.getLatitude();
+        return projection.distance( a.getPoint(), b.getPoint() );
+    }
 
-        return Math.sqrt( Math.pow( dLongitude, 2.0 ) + Math.pow( dLatitude, 2.0 ) );
+    /**
+     * @return true if the road may be driven from the node at position i
+     *         of its node list to the node at position j
+     */
+    public boolean allows( int i, int j )
+    {
+        return this.direction == Direction.both || ( this.direction == Direction.forward ) == ( i < j );
     }
 
-    public String     getId()    { return this.id; }
-    public String     getName()  { return this.name; }
-    public List<Node> getNodes() { return this.nodes; }
+    public String     getId()        { return this.id; }
+    public String     getName()      { return this.name; }
+    public Direction  getDirection() { return this.direction; }
+    public List<Node> getNodes()     { return this.nodes; }
 }
@@ -0,0 +1,149 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+/**
+ * Position on a road segment from -> to, e.g. a client or taxi snapped to
+ * the nearest road. Positions between two map nodes are represented by a
+ * virtual node (index -1) at the projected point; the costs to both ends
+ * of the segment let searches start or end there. A position on a map
+ * node has from == to and no partial costs. On a one-way segment only the
+ * partial costs in its driving direction are finite, see
+ * {@link #getCostTo(int, CompactGraph)} and {@link #getCostFrom(int, CompactGraph)}.
+ */
+public class RoadPosition
+{
+    private final Node   node;
+    private final int    from;
+    private final int    to;
+    private final double fromCost;    // cost from the position to from
+    private final double toCost;      // cost from the position to to
+    private final double offRoad;     // distance of the located point to the road in meters
+
+    public RoadPosition( Node node, int from, int to, double fromCost, double toCost, double offRoad )
+    {
+        this.node = node;
+        this.from = from;
+        this.to = to;
+        this.fromCost = fromCost;
+        this.toCost = toCost;
+        this.offRoad = offRoad;
+    }
+
+    /**
+     * @param node: map node
+     * @return position on the node
+     */
+    public static RoadPosition of( Node node )
+    {
+        return new RoadPosition( node, node.getIndex(), node.getIndex(), 0, 0, 0 );
+    }
+
+    /**
+     * @param name
+     * @return same position with a labelled node
+     */
+    public RoadPosition withOptionalName( String name )
+    {
+        return new RoadPosition( this.node.withOptionalName( name ), this.from, this.to, this.fromCost, this.toCost, this.offRoad );
+    }
+
+    /**
+     * @return true if the position lies between two map nodes
+     */
+    public boolean isVirtual() { return this.node.getIndex() < 0; }
+
+    /**
+     * @param other
+     * @return true if both positions lie between the same two map nodes
+     */
+    public boolean isOnSameSegment( RoadPosition other )
+    {
+        boolean ends = ( this.from == other.from && this.to == other.to ) || ( this.from == other.to && this.to == other.from );
+
+        // partial costs of the same segment may differ in rounding
+        double length = this.fromCost + this.toCost;
+        return ends && isVirtual() && other.isVirtual() && Math.abs( length - other.fromCost - other.toCost ) <= 1e-9 * length;
+    }
+
+    /**
+     * Cost of driving from the position to an end of its segment.
+     *
+     * @param end: from or to
+     * @param g:   graph of the position
+     * @return partial cost, infinity if the segment is one-way towards the other end
+     */
+    public double getCostTo( int end, CompactGraph g )
+    {
+        return isDrivable( getOtherEnd( end ), end, g ) ? getCost( end ) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Cost of driving from an end of the segment to the position.
+     *
+     * @param end: from or to
+     * @param g:   graph of the position
+     * @return partial cost, infinity if the segment is one-way towards end
+     */
+    public double getCostFrom( int end, CompactGraph g )
+    {
+        return isDrivable( end, getOtherEnd( end ), g ) ? getCost( end ) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param target: position on the same segment
+     * @return end of the segment driven towards on the way to target
+     */
+    public int getHeadingTo( RoadPosition target )
+    {
+        double toTarget = target.from == this.from ? target.fromCost : target.toCost;    // cost from target to this.from
+
+        return toTarget < this.fromCost ? this.from : this.to;
+    }
+
+    /**
+     * @param target: position on the same segment
+     * @param g:      graph of the positions
+     * @return cost of driving along the segment to target, infinity against a one-way segment
+     */
+    public double getDirectCost( RoadPosition target, CompactGraph g )
+    {
+        double toTarget = target.from == this.from ? target.fromCost : target.toCost;
+        int    heading  = getHeadingTo( target );
+
+        return isDrivable( getOtherEnd( heading ), heading, g ) ? Math.abs( this.fromCost - toTarget ) : Double.POSITIVE_INFINITY;
+    }
+
+    private static boolean isDrivable( int from, int to, CompactGraph g )
+    {
+        return from == to || g.findArc( from, to ) >= 0;
+    }
+
+    /**
+     * @param end: from or to
+     * @return partial cost between the position and end, regardless of direction
+     */
+    public double getCost( int end ) { return end == this.from ? this.fromCost : this.toCost; }
+
+    /**
+     * @param end: from or to
+     * @return the other end of the segment
+     */
+    public int getOtherEnd( int end ) { return end == this.from ? this.to : this.from; }
+
+    /**
+     * @return index of the closer end of the segment
+     */
+    public int getNearestIndex() { return this.fromCost <= this.toCost ? this.from : this.to; }
+
+    public Node   getNode()     { return this.node; }
+    public int    getFrom()     { return this.from; }
+    public int    getTo()       { return this.to; }
+    public double getFromCost() { return this.fromCost; }
+    public double getToCost()   { return this.toCost; }
+    public double getOffRoad()  { return this.offRoad; }
+}
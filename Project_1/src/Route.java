@@ -0,0 +1,52 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.List;
+
+/**
+ * Result of a search engine: a path of map nodes and its cost.
+ */
+public class Route
+{
+    private final double     cost;
+    private final List<Node> path;
+    private final double     costs[];    // cost up to each node of path, null if unknown
+
+    public Route( double cost, List<Node> path )
+    {
+        this( cost, path, null );
+    }
+
+    /**
+     * @param cost
+     * @param path
+     * @param costs: cost from the start up to each node of path
+     */
+    public Route( double cost, List<Node> path, double costs[] )
+    {
+        this.cost = cost;
+        this.path = path;
+        this.costs = costs;
+    }
+
+    public double     getCost()   { return this.cost; }
+    public List<Node> getPath()   { return this.path; }
+    public Node       getStart()  { return this.path.get( 0 ); }
+    public Node       getTarget() { return this.path.get( this.path.size() - 1 ); }
+
+    /**
+     * @return true if {@link #getCost(int)} is available
+     */
+    public boolean hasCosts() { return this.costs != null; }
+
+    /**
+     * @param i: position in the path
+     * @return cost from the start up to node i
+     */
+    public double getCost( int i ) { return this.costs[i]; }
+}
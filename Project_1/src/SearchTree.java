@@ -6,61 +6,265 @@
  *
  */
 
-import java.util.ArrayList;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.List;
 
-// Simon D.Levy's KDTree implementation
-// https://home.wlu.edu/~levys/software/kd/
-import edu.wlu.cs.levy.CG.KDTree;
-
+/**
+ * Static 2d tree over the map nodes for nearest node queries. The tree
+ * is implicit: node indices are ordered so that the median of every
+ * range [lo, hi) is at (lo + hi) / 2, with all nodes of the lower half
+ * below it in the split coordinate (y on even, x on odd levels).
+ * Coordinates are projected to meters and kept in flat buffers in tree
+ * order, queries do not allocate. Nodes at the same point are all kept; ties are
+ * broken by the lower node index.
+ */
 public class SearchTree
 {
-    KDTree<String> tree = new KDTree<String>( 2 );
+    private final Projection projection;
+
+    private IntBuffer    node;     // node index per tree slot
+    private DoubleBuffer y;        // projected coordinates per tree slot
+    private DoubleBuffer x;
+
+    /**
+     * @param projection: projection of the map, distances are in its meters
+     */
+    SearchTree( Projection projection )
+    {
+        this.projection = projection;
+    }
+
+    /**
+     * Restores a tree from the order of {@link #getOrder()}.
+     *
+     * @param order: node index per tree slot
+     * @param g:     graph of the nodes, for their coordinates
+     */
+    SearchTree( int order[], CompactGraph g )
+    {
+        double y[] = new double[order.length];
+        double x[] = new double[order.length];
 
-    SearchTree()
-    { }
+        for ( int slot = 0; slot < order.length; slot++ )
+        {
+            y[slot] = g.getY( order[slot] );
+            x[slot] = g.getX( order[slot] );
+        }
+        this.projection = g.getProjection();
+        this.node = IntBuffer.wrap( order );
+        this.y = DoubleBuffer.wrap( y );
+        this.x = DoubleBuffer.wrap( x );
+    }
+
+    /**
+     * Tree over stored buffers, e.g. views of a mapped snapshot.
+     *
+     * @param order:      node index per tree slot
+     * @param y:          projected coordinates per tree slot
+     * @param x
+     * @param projection
+     */
+    SearchTree( IntBuffer order, DoubleBuffer y, DoubleBuffer x, Projection projection )
+    {
+        this.projection = projection;
+        this.node = order;
+        this.y = y;
+        this.x = x;
+    }
 
     public void createSearchTree( List<Node> nodes )
     {
-        for ( Node n : nodes )
+        int    n       = nodes.size();
+        int    order[] = new int[n];
+        double y[]     = new double[n];
+        double x[]     = new double[n];
+
+        for ( int i = 0; i < n; i++ )
         {
-            try
-            {
-                Point  p     = n.getPoint();
-                double key[] = { p.getLatitude(), p.getLongitude() };
+            Point p = nodes.get( i ).getPoint();
 
-                tree.insert( key, n.getId() );
-            }
-            catch ( Exception e )
+            order[i] = i;
+            y[i] = this.projection.y( p.getLatitude() );
+            x[i] = this.projection.x( p.getLongitude() );
+        }
+        build( order, 0, n, 0, y, x );
+
+        double slotY[] = new double[n];
+        double slotX[] = new double[n];
+
+        for ( int slot = 0; slot < n; slot++ )
+        {
+            slotY[slot] = y[order[slot]];
+            slotX[slot] = x[order[slot]];
+        }
+        this.node = IntBuffer.wrap( order );
+        this.y = DoubleBuffer.wrap( slotY );
+        this.x = DoubleBuffer.wrap( slotX );
+    }
+
+    /**
+     * Arranges order[lo, hi) around its median and recurses into both halves.
+     */
+    private static void build( int order[], int lo, int hi, int depth, double y[], double x[] )
+    {
+        if ( hi - lo < 2 )
+            return;
+
+        int      mid = ( lo + hi ) >>> 1;
+        double[] key = depth % 2 == 0 ? y : x;
+
+        select( order, lo, hi - 1, mid, key );
+        build( order, lo, mid, depth + 1, y, x );
+        build( order, mid + 1, hi, depth + 1, y, x );
+    }
+
+    /**
+     * Quickselect: moves the k-th smallest key of order[lo, hi] to k.
+     */
+    private static void select( int order[], int lo, int hi, int k, double key[] )
+    {
+        while ( lo < hi )
+        {
+            double pivot = key[order[( lo + hi ) >>> 1]];
+            int    i     = lo;
+            int    j     = hi;
+
+            while ( i <= j )
             {
-                // KDTree wont allow double entries. In this scenario
-                // this is ok, thus the exception is dropped
+                while ( key[order[i]] < pivot )
+                    i++;
+                while ( key[order[j]] > pivot )
+                    j--;
+                if ( i <= j )
+                {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
             }
+
+            if ( k <= j )
+                hi = j;
+            else if ( k >= i )
+                lo = i;
+            else
+                return;
         }
     }
 
-    public List<Node> search( Node node, int n, List<Node> allNodes )
+    /**
+     * @param latitude
+     * @param longitude
+     * @return index of the nearest node, -1 for an empty tree
+     */
+    public int nearest( double latitude, double longitude )
+    {
+        int slot = nearest( 0, this.node.limit(), 0, this.projection.y( latitude ), this.projection.x( longitude ), -1 );
+        return slot < 0 ? -1 : this.node.get( slot );
+    }
+
+    private int nearest( int lo, int hi, int depth, double y, double x, int best )
     {
-        List<Node> result      = new ArrayList<Node>();
-        double     searchKey[] = { node.getPoint().getLatitude(), node.getPoint().getLongitude() };
+        if ( lo >= hi )
+            return best;
 
-        try
+        int mid = ( lo + hi ) >>> 1;
+
+        if ( best < 0 || closer( mid, best, y, x ) )
+            best = mid;
+
+        double diff = depth % 2 == 0 ? y - this.y.get( mid ) : x - this.x.get( mid );
+
+        if ( diff < 0 )
         {
-            List<String> set = tree.nearest( searchKey, n );
-
-            allNodes.forEach( x ->
-                              {
-                                  if ( x.getId().equals( set.get( 0 ) ) )
-                                      result.add( x );
-                              }
-            );
+            best = nearest( lo, mid, depth + 1, y, x, best );
+            if ( diff * diff <= distance( best, y, x ) )
+                best = nearest( mid + 1, hi, depth + 1, y, x, best );
         }
-        catch ( Exception e )
+        else
         {
-            System.out.println( e );
+            best = nearest( mid + 1, hi, depth + 1, y, x, best );
+            if ( diff * diff <= distance( best, y, x ) )
+                best = nearest( lo, mid, depth + 1, y, x, best );
         }
+        return best;
+    }
 
-        return result;
+    /**
+     * Finds the k nearest nodes.
+     *
+     * @param latitude
+     * @param longitude
+     * @param k
+     * @param result:   receives the node indices, nearest first (length >= k)
+     * @param distance: receives the squared distances in meters (length >= k)
+     * @return number of nodes found, less than k only for small maps
+     */
+    public int nearest( double latitude, double longitude, int k, int result[], double distance[] )
+    {
+        return nearest( 0, this.node.limit(), 0, this.projection.y( latitude ), this.projection.x( longitude ), k, result, distance, 0 );
     }
 
+    private int nearest( int lo, int hi, int depth, double y, double x,
+                         int k, int result[], double distance[], int count )
+    {
+        if ( lo >= hi )
+            return count;
+
+        int    mid = ( lo + hi ) >>> 1;
+        double d   = distance( mid, y, x );
+
+        // insertion into the sorted result, ties ordered by node index
+        int i = count < k ? count : k;
+        while ( i > 0 && ( d < distance[i - 1] || ( d == distance[i - 1] && this.node.get( mid ) < result[i - 1] ) ) )
+        {
+            if ( i < k )
+            {
+                result[i] = result[i - 1];
+                distance[i] = distance[i - 1];
+            }
+            i--;
+        }
+        if ( i < k )
+        {
+            result[i] = this.node.get( mid );
+            distance[i] = d;
+            count = Math.min( count + 1, k );
+        }
+
+        double diff = depth % 2 == 0 ? y - this.y.get( mid ) : x - this.x.get( mid );
+        int    nearLo = diff < 0 ? lo : mid + 1;
+        int    nearHi = diff < 0 ? mid : hi;
+        int    farLo  = diff < 0 ? mid + 1 : lo;
+        int    farHi  = diff < 0 ? hi : mid;
+
+        count = nearest( nearLo, nearHi, depth + 1, y, x, k, result, distance, count );
+        if ( count < k || diff * diff <= distance[k - 1] )
+            count = nearest( farLo, farHi, depth + 1, y, x, k, result, distance, count );
+        return count;
+    }
+
+    private boolean closer( int slot, int best, double y, double x )
+    {
+        double d    = distance( slot, y, x );
+        double dMin = distance( best, y, x );
+
+        return d < dMin || ( d == dMin && this.node.get( slot ) < this.node.get( best ) );
+    }
+
+    private double distance( int slot, double y, double x )
+    {
+        double dY = this.y.get( slot ) - y;
+        double dX = this.x.get( slot ) - x;
+
+        return dY * dY + dX * dX;
+    }
+
+    /**
+     * @return node index per tree slot, e.g. to store the tree
+     */
+    IntBuffer getOrder() { return this.node.duplicate(); }
+
+    public int size() { return this.node.limit(); }
 }
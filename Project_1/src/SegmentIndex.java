@@ -0,0 +1,274 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the bounding boxes of the road segments of a compact
+ * graph, for snapping points to the nearest road instead of the nearest
+ * map node. Every road segment of positive length is one segment,
+ * whether two-way or one-way, registered in all cells its bounding box
+ * overlaps. Coordinates and distances are in meters of the projection of
+ * the graph.
+ */
+public class SegmentIndex
+{
+    private final CompactGraph graph;
+
+    private final int    segmentFrom[];
+    private final int    segmentTo[];
+    private final double segmentCost[];
+    private final double fromY[];           // projected segment coordinates, so queries do not visit nodes
+    private final double fromX[];
+    private final double toY[];
+    private final double toX[];
+
+    private final double minY;
+    private final double minX;
+    private final double cellSize;
+    private final int    rows;
+    private final int    columns;
+    private final int    cellFirst[];       // segments of cell c: cellSegment[cellFirst[c], cellFirst[c + 1])
+    private final int    cellSegment[];
+
+    public SegmentIndex( CompactGraph g )
+    {
+        int n     = g.getNodeCount();
+        int count = 0;
+
+        for ( int v = 0; v < n; v++ )
+        {
+            for ( int arc = g.firstArc( v ); arc < g.endArc( v ); arc++ )
+            {
+                if ( isSegment( g, v, arc ) )
+                    count++;
+            }
+        }
+
+        this.graph = g;
+        this.segmentFrom = new int[count];
+        this.segmentTo = new int[count];
+        this.segmentCost = new double[count];
+        this.fromY = new double[count];
+        this.fromX = new double[count];
+        this.toY = new double[count];
+        this.toX = new double[count];
+
+        double minY = Double.POSITIVE_INFINITY;
+        double minX = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        int    s    = 0;
+
+        for ( int v = 0; v < n; v++ )
+        {
+            if ( !g.hasNode( v ) )
+                continue;
+
+            minY = Math.min( minY, g.getY( v ) );
+            minX = Math.min( minX, g.getX( v ) );
+            maxY = Math.max( maxY, g.getY( v ) );
+            maxX = Math.max( maxX, g.getX( v ) );
+
+            for ( int arc = g.firstArc( v ); arc < g.endArc( v ); arc++ )
+            {
+                if ( isSegment( g, v, arc ) )
+                {
+                    this.segmentFrom[s] = v;
+                    this.segmentTo[s] = g.getTarget( arc );
+                    this.segmentCost[s] = g.getWeight( arc );
+                    this.fromY[s] = g.getY( v );
+                    this.fromX[s] = g.getX( v );
+                    this.toY[s] = g.getY( g.getTarget( arc ) );
+                    this.toX[s] = g.getX( g.getTarget( arc ) );
+                    s++;
+                }
+            }
+        }
+
+        // about two segments per cell
+        double width  = Math.max( maxX - minX, 1e-9 );
+        double height = Math.max( maxY - minY, 1e-9 );
+
+        this.minY = minY;
+        this.minX = minX;
+        this.cellSize = Math.max( Math.sqrt( width * height * 2 / Math.max( count, 1 ) ), 1e-9 );
+        this.columns = ( int ) Math.min( 1 << 14, width / this.cellSize + 1 );
+        this.rows = ( int ) Math.min( 1 << 14, height / this.cellSize + 1 );
+
+        // counting sort of ( cell, segment ) pairs
+        int cells[]  = null;
+        int cursor[] = null;
+
+        this.cellFirst = new int[this.rows * this.columns + 1];
+        for ( int pass = 0; pass < 2; pass++ )
+        {
+            for ( s = 0; s < count; s++ )
+            {
+                int column0 = column( Math.min( this.fromX[s], this.toX[s] ) );
+                int column1 = column( Math.max( this.fromX[s], this.toX[s] ) );
+                int row0    = row( Math.min( this.fromY[s], this.toY[s] ) );
+                int row1    = row( Math.max( this.fromY[s], this.toY[s] ) );
+
+                for ( int row = row0; row <= row1; row++ )
+                {
+                    for ( int column = column0; column <= column1; column++ )
+                    {
+                        int cell = row * this.columns + column;
+
+                        if ( pass == 0 )
+                            this.cellFirst[cell + 1]++;
+                        else
+                            cells[cursor[cell]++] = s;
+                    }
+                }
+            }
+
+            if ( pass == 0 )
+            {
+                for ( int c = 0; c < this.rows * this.columns; c++ )
+                    this.cellFirst[c + 1] += this.cellFirst[c];
+
+                cursor = Arrays.copyOf( this.cellFirst, this.cellFirst.length - 1 );
+                cells = new int[this.cellFirst[this.cellFirst.length - 1]];
+            }
+        }
+        this.cellSegment = cells;
+    }
+
+    /**
+     * @return true if the segment of arc is registered by it: the arc from
+     *         the lower node index of a two-way segment, the only arc of a
+     *         one-way segment
+     */
+    private static boolean isSegment( CompactGraph g, int v, int arc )
+    {
+        int w = g.getTarget( arc );
+
+        return g.getWeight( arc ) > 0 && ( v < w || g.findArc( w, v ) < 0 );
+    }
+
+    /**
+     * Snaps a point to the nearest road segment. Points projecting onto
+     * the end of a segment are snapped to that map node.
+     *
+     * @param latitude
+     * @param longitude
+     * @return position on the road, null for a map without roads
+     */
+    public RoadPosition snap( double latitude, double longitude )
+    {
+        Projection projection = this.graph.getProjection();
+        double     y          = projection.y( latitude );
+        double     x          = projection.x( longitude );
+        int        row0       = row( y );
+        int        column0    = column( x );
+        int        best       = -1;
+        double     bestT      = 0;
+        double     bestD      = Double.POSITIVE_INFINITY;
+
+        for ( int r = 0; ; r++ )
+        {
+            for ( int row = Math.max( row0 - r, 0 ); row <= Math.min( row0 + r, this.rows - 1 ); row++ )
+            {
+                boolean edgeRow = row == row0 - r || row == row0 + r;
+
+                for ( int column = Math.max( column0 - r, 0 ); column <= Math.min( column0 + r, this.columns - 1 ); column++ )
+                {
+                    // only the ring at distance r, inner cells were searched before
+                    if ( !edgeRow && column != column0 - r && column != column0 + r )
+                        continue;
+
+                    int cell = row * this.columns + column;
+                    for ( int i = this.cellFirst[cell]; i < this.cellFirst[cell + 1]; i++ )
+                    {
+                        int    s = this.cellSegment[i];
+                        double t = position( s, y, x );
+                        double d = distance( s, t, y, x );
+
+                        if ( d < bestD || ( d == bestD && s < best ) )
+                        {
+                            best = s;
+                            bestT = t;
+                            bestD = d;
+                        }
+                    }
+                }
+            }
+
+            boolean covered = row0 - r <= 0 && column0 - r <= 0 && row0 + r >= this.rows - 1 && column0 + r >= this.columns - 1;
+            if ( covered || ( best >= 0 && Math.sqrt( bestD ) <= uncoveredDistance( r, y, x ) ) )
+                break;
+        }
+
+        if ( best < 0 )
+            return null;
+
+        int from = this.segmentFrom[best];
+        int to   = this.segmentTo[best];
+
+        if ( bestT <= 0 )
+            return new RoadPosition( this.graph.getNode( from ), from, from, 0, 0, Math.sqrt( bestD ) );
+        if ( bestT >= 1 )
+            return new RoadPosition( this.graph.getNode( to ), to, to, 0, 0, Math.sqrt( bestD ) );
+
+        Node virtual = new Node( new Point( projection.toLatitude( this.fromY[best] + bestT * ( this.toY[best] - this.fromY[best] ) ),
+                                            projection.toLongitude( this.fromX[best] + bestT * ( this.toX[best] - this.fromX[best] ) ) ),
+                                 this.graph.getNode( from ).getRoadId(), -1 );
+
+        return new RoadPosition( virtual, from, to, bestT * this.segmentCost[best], ( 1 - bestT ) * this.segmentCost[best], Math.sqrt( bestD ) );
+    }
+
+    /**
+     * @return lower bound of the distance to segments outside the cells within ring r
+     */
+    private double uncoveredDistance( int r, double y, double x )
+    {
+        double south = y - ( this.minY + ( row( y ) - r ) * this.cellSize );
+        double north = this.minY + ( row( y ) + r + 1 ) * this.cellSize - y;
+        double west  = x - ( this.minX + ( column( x ) - r ) * this.cellSize );
+        double east  = this.minX + ( column( x ) + r + 1 ) * this.cellSize - x;
+
+        return Math.max( 0, Math.min( Math.min( south, north ), Math.min( west, east ) ) );
+    }
+
+    /**
+     * @return position of the projection on segment s, 0 at from, 1 at to (clamped)
+     */
+    private double position( int s, double y, double x )
+    {
+        double dx = this.toX[s] - this.fromX[s];
+        double dy = this.toY[s] - this.fromY[s];
+        double t  = ( ( x - this.fromX[s] ) * dx + ( y - this.fromY[s] ) * dy ) / ( dx * dx + dy * dy );
+
+        return Math.max( 0, Math.min( 1, t ) );
+    }
+
+    /**
+     * @return squared distance of the point to position t of segment s
+     */
+    private double distance( int s, double t, double y, double x )
+    {
+        double dx = this.fromX[s] + t * ( this.toX[s] - this.fromX[s] ) - x;
+        double dy = this.fromY[s] + t * ( this.toY[s] - this.fromY[s] ) - y;
+
+        return dx * dx + dy * dy;
+    }
+
+    private int row( double y )
+    {
+        return ( int ) Math.max( 0, Math.min( this.rows - 1, Math.floor( ( y - this.minY ) / this.cellSize ) ) );
+    }
+
+    private int column( double x )
+    {
+        return ( int ) Math.max( 0, Math.min( this.columns - 1, Math.floor( ( x - this.minX ) / this.cellSize ) ) );
+    }
+
+    public int getSegmentCount() { return this.segmentFrom.length; }
+}
@@ -0,0 +1,222 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Traffic speeds per road over the day in 15 minute buckets, for time
+ * dependent travel times. Speeds are quantized to 0.1 km/h and stored as
+ * short arrays; roads with the same profile share one array. A vehicle
+ * drives an edge at the speed of the bucket it is in and changes speed at
+ * bucket boundaries, so leaving later never means arriving earlier (FIFO)
+ * and time dependent searches may settle nodes like static ones.
+ *
+ * Profile file (with a header row):
+ *
+ *   road,speed_0,speed_1,...
+ *
+ * road is a road name or {@link Road#getId()}, the speeds are in km/h.
+ * The number of speeds must divide 96: 1 speed for the whole day, 24
+ * hourly speeds, ..., or 96 speeds per 15 minutes.
+ */
+public class SpeedProfiles
+{
+    public static final int     BUCKET_SECONDS = 15 * 60;
+    public static final int     BUCKETS        = 24 * 60 * 60 / BUCKET_SECONDS;
+    private static final double SPEED_UNIT     = 0.1 / 3.6;    // m/s per quantization step
+
+    private final short  profiles[][];     // quantized speeds per profile and bucket
+    private final int    arcProfile[];     // profile per arc, by road of the arc
+    private final double maxSpeed;         // m/s
+
+    /**
+     * @param map
+     * @param speeds:       km/h per bucket by road name or id, see class comment
+     * @param defaultSpeed: km/h of roads without profile
+     */
+    public SpeedProfiles( Map map, HashMap<String, double[]> speeds, double defaultSpeed )
+    {
+        HashMap<ShortBuffer, Integer> shared     = new HashMap<ShortBuffer, Integer>();    // profiles by content
+        HashMap<String, Integer>      byRoad     = new HashMap<String, Integer>();
+        List<short[]>                 unique     = new ArrayList<short[]>();
+        short                         fallback[] = quantize( new double[]{ defaultSpeed } );
+
+        for ( Road r : map.getRoads() )
+        {
+            double  kmh[]   = speeds.containsKey( r.getId() ) ? speeds.get( r.getId() ) : speeds.get( r.getName() );
+            short   speed[] = kmh == null ? fallback : quantize( kmh );
+            Integer profile = shared.get( ShortBuffer.wrap( speed ) );
+
+            if ( profile == null )
+            {
+                profile = unique.size();
+                unique.add( speed );
+                shared.put( ShortBuffer.wrap( speed ), profile );
+            }
+            byRoad.put( r.getId(), profile );
+        }
+        if ( unique.isEmpty() )
+            unique.add( fallback );
+
+        CompactGraph g = map.getCompactGraph();
+
+        this.profiles = unique.toArray( new short[unique.size()][] );
+
+        // by arc, as a crossing node belongs to several roads
+        this.arcProfile = new int[g.getArcCount()];
+        for ( Road r : map.getRoads() )
+        {
+            Integer profile = byRoad.get( r.getId() );
+
+            for ( int i = 0; profile != null && i < r.getNodes().size() - 1; i++ )
+            {
+                int a       = r.getNodes().get( i ).getIndex();
+                int b       = r.getNodes().get( i + 1 ).getIndex();
+                int forward = g.findArc( a, b );
+                int back    = g.findArc( b, a );
+
+                if ( forward >= 0 )
+                    this.arcProfile[forward] = profile;
+                if ( back >= 0 )
+                    this.arcProfile[back] = profile;
+            }
+        }
+
+        int max = 0;
+        for ( short speed[] : this.profiles )
+        {
+            for ( short s : speed )
+                max = Math.max( max, s );
+        }
+        this.maxSpeed = max * SPEED_UNIT;
+    }
+
+    /**
+     * Reads a profile file, see class comment.
+     *
+     * @param file
+     * @param map
+     * @param defaultSpeed: km/h of roads without profile
+     * @return profiles of the roads of map
+     * @throws IOException if the file cannot be read or a row is malformed
+     */
+    public static SpeedProfiles load( Path file, Map map, double defaultSpeed ) throws IOException
+    {
+        HashMap<String, double[]> speeds = new HashMap<String, double[]>();
+
+        try ( BufferedReader reader = Files.newBufferedReader( file ) )
+        {
+            String line   = reader.readLine();    // header
+            int    number = 1;
+
+            while ( ( line = reader.readLine() ) != null )
+            {
+                number++;
+                if ( line.trim().isEmpty() )
+                    continue;
+
+                String data[] = line.split( "," );
+                double kmh[]  = new double[data.length - 1];
+
+                try
+                {
+                    for ( int i = 1; i < data.length; i++ )
+                        kmh[i - 1] = Double.parseDouble( data[i].trim() );
+                    quantize( kmh );
+                }
+                catch ( IllegalArgumentException e )
+                {
+                    throw new IOException( "Malformed speed profile in " + file + " line " + number + ": " + e.getMessage() );
+                }
+                speeds.put( data[0].trim(), kmh );
+            }
+        }
+        return new SpeedProfiles( map, speeds, defaultSpeed );
+    }
+
+    /**
+     * @param kmh: speeds, their number must divide {@link #BUCKETS}
+     * @return speed per bucket in quantization steps
+     */
+    private static short[] quantize( double kmh[] )
+    {
+        if ( kmh.length == 0 || BUCKETS % kmh.length != 0 )
+            throw new IllegalArgumentException( kmh.length + " speeds do not divide the day into equal parts" );
+
+        short speed[] = new short[BUCKETS];
+        for ( int b = 0; b < BUCKETS; b++ )
+        {
+            double steps = Math.rint( kmh[b * kmh.length / BUCKETS] / ( SPEED_UNIT * 3.6 ) );
+
+            if ( !( steps >= 1 && steps <= Short.MAX_VALUE ) )
+                throw new IllegalArgumentException( "Speed out of range: " + kmh[b * kmh.length / BUCKETS] + " km/h" );
+            speed[b] = ( short ) steps;
+        }
+        return speed;
+    }
+
+    /**
+     * Travel time of a distance on the road of an arc, changing speed at
+     * every bucket boundary passed.
+     *
+     * @param arc:    arc of the road, in either direction
+     * @param meters
+     * @param time:   departure in seconds since midnight, days repeat
+     * @return seconds
+     */
+    public double travelTime( int arc, double meters, double time )
+    {
+        short  speed[]   = this.profiles[this.arcProfile[arc]];
+        double t         = time;
+        double remaining = meters;
+
+        if ( meters == Double.POSITIVE_INFINITY )
+            return meters;    // closed road
+
+        while ( true )
+        {
+            long   bucket = ( long ) Math.floor( t / BUCKET_SECONDS );
+            double end    = ( bucket + 1 ) * ( double ) BUCKET_SECONDS;
+            double v      = speed[( int ) Math.floorMod( bucket, ( long ) BUCKETS )] * SPEED_UNIT;
+
+            // the edge ends within the bucket
+            if ( remaining <= v * ( end - t ) )
+                return t + remaining / v - time;
+
+            remaining -= v * ( end - t );
+            t = end;
+        }
+    }
+
+    /**
+     * @param arc
+     * @param time: seconds since midnight
+     * @return km/h on the road of arc at time
+     */
+    public double getSpeed( int arc, double time )
+    {
+        int bucket = ( int ) Math.floorMod( ( long ) Math.floor( time / BUCKET_SECONDS ), ( long ) BUCKETS );
+
+        return this.profiles[this.arcProfile[arc]][bucket] * SPEED_UNIT * 3.6;
+    }
+
+    /**
+     * @return highest speed of any road and bucket in m/s, so distance /
+     *         max speed is a lower bound of every travel time
+     */
+    public double getMaxSpeed() { return this.maxSpeed; }
+
+    public int getProfileCount() { return this.profiles.length; }
+}
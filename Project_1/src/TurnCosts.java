@@ -0,0 +1,366 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Turn restrictions and turn costs at junctions. A junction is the node
+ * crossing roads share; in maps of older snapshots it is the group of
+ * nodes at the same point, joined by zero length links. A turn leads from
+ * a road arc into the junction to a road arc out of it and costs extra
+ * meters, or is forbidden at infinite cost. Turns that are not listed are
+ * free.
+ *
+ * Only junctions with listed turns are searched edge based: a path
+ * arriving there is labelled by the arc it arrived on, see
+ * {@link TurnSearch}. Every other node keeps one label, so memory grows
+ * with the number of arcs into such junctions only. Turn costs are never
+ * negative, so straight line and landmark bounds stay admissible.
+ *
+ * Turn file (with a header row), in degrees like the node file:
+ *
+ *   from_x,from_y,x,y,to_x,to_y,cost
+ *
+ * x,y is the junction, from_x,from_y the neighbouring node the turn comes
+ * from and to_x,to_y the one it leads to. cost is in meters; empty or
+ * "no" forbids the turn.
+ */
+public class TurnCosts
+{
+    private static final double JUNCTION_TOLERANCE = 5;    // meters between a listed junction and its closest node
+
+    private final CompactGraph graph;
+    private final long         turn[];        // inArc << 32 | outArc, sorted
+    private final double       cost[];        // per turn, infinity for a forbidden turn
+    private final int          entry[];       // sorted road arcs into junctions with turns
+    private final BitSet       restricted;    // nodes of junctions with turns, to skip the lookups elsewhere
+
+    // junctions with turns: nodes of junction j at [junctionOffset[j], junctionOffset[j + 1]) of junctionNode
+    private final int member[];              // sorted nodes of all junctions
+    private final int memberJunction[];      // junction per member
+    private final int junctionOffset[];
+    private final int junctionNode[];
+
+    /**
+     * @param g
+     * @param inArc:  road arc into a junction, per turn
+     * @param outArc: road arc out of the same junction, per turn
+     * @param cost:   meters per turn, infinity to forbid it; the last of
+     *                several costs of one turn applies
+     */
+    public TurnCosts( CompactGraph g, int inArc[], int outArc[], double cost[] )
+    {
+        Integer order[] = new Integer[inArc.length];
+
+        for ( int i = 0; i < inArc.length; i++ )
+        {
+            if ( !( cost[i] >= 0 ) )
+                throw new IllegalArgumentException( "Turn cost must not be negative: " + cost[i] );
+            if ( !isRoadArc( g, inArc[i] ) || !isRoadArc( g, outArc[i] )
+                 || !g.getNode( g.getTarget( inArc[i] ) ).getPoint().equals( g.getNode( g.getSource( outArc[i] ) ).getPoint() ) )
+                throw new IllegalArgumentException( "Arcs " + inArc[i] + " and " + outArc[i] + " do not meet at a junction" );
+            order[i] = i;
+        }
+        Arrays.sort( order, Comparator.comparingLong( ( Integer i ) -> key( inArc[i], outArc[i] ) ).thenComparingInt( i -> i ) );
+
+        List<Integer> unique = new ArrayList<Integer>();
+        for ( int k = 0; k < order.length; k++ )
+        {
+            if ( k + 1 == order.length || key( inArc[order[k]], outArc[order[k]] ) != key( inArc[order[k + 1]], outArc[order[k + 1]] ) )
+                unique.add( order[k] );
+        }
+
+        this.graph = g;
+        this.turn = new long[unique.size()];
+        this.cost = new double[unique.size()];
+
+        List<int[]>      junctions = new ArrayList<int[]>();
+        HashSet<Integer> members   = new HashSet<Integer>();
+
+        for ( int t = 0; t < unique.size(); t++ )
+        {
+            int i = unique.get( t );
+
+            this.turn[t] = key( inArc[i], outArc[i] );
+            this.cost[t] = cost[i];
+
+            int node = g.getTarget( inArc[i] );
+            if ( members.contains( node ) )
+                continue;
+
+            int nodes[] = junction( g, node );
+            junctions.add( nodes );
+            for ( int v : nodes )
+                members.add( v );
+        }
+
+        // junctions in CSR layout, members sorted for lookup
+        this.junctionOffset = new int[junctions.size() + 1];
+        this.junctionNode = new int[members.size()];
+        this.member = new int[members.size()];
+        this.memberJunction = new int[members.size()];
+
+        this.restricted = new BitSet( g.getNodeCount() );
+
+        long byNode[] = new long[members.size()];
+        int  m        = 0;
+        for ( int j = 0; j < junctions.size(); j++ )
+        {
+            for ( int v : junctions.get( j ) )
+            {
+                this.junctionNode[m] = v;
+                this.restricted.set( v );
+                byNode[m++] = ( long ) v << 32 | j;
+            }
+            this.junctionOffset[j + 1] = m;
+        }
+        Arrays.sort( byNode );
+        for ( int k = 0; k < byNode.length; k++ )
+        {
+            this.member[k] = ( int ) ( byNode[k] >>> 32 );
+            this.memberJunction[k] = ( int ) byNode[k];
+        }
+
+        int entries = 0;
+        int entry[] = new int[16];
+        for ( int v : this.junctionNode )
+        {
+            for ( int i = g.firstInArc( v ); i < g.endInArc( v ); i++ )
+            {
+                if ( !isRoadArc( g, g.getInArc( i ) ) )
+                    continue;
+                if ( entries == entry.length )
+                    entry = Arrays.copyOf( entry, 2 * entries );
+                entry[entries++] = g.getInArc( i );
+            }
+        }
+        this.entry = Arrays.copyOf( entry, entries );
+        Arrays.sort( this.entry );
+    }
+
+    /**
+     * Reads a turn file, see class comment.
+     *
+     * @param file
+     * @param map
+     * @return turn costs on the compact graph of map
+     * @throws IOException if the file cannot be read or a row does not match a turn of map
+     */
+    public static TurnCosts load( Path file, Map map ) throws IOException
+    {
+        CompactGraph g        = map.getCompactGraph();
+        int          inArc[]  = new int[16];
+        int          outArc[] = new int[16];
+        double       cost[]   = new double[16];
+        int          count    = 0;
+
+        try ( BufferedReader reader = Files.newBufferedReader( file ) )
+        {
+            String line   = reader.readLine();    // header
+            int    number = 1;
+
+            while ( ( line = reader.readLine() ) != null )
+            {
+                number++;
+                if ( line.trim().isEmpty() )
+                    continue;
+
+                String data[] = line.split( ",", -1 );
+
+                try
+                {
+                    if ( data.length != 7 )
+                        throw new IllegalArgumentException( "7 columns expected" );
+
+                    Point  from = point( data[0], data[1] );
+                    Point  at   = point( data[2], data[3] );
+                    Point  to   = point( data[4], data[5] );
+                    String c    = data[6].trim();
+                    int    node = map.getSearchTree().nearest( at.getLatitude(), at.getLongitude() );
+
+                    if ( node < 0 || g.getProjection().distance( at, g.getNode( node ).getPoint() ) > JUNCTION_TOLERANCE )
+                        throw new IllegalArgumentException( "no junction at " + data[2].trim() + "," + data[3].trim() );
+
+                    if ( count == inArc.length )
+                    {
+                        inArc = Arrays.copyOf( inArc, 2 * count );
+                        outArc = Arrays.copyOf( outArc, 2 * count );
+                        cost = Arrays.copyOf( cost, 2 * count );
+                    }
+                    int nodes[] = junction( g, node );
+
+                    inArc[count] = nearestArc( g, nodes, from, true );
+                    outArc[count] = nearestArc( g, nodes, to, false );
+                    cost[count] = c.isEmpty() || c.equalsIgnoreCase( "no" ) ? Double.POSITIVE_INFINITY : Double.parseDouble( c );
+                    if ( !( cost[count] >= 0 ) )
+                        throw new IllegalArgumentException( "negative cost " + c );
+                    count++;
+                }
+                catch ( IllegalArgumentException e )
+                {
+                    throw new IOException( "Malformed turn in " + file + " line " + number + ": " + e.getMessage() );
+                }
+            }
+        }
+        return new TurnCosts( g, Arrays.copyOf( inArc, count ), Arrays.copyOf( outArc, count ), Arrays.copyOf( cost, count ) );
+    }
+
+    private static Point point( String longitude, String latitude )
+    {
+        return new Point( Double.parseDouble( latitude.trim() ), Double.parseDouble( longitude.trim() ) );
+    }
+
+    /**
+     * @param nodes:     nodes of a junction
+     * @param neighbour: point close to a neighbouring node of the junction
+     * @param incoming:  true for the arc from the neighbour into the junction
+     * @return road arc between the junction and the node closest to neighbour
+     */
+    private static int nearestArc( CompactGraph g, int nodes[], Point neighbour, boolean incoming )
+    {
+        int    result = -1;
+        double best   = Double.POSITIVE_INFINITY;
+
+        for ( int v : nodes )
+        {
+            int first = incoming ? g.firstInArc( v ) : g.firstArc( v );
+            int end   = incoming ? g.endInArc( v ) : g.endArc( v );
+
+            for ( int i = first; i < end; i++ )
+            {
+                int    arc      = incoming ? g.getInArc( i ) : i;
+                int    other    = incoming ? g.getSource( arc ) : g.getTarget( arc );
+                double distance = g.getProjection().distance( neighbour, g.getNode( other ).getPoint() );
+
+                if ( isRoadArc( g, arc ) && distance < best )
+                {
+                    best = distance;
+                    result = arc;
+                }
+            }
+        }
+        if ( result < 0 )
+            throw new IllegalArgumentException( "no road " + ( incoming ? "into" : "out of" ) + " the junction" );
+        return result;
+    }
+
+    /**
+     * @return nodes of the junction of node: node and all nodes linked to it at zero length
+     */
+    private static int[] junction( CompactGraph g, int node )
+    {
+        List<Integer> nodes = new ArrayList<Integer>();
+
+        nodes.add( node );
+        for ( int k = 0; k < nodes.size(); k++ )
+        {
+            int v = nodes.get( k );
+
+            for ( int arc = g.firstArc( v ); arc < g.endArc( v ); arc++ )
+            {
+                if ( !isRoadArc( g, arc ) && !nodes.contains( g.getTarget( arc ) ) )
+                    nodes.add( g.getTarget( arc ) );
+            }
+        }
+        return nodes.stream().mapToInt( Integer::intValue ).toArray();
+    }
+
+    /**
+     * @return true for arcs along a road, false for links within a junction
+     */
+    private static boolean isRoadArc( CompactGraph g, int arc )
+    {
+        return g.getWeight( arc ) > 0;
+    }
+
+    private static long key( int inArc, int outArc )
+    {
+        return ( long ) inArc << 32 | outArc;
+    }
+
+    /**
+     * @param inArc:  road arc into a junction
+     * @param outArc: road arc out of the same junction
+     * @return extra cost of the turn, infinity if it is forbidden
+     */
+    public double getCost( int inArc, int outArc )
+    {
+        int t = Arrays.binarySearch( this.turn, key( inArc, outArc ) );
+
+        return t < 0 ? 0 : this.cost[t];
+    }
+
+    /**
+     * @param node
+     * @return junction with listed turns the node belongs to, -1 if there is none
+     */
+    public int getJunction( int node )
+    {
+        if ( !this.restricted.get( node ) )
+            return -1;
+
+        int k = Arrays.binarySearch( this.member, node );
+
+        return k < 0 ? -1 : this.memberJunction[k];
+    }
+
+    /**
+     * Search states: one per node, plus one per road arc into a junction
+     * with listed turns.
+     */
+    public int getStateCount() { return this.graph.getNodeCount() + this.entry.length; }
+
+    /**
+     * @param arc
+     * @return search state reached by driving arc
+     */
+    public int getState( int arc )
+    {
+        int target = this.graph.getTarget( arc );
+
+        if ( !this.restricted.get( target ) || !isRoadArc( this.graph, arc ) )
+            return target;
+        return this.graph.getNodeCount() + Arrays.binarySearch( this.entry, arc );
+    }
+
+    /**
+     * @param state
+     * @return arc a path in state arrived on, -1 for the state of a node
+     */
+    public int getArrival( int state )
+    {
+        return state < this.graph.getNodeCount() ? -1 : this.entry[state - this.graph.getNodeCount()];
+    }
+
+    /**
+     * @param state
+     * @return node of state
+     */
+    public int getNode( int state )
+    {
+        return state < this.graph.getNodeCount() ? state : this.graph.getTarget( this.entry[state - this.graph.getNodeCount()] );
+    }
+
+    // nodes of a junction: getJunctionNode( k ) for firstJunctionNode( j ) <= k < endJunctionNode( j )
+    public int firstJunctionNode( int j ) { return this.junctionOffset[j]; }
+    public int endJunctionNode( int j )   { return this.junctionOffset[j + 1]; }
+    public int getJunctionNode( int k )   { return this.junctionNode[k]; }
+
+    public CompactGraph getGraph()         { return this.graph; }
+    public int          getTurnCount()     { return this.turn.length; }
+    public int          getJunctionCount() { return this.junctionOffset.length - 1; }
+}
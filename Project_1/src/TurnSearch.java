@@ -0,0 +1,497 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A* with turn costs. Search states are the nodes of the graph plus one
+ * state per road arc into a junction with listed turns (see
+ * {@link TurnCosts#getState(int)}). A path in such an arc state leaves
+ * the junction from any of its nodes along a road arc, paying the cost of
+ * the turn; forbidden turns are not expanded. Everywhere else the search
+ * is the plain node based A*, so it only slows down near restricted
+ * junctions.
+ *
+ * Turn costs are never negative, so the straight line and landmark bounds
+ * of the node graph stay admissible and consistent. All sources start at
+ * once, which finds the paths of many taxis to one client in one forward
+ * search.
+ *
+ * One instance can serve parallel queries, search state is per thread.
+ */
+public class TurnSearch
+{
+    private final TurnCosts turns;
+    private final Landmarks landmarks;
+
+    private final ThreadLocal<SearchState> state = new ThreadLocal<SearchState>();
+
+    /**
+     * @param turns
+     * @param landmarks: tables to speed up the searches, may be null
+     */
+    public TurnSearch( TurnCosts turns, Landmarks landmarks )
+    {
+        this.turns = turns;
+        this.landmarks = landmarks;
+    }
+
+    /**
+     * @return number of states expanded by the last search of the calling thread
+     */
+    public int getExpandedStates()
+    {
+        SearchState st = this.state.get();
+        return st == null ? 0 : st.expanded;
+    }
+
+    /**
+     * @param start
+     * @param target
+     * @param g
+     * @return cheapest route(s), see {@link #find(List, List, CompactGraph, WeightOverlay.Version)}
+     */
+    public List<Route> find( RoadPosition start, List<RoadPosition> target, CompactGraph g )
+    {
+        return find( Collections.singletonList( start ), target, g, null );
+    }
+
+    /**
+     * Finds the cheapest routes from any source to any target. Routes from
+     * or to a position between two map nodes start or end at its virtual
+     * node; the costs of the route include the turn costs.
+     *
+     * @param source
+     * @param target
+     * @param g:       graph of the turn costs
+     * @param weights: pinned version of live weights of g, null for the weights of g
+     * @return routes of equal, lowest cost with their node costs, at most one per target
+     */
+    public List<Route> find( List<RoadPosition> source, List<RoadPosition> target, CompactGraph g, WeightOverlay.Version weights )
+    {
+        if ( this.turns.getGraph() != g )
+            throw new IllegalArgumentException( "Turn costs belong to another graph" );
+
+        SearchState st = searchState();
+
+        st.clear();
+        st.weights = weights;
+        st.setTargets( target, g );
+
+        for ( int i = 0; i < source.size(); i++ )
+        {
+            RoadPosition s = source.get( i );
+
+            if ( !s.isVirtual() )
+            {
+                reach( st, s.getNode().getIndex(), 0, -1, -1 - i, g );
+                continue;
+            }
+
+            // the first turn is taken from the road of the position
+            for ( int end : new int[] { s.getFrom(), s.getTo() } )
+            {
+                int    other = s.getOtherEnd( end );
+                double cost  = s.getCostTo( end, g ) * scale( st, other, end );
+
+                if ( cost < Double.POSITIVE_INFINITY )
+                    reach( st, this.turns.getState( g.findArc( other, end ) ), cost, -1, -1 - i, g );
+            }
+
+            // targets on the same segment are reached directly
+            for ( int j = 0; j < target.size(); j++ )
+            {
+                RoadPosition t = target.get( j );
+
+                if ( s.isOnSameSegment( t ) )
+                {
+                    int heading = s.getHeadingTo( t );
+
+                    st.record( j, s.getDirectCost( t, g ) * scale( st, s.getOtherEnd( heading ), heading ), -1 - i, -1 );
+                }
+            }
+        }
+
+        while ( !st.queue.isEmpty() && st.queue.peekKey() <= st.best )
+        {
+            int state   = st.queue.pop();
+            int node    = this.turns.getNode( state );
+            int arrival = this.turns.getArrival( state );
+
+            st.closed.add( state );
+            st.expanded++;
+
+            if ( st.goals.contains( node ) )
+                arrive( st, state, node, target, g );
+
+            if ( arrival < 0 )
+            {
+                for ( int arc = g.firstArc( node ); arc < g.endArc( node ); arc++ )
+                {
+                    relax( st, state, arc, weight( st, g, arc ), g );
+                }
+                continue;
+            }
+
+            // leaving a restricted junction: turn from the arrival arc onto a road arc of any of its nodes
+            int junction = this.turns.getJunction( node );
+
+            for ( int k = this.turns.firstJunctionNode( junction ); k < this.turns.endJunctionNode( junction ); k++ )
+            {
+                int u = this.turns.getJunctionNode( k );
+
+                for ( int arc = g.firstArc( u ); arc < g.endArc( u ); arc++ )
+                {
+                    if ( g.getWeight( arc ) > 0 )
+                        relax( st, state, arc, weight( st, g, arc ) + this.turns.getCost( arrival, arc ), g );
+                }
+            }
+        }
+        return routes( st, source, target, g );
+    }
+
+    private void relax( SearchState st, int state, int arc, double weight, CompactGraph g )
+    {
+        int next = this.turns.getState( arc );
+
+        // closed roads and forbidden turns are skipped
+        if ( weight < Double.POSITIVE_INFINITY && !st.closed.contains( next ) )
+            reach( st, next, st.cost[state] + weight, state, arc, g );
+    }
+
+    private void reach( SearchState st, int state, double cost, int parent, int arc, CompactGraph g )
+    {
+        if ( st.closed.contains( state ) || ( st.reached.contains( state ) && st.cost[state] <= cost ) )
+            return;
+
+        st.reached.add( state );
+        st.cost[state] = cost;
+        st.parentState[state] = parent;
+        st.parentArc[state] = arc;
+        st.queue.insertOrDecrease( state, cost + estimate( st, this.turns.getNode( state ), g ) );
+    }
+
+    /**
+     * Records the targets completed at a settled state: a map node target
+     * at any node of its point, a target between two map nodes by turning
+     * onto its segment at one of the ends.
+     */
+    private void arrive( SearchState st, int state, int node, List<RoadPosition> target, CompactGraph g )
+    {
+        Point point   = g.getNode( node ).getPoint();
+        int   arrival = this.turns.getArrival( state );
+
+        for ( int j = 0; j < target.size(); j++ )
+        {
+            RoadPosition t = target.get( j );
+
+            if ( !t.isVirtual() )
+            {
+                if ( t.getNode().getPoint().equals( point ) )
+                    st.record( j, st.cost[state], state, -1 );
+                continue;
+            }
+
+            for ( int side = 0; side < 2; side++ )
+            {
+                int    exit = st.exitArc[2 * j + side];
+                double cost = st.exitCost[2 * j + side];
+
+                if ( exit < 0 || cost == Double.POSITIVE_INFINITY )
+                    continue;
+
+                int end = g.getSource( exit );
+
+                if ( arrival < 0 && node == end )
+                    st.record( j, st.cost[state] + cost, state, end );
+                else if ( arrival >= 0 && g.getNode( end ).getPoint().equals( point ) )
+                    st.record( j, st.cost[state] + this.turns.getCost( arrival, exit ) + cost, state, end );
+            }
+        }
+    }
+
+    /**
+     * @return routes to the targets reached at the lowest cost
+     */
+    private List<Route> routes( SearchState st, List<RoadPosition> source, List<RoadPosition> target, CompactGraph g )
+    {
+        List<Route> result = new ArrayList<Route>();
+
+        for ( int j = 0; j < target.size(); j++ )
+        {
+            if ( st.bestCost[j] > st.best || st.bestCost[j] == Double.POSITIVE_INFINITY )
+                continue;
+
+            RoadPosition t     = target.get( j );
+            List<Node>   path  = new ArrayList<Node>();
+            double       costs[];
+            int          state = st.bestState[j];
+
+            if ( state < 0 )
+            {
+                path.add( source.get( -1 - state ).getNode() );
+                path.add( t.getNode() );
+                result.add( new Route( st.bestCost[j], path, new double[] { 0, st.bestCost[j] } ) );
+                continue;
+            }
+
+            List<Integer> states = new ArrayList<Integer>();
+            for ( int s = state; s >= 0; s = st.parentState[s] )
+                states.add( s );
+            Collections.reverse( states );
+
+            int          seed = states.get( 0 );
+            RoadPosition from = source.get( -1 - st.parentArc[seed] );
+            List<Double> cost = new ArrayList<Double>();
+
+            path.add( from.getNode() );
+            cost.add( 0.0 );
+            if ( from.isVirtual() )
+            {
+                path.add( g.getNode( this.turns.getNode( seed ) ) );
+                cost.add( st.cost[seed] );
+            }
+
+            for ( int k = 1; k < states.size(); k++ )
+            {
+                int s   = states.get( k );
+                int arc = st.parentArc[s];
+
+                // crossing to another node of the junction
+                if ( g.getSource( arc ) != path.get( path.size() - 1 ).getIndex() )
+                {
+                    path.add( g.getNode( g.getSource( arc ) ) );
+                    cost.add( st.cost[st.parentState[s]] );
+                }
+                path.add( g.getNode( g.getTarget( arc ) ) );
+                cost.add( st.cost[s] );
+            }
+
+            // a target may be reached at another node of its point
+            int end = t.isVirtual() ? st.bestEnd[j] : t.getNode().getIndex();
+
+            if ( end != path.get( path.size() - 1 ).getIndex() )
+            {
+                path.add( g.getNode( end ) );
+                cost.add( st.cost[state] );
+            }
+            if ( t.isVirtual() )
+            {
+                path.add( t.getNode() );
+                cost.add( st.bestCost[j] );
+            }
+            else if ( path.size() > 1 )
+            {
+                path.set( path.size() - 1, t.getNode() );    // may carry the name of the target
+            }
+
+            costs = new double[cost.size()];
+            for ( int k = 0; k < costs.length; k++ )
+                costs[k] = cost.get( k );
+            result.add( new Route( st.bestCost[j], path, costs ) );
+        }
+        return result;
+    }
+
+    private static double weight( SearchState st, CompactGraph g, int arc )
+    {
+        return st.weights == null ? g.getWeight( arc ) : st.weights.getWeight( arc );
+    }
+
+    /**
+     * @return factor of the partial costs of positions between from and to, towards to
+     */
+    private static double scale( SearchState st, int from, int to )
+    {
+        return st.weights == null ? 1 : st.weights.getScale( from, to );
+    }
+
+    private double estimate( SearchState st, int node, CompactGraph g )
+    {
+        double x   = g.getX( node );
+        double y   = g.getY( node );
+        double min = Double.POSITIVE_INFINITY;
+
+        for ( int i = 0; i < st.targetCount; i++ )
+        {
+            double dX    = st.targetX[i] - x;
+            double dY    = st.targetY[i] - y;
+            double bound = Math.sqrt( dX * dX + dY * dY );
+
+            // every path to a position between two nodes passes one of them
+            if ( this.landmarks != null )
+                bound = Math.max( bound, Math.min( this.landmarks.lowerBound( node, st.targetFrom[i] ),
+                                                   this.landmarks.lowerBound( node, st.targetTo[i] ) ) );
+            min = Math.min( min, bound );
+        }
+        return min;
+    }
+
+    private SearchState searchState()
+    {
+        SearchState st = this.state.get();
+
+        if ( st == null )
+        {
+            st = new SearchState( this.turns );
+            this.state.set( st );
+        }
+        return st;
+    }
+
+
+    /**
+     * Labels per search state and the targets of the current query of one
+     * thread, reused between queries.
+     */
+    private static class SearchState
+    {
+        double         cost[];
+        int            parentState[];    // -1 for a state a source started in
+        int            parentArc[];      // arc driven into the state, -1 - source index for a start state
+        VisitedSet     reached;
+        VisitedSet     closed;
+        IndexedMinHeap queue;
+        int            expanded;
+
+        WeightOverlay.Version weights;    // pinned live weights, null for the weights of the graph
+
+        // goal nodes, including all nodes at the point of a target end
+        VisitedSet     goals;
+        int            targetCount;
+        double         targetX[]    = new double[0];    // projected coordinates
+        double         targetY[]    = new double[0];
+        int            targetFrom[] = new int[0];
+        int            targetTo[]   = new int[0];
+        int            exitArc[]    = new int[0];       // per target end, arc onto the target segment
+        double         exitCost[]   = new double[0];    // per target end, cost from the end to the target
+
+        // cheapest arrival per target: cost, state it was completed from
+        // (-1 - source index if reached directly), end of the target segment
+        double         bestCost[]  = new double[0];
+        int            bestState[] = new int[0];
+        int            bestEnd[]   = new int[0];
+        double         best;
+
+        SearchState( TurnCosts turns )
+        {
+            int n = turns.getStateCount();
+
+            this.cost = new double[n];
+            this.parentState = new int[n];
+            this.parentArc = new int[n];
+            this.reached = new VisitedSet( n );
+            this.closed = new VisitedSet( n );
+            this.queue = new IndexedMinHeap( n );
+            this.goals = new VisitedSet( turns.getGraph().getNodeCount() );
+        }
+
+        void clear()
+        {
+            this.reached.clear();
+            this.closed.clear();
+            this.queue.clear();
+            this.goals.clear();
+            this.expanded = 0;
+            this.best = Double.POSITIVE_INFINITY;
+        }
+
+        void setTargets( List<RoadPosition> target, CompactGraph g )
+        {
+            int n = target.size();
+
+            if ( this.targetX.length < n )
+            {
+                this.targetX = new double[n];
+                this.targetY = new double[n];
+                this.targetFrom = new int[n];
+                this.targetTo = new int[n];
+                this.exitArc = new int[2 * n];
+                this.exitCost = new double[2 * n];
+                this.bestCost = new double[n];
+                this.bestState = new int[n];
+                this.bestEnd = new int[n];
+            }
+            this.targetCount = n;
+
+            for ( int i = 0; i < n; i++ )
+            {
+                RoadPosition t = target.get( i );
+
+                // virtual targets are not in the graph
+                this.targetX[i] = g.getProjection().x( t.getNode().getPoint().getLongitude() );
+                this.targetY[i] = g.getProjection().y( t.getNode().getPoint().getLatitude() );
+                this.targetFrom[i] = t.getFrom();
+                this.targetTo[i] = t.getTo();
+                this.bestCost[i] = Double.POSITIVE_INFINITY;
+
+                if ( !t.isVirtual() )
+                {
+                    addGoal( t.getNode().getIndex(), g );
+                    continue;
+                }
+
+                int ends[] = { t.getFrom(), t.getTo() };
+                for ( int side = 0; side < 2; side++ )
+                {
+                    int end   = ends[side];
+                    int other = t.getOtherEnd( end );
+
+                    this.exitArc[2 * i + side] = g.findArc( end, other );
+                    this.exitCost[2 * i + side] = t.getCostFrom( end, g ) * scale( this, end, other );
+                    addGoal( end, g );
+                }
+            }
+        }
+
+        /**
+         * Marks a node as goal. With crossing links (older snapshots) the
+         * nodes linked to it at the same point are goals as well.
+         */
+        private void addGoal( int node, CompactGraph g )
+        {
+            Point         point   = g.getNode( node ).getPoint();
+            List<Integer> pending = new ArrayList<Integer>();
+
+            pending.add( node );
+            while ( !pending.isEmpty() )
+            {
+                int index = pending.remove( pending.size() - 1 );
+
+                if ( this.goals.contains( index ) )
+                    continue;
+
+                this.goals.add( index );
+
+                if ( !g.hasCrossingLinks() )
+                    continue;
+                for ( int arc = g.firstArc( index ); arc < g.endArc( index ); arc++ )
+                {
+                    if ( g.getNode( g.getTarget( arc ) ).getPoint().equals( point ) )
+                        pending.add( g.getTarget( arc ) );
+                }
+            }
+        }
+
+        /**
+         * Keeps the cheaper arrival at target j.
+         */
+        void record( int j, double cost, int state, int end )
+        {
+            if ( cost >= this.bestCost[j] )
+                return;
+
+            this.bestCost[j] = cost;
+            this.bestState[j] = state;
+            this.bestEnd[j] = end;
+            this.best = Math.min( this.best, cost );
+        }
+    }
+}
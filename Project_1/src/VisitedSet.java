@@ -0,0 +1,51 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * Set of dense integer ids backed by an epoch stamped int array.
+ * An id is a member if its stamp equals the current epoch, so clearing
+ * is O(1) and the set can be reused across searches without allocation.
+ */
+public class VisitedSet
+{
+    private int stamp[];
+    private int epoch = 1;
+
+    public VisitedSet( int capacity )
+    {
+        this.stamp = new int[capacity];
+    }
+
+    public boolean contains( int id )
+    {
+        return this.stamp[id] == this.epoch;
+    }
+
+    public void add( int id )
+    {
+        this.stamp[id] = this.epoch;
+    }
+
+    /**
+     * Removes all ids by starting a new epoch.
+     */
+    public void clear()
+    {
+        if ( this.epoch == Integer.MAX_VALUE )
+        {
+            // stamps would wrap around -> reset once every 2^31 searches
+            Arrays.fill( this.stamp, 0 );
+            this.epoch = 0;
+        }
+        this.epoch++;
+    }
+
+    public int capacity() { return this.stamp.length; }
+}
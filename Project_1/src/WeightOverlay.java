@@ -0,0 +1,278 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live edge weights on top of the immutable weights of a compact graph,
+ * e.g. from road closure and congestion feeds. Changed arcs are kept in
+ * immutable versions, so memory grows with the number of changed arcs
+ * only. Writers collect changes and {@link #publish()} them as a new
+ * version at once; searches pin one version per query and never wait
+ * for writers.
+ *
+ * Weights never drop below the base weight, so straight line, landmark
+ * and pruning bounds computed on the base graph stay valid. Crossing links
+ * of zero length in maps of older snapshots (see
+ * {@link CompactGraph#hasCrossingLinks()}) keep their weight, as they join
+ * nodes at the same point.
+ */
+public class WeightOverlay
+{
+    private final CompactGraph graph;
+
+    // writer state
+    private final ReentrantLock            lock    = new ReentrantLock();
+    private final HashMap<Integer, Double> pending = new HashMap<Integer, Double>();    // weight per arc, NaN to reset
+    private boolean                        resetAll;
+
+    private volatile Version published;
+
+    /**
+     * @param g: graph the overlay changes, searches must run on it
+     */
+    public WeightOverlay( CompactGraph g )
+    {
+        this.graph = g;
+        this.published = new Version( g, 0, new int[0], new double[0], 0 );
+    }
+
+    /**
+     * Sets the weight of the edge between two nodes, in both directions,
+     * or in the one direction of a one-way road.
+     *
+     * @param from:   node index
+     * @param to:     node index
+     * @param weight: meters equivalent, at least the base weight
+     */
+    public void setWeight( int from, int to, double weight )
+    {
+        for ( int arc : arcs( from, to ) )
+            change( arc, weight );
+    }
+
+    /**
+     * Scales the base weight of the edge between two nodes, e.g. by the
+     * ratio of free flow to current speed.
+     *
+     * @param from
+     * @param to
+     * @param factor: >= 1
+     */
+    public void setFactor( int from, int to, double factor )
+    {
+        for ( int arc : arcs( from, to ) )
+            change( arc, factor * this.graph.getWeight( arc ) );
+    }
+
+    /**
+     * Closes the edge between two nodes in every direction.
+     */
+    public void close( int from, int to )
+    {
+        setWeight( from, to, Double.POSITIVE_INFINITY );
+    }
+
+    /**
+     * Restores the base weight of the edge between two nodes.
+     */
+    public void reset( int from, int to )
+    {
+        for ( int arc : arcs( from, to ) )
+            change( arc, Double.NaN );
+    }
+
+    /**
+     * Restores the base weight of every edge, e.g. before a feed that
+     * replaces all changes.
+     */
+    public void resetAll()
+    {
+        this.lock.lock();
+        try
+        {
+            this.pending.clear();
+            this.resetAll = true;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return arcs between two nodes, one for a one-way road
+     */
+    private int[] arcs( int from, int to )
+    {
+        int forward = this.graph.findArc( from, to );
+        int back    = this.graph.findArc( to, from );
+
+        if ( forward < 0 && back < 0 )
+            throw new IllegalArgumentException( "No edge between node " + from + " and node " + to );
+        if ( back < 0 )
+            return new int[]{ forward };
+        if ( forward < 0 )
+            return new int[]{ back };
+        return new int[]{ forward, back };
+    }
+
+    private void change( int arc, double weight )
+    {
+        if ( this.graph.getWeight( arc ) == 0 )
+            return;    // crossing link of an older snapshot
+
+        this.lock.lock();
+        try
+        {
+            // NaN resets, everything else is clamped to the base weight
+            this.pending.put( arc, Double.isNaN( weight ) ? weight : Math.max( weight, this.graph.getWeight( arc ) ) );
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Makes all changes since the last publish visible to new queries at
+     * once. Queries running on an older version are not affected.
+     *
+     * @return published version
+     */
+    public Version publish()
+    {
+        this.lock.lock();
+        try
+        {
+            Version                  old    = this.published;
+            HashMap<Integer, Double> merged = new HashMap<Integer, Double>();
+
+            if ( !this.resetAll )
+            {
+                for ( int slot = 0; slot < old.arcs.length; slot++ )
+                {
+                    if ( old.arcs[slot] >= 0 )
+                        merged.put( old.arcs[slot], old.weights[slot] );
+                }
+            }
+            for ( int arc : this.pending.keySet() )
+            {
+                double weight = this.pending.get( arc );
+
+                if ( Double.isNaN( weight ) )
+                    merged.remove( arc );
+                else
+                    merged.put( arc, weight );
+            }
+
+            // open addressing table, at most half full
+            int    bits      = 32 - Integer.numberOfLeadingZeros( Math.max( 2 * merged.size() - 1, 1 ) );
+            int    arcs[]    = new int[merged.isEmpty() ? 0 : 1 << bits];
+            double weights[] = new double[arcs.length];
+
+            Arrays.fill( arcs, -1 );
+            for ( int arc : merged.keySet() )
+            {
+                int slot = Version.hash( arc, bits );
+                while ( arcs[slot] >= 0 )
+                    slot = ( slot + 1 ) & ( arcs.length - 1 );
+
+                arcs[slot] = arc;
+                weights[slot] = merged.get( arc );
+            }
+
+            this.pending.clear();
+            this.resetAll = false;
+            this.published = new Version( this.graph, old.number + 1, arcs, weights, merged.size() );
+            return this.published;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return latest published version, never blocks
+     */
+    public Version snapshot() { return this.published; }
+
+    public CompactGraph getGraph() { return this.graph; }
+
+    /**
+     * Immutable weights of all arcs: the changed arcs of one publish, the
+     * base weights for all others.
+     */
+    public static class Version
+    {
+        private final CompactGraph graph;
+        private final long         number;
+        private final int          arcs[];       // changed arc per slot, -1 for free slots
+        private final double       weights[];
+        private final int          bits;
+        private final int          size;
+
+        private Version( CompactGraph graph, long number, int arcs[], double weights[], int size )
+        {
+            this.graph = graph;
+            this.number = number;
+            this.arcs = arcs;
+            this.weights = weights;
+            this.bits = Integer.numberOfTrailingZeros( Math.max( arcs.length, 1 ) );
+            this.size = size;
+        }
+
+        private static int hash( int arc, int bits )
+        {
+            return bits == 0 ? 0 : ( arc * 0x9e3779b9 ) >>> ( 32 - bits );
+        }
+
+        /**
+         * @param arc
+         * @return current weight, infinity for closed arcs
+         */
+        public double getWeight( int arc )
+        {
+            if ( this.size == 0 )
+                return this.graph.getWeight( arc );
+
+            for ( int slot = hash( arc, this.bits ); ; slot = ( slot + 1 ) & ( this.arcs.length - 1 ) )
+            {
+                if ( this.arcs[slot] == arc )
+                    return this.weights[slot];
+                if ( this.arcs[slot] < 0 )
+                    return this.graph.getWeight( arc );
+            }
+        }
+
+        /**
+         * Factor of the partial costs of a position between two nodes.
+         *
+         * @param from: node index
+         * @param to:   node index
+         * @return current weight relative to the base weight of the arc from -> to
+         */
+        public double getScale( int from, int to )
+        {
+            int arc = this.size == 0 || from == to ? -1 : this.graph.findArc( from, to );
+
+            if ( arc < 0 || this.graph.getWeight( arc ) == 0 )
+                return 1;
+            return getWeight( arc ) / this.graph.getWeight( arc );
+        }
+
+        /**
+         * @return number of changed arcs
+         */
+        public int  size()       { return this.size; }
+        public long getVersion() { return this.number; }
+    }
+}
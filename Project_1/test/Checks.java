@@ -0,0 +1,186 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts the failed comparisons of a correctness check and exits with
+ * status 1 if there were any, so a script running the checks stops.
+ * Expected costs come from a plain reference Dijkstra over the arcs of
+ * the compact graph, independent of the searches under test.
+ *
+ * Usage: java -cp AI_TaxiService.jar:<classes> <check class>
+ */
+class Checks
+{
+    static final double TOLERANCE = 1e-6;    // meters between two costs of the same route
+
+    private static final int REPORTED = 10;
+
+    private final String name;
+    private int          total;
+    private int          failures;
+
+    /**
+     * @param name: name of the check in the summary
+     */
+    Checks( String name )
+    {
+        this.name = name;
+    }
+
+    /**
+     * @param what:     description of the comparison, printed on failure
+     * @param expected: cost, infinity if there is no route
+     * @param actual:   cost, infinity if there is no route
+     */
+    void expect( String what, double expected, double actual )
+    {
+        expect( what + ": expected " + expected + ", got " + actual, matches( expected, actual ) );
+    }
+
+    /**
+     * @param what: description of the comparison, printed on failure
+     * @param ok:   result of the comparison
+     */
+    void expect( String what, boolean ok )
+    {
+        this.total++;
+        if ( ok )
+            return;
+
+        if ( this.failures++ < REPORTED )
+            System.out.println( "FAILED " + what );
+    }
+
+    /**
+     * Prints the summary and exits with status 1 after a failure.
+     */
+    void finish()
+    {
+        System.out.printf( "%s: %d checks, %d failed%n", this.name, this.total, this.failures );
+        if ( this.failures > 0 )
+            System.exit( 1 );
+    }
+
+    static boolean matches( double expected, double actual )
+    {
+        return expected == actual || Math.abs( expected - actual ) <= TOLERANCE;
+    }
+
+    /**
+     * @param result: paths found by A*, best first
+     * @return cost of the best path, infinity if none was found
+     */
+    static double cost( List<AStar.AStarNode> result )
+    {
+        return result.isEmpty() ? Double.POSITIVE_INFINITY : result.get( 0 ).getCost();
+    }
+
+    /**
+     * @param g
+     * @param path: map nodes
+     * @return sum of the arc weights along path, infinity if two
+     *         consecutive nodes are not joined by an arc in that direction
+     */
+    static double pathCost( CompactGraph g, List<Node> path )
+    {
+        double cost = 0;
+
+        for ( int i = 1; i < path.size(); i++ )
+        {
+            int arc = g.findArc( path.get( i - 1 ).getIndex(), path.get( i ).getIndex() );
+            if ( arc < 0 )
+                return Double.POSITIVE_INFINITY;
+            cost += g.getWeight( arc );
+        }
+        return cost;
+    }
+
+    /**
+     * @param g
+     * @param weights: current weights, null for the weights of g
+     * @param source
+     * @param target
+     * @return cost of the shortest route from source to target, infinity if there is none
+     */
+    static double cost( CompactGraph g, WeightOverlay.Version weights, RoadPosition source, RoadPosition target )
+    {
+        double distance[] = distances( g, weights, source );
+        double best       = Double.POSITIVE_INFINITY;
+
+        for ( int end : new int[]{ target.getFrom(), target.getTo() } )
+        {
+            double partial = target.getCostFrom( end, g );
+            if ( partial > 0 )
+                partial *= scale( weights, end, target.getOtherEnd( end ) );
+            best = Math.min( best, distance[end] + partial );
+        }
+        if ( source.isOnSameSegment( target ) )
+        {
+            int    heading = source.getHeadingTo( target );
+            double direct  = source.getDirectCost( target, g );
+            if ( direct > 0 )
+                direct *= scale( weights, source.getOtherEnd( heading ), heading );
+            best = Math.min( best, direct );
+        }
+        return best;
+    }
+
+    /**
+     * @param g
+     * @param weights: current weights, null for the weights of g
+     * @param source
+     * @return cost from source to every node index, infinity for unreachable nodes
+     */
+    static double[] distances( CompactGraph g, WeightOverlay.Version weights, RoadPosition source )
+    {
+        double                  distance[] = new double[g.getNodeCount()];
+        PriorityQueue<double[]> queue      = new PriorityQueue<double[]>( ( a, b ) -> Double.compare( a[0], b[0] ) );
+
+        Arrays.fill( distance, Double.POSITIVE_INFINITY );
+        for ( int end : new int[]{ source.getFrom(), source.getTo() } )
+        {
+            double partial = source.getCostTo( end, g );
+            if ( partial > 0 )
+                partial *= scale( weights, source.getOtherEnd( end ), end );
+            if ( partial < distance[end] )
+            {
+                distance[end] = partial;
+                queue.add( new double[]{ partial, end } );
+            }
+        }
+
+        while ( !queue.isEmpty() )
+        {
+            double entry[] = queue.poll();
+            int    u       = ( int ) entry[1];
+            if ( entry[0] > distance[u] )
+                continue;
+
+            for ( int arc = g.firstArc( u ); arc < g.endArc( u ); arc++ )
+            {
+                double d = distance[u] + ( weights == null ? g.getWeight( arc ) : weights.getWeight( arc ) );
+                int    v = g.getTarget( arc );
+                if ( d < distance[v] )
+                {
+                    distance[v] = d;
+                    queue.add( new double[]{ d, v } );
+                }
+            }
+        }
+        return distance;
+    }
+
+    private static double scale( WeightOverlay.Version weights, int from, int to )
+    {
+        return weights == null ? 1 : weights.getScale( from, to );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares forward, reverse and automatic A* with the reference Dijkstra
+ * on a two-way and a one-way city: node queries to several taxis, queries
+ * between road positions and many-to-one queries. Paths of node queries
+ * must follow the arcs of the graph, never against a one-way road.
+ */
+public class DirectionCheck
+{
+    private static final int SIDE    = 25;
+    private static final int QUERIES = 60;
+
+    public static void main( String[] args )
+    {
+        Checks checks = new Checks( "search directions" );
+
+        for ( boolean oneway : new boolean[]{ false, true } )
+        {
+            Map          map    = Benchmark.createCityMap( SIDE, oneway );
+            CompactGraph g      = map.getCompactGraph();
+            String       city   = oneway ? "one-way" : "two-way";
+            Random       random = new Random( oneway ? 5 : 3 );
+
+            for ( AStar.SearchDirection direction : AStar.SearchDirection.values() )
+            {
+                AStar aStar = new AStar( AStar.HeuristicType.EuclideanDistance, direction );
+
+                for ( int q = 0; q < QUERIES; q++ )
+                {
+                    String         client[] = Benchmark.randomPosition( random, SIDE, "c" );
+                    List<String[]> taxis    = new ArrayList<String[]>();
+                    for ( int i = 1 + random.nextInt( 4 ); i > 0; i-- )
+                    {
+                        taxis.add( Benchmark.randomPosition( random, SIDE, "t" + i ) );
+                    }
+                    String what = city + " " + direction + " query " + q;
+
+                    // node query
+                    Node       start    = map.locateClient( client );
+                    List<Node> goals    = map.locateTaxis( taxis );
+                    double     expected = Double.POSITIVE_INFINITY;
+                    for ( Node goal : goals )
+                    {
+                        expected = Math.min( expected, Checks.cost( g, null, RoadPosition.of( start ), RoadPosition.of( goal ) ) );
+                    }
+                    List<AStar.AStarNode> result = aStar.findPaths( start, goals, g, AStar.SearchType.strict );
+                    checks.expect( what + " nodes", expected, Checks.cost( result ) );
+                    if ( !result.isEmpty() )
+                        checks.expect( what + " node path", expected, Checks.pathCost( g, result.get( 0 ).getPathToNode() ) );
+
+                    // road positions
+                    RoadPosition       from    = map.locateClientOnRoad( client );
+                    List<RoadPosition> targets = map.locateTaxisOnRoad( taxis );
+                    expected = Double.POSITIVE_INFINITY;
+                    for ( RoadPosition target : targets )
+                    {
+                        expected = Math.min( expected, Checks.cost( g, null, from, target ) );
+                    }
+                    checks.expect( what + " positions", expected, Checks.cost( aStar.findPaths( from, targets, g, AStar.SearchType.strict ) ) );
+
+                    // taxis to the client
+                    expected = Double.POSITIVE_INFINITY;
+                    for ( RoadPosition source : targets )
+                    {
+                        expected = Math.min( expected, Checks.cost( g, null, source, from ) );
+                    }
+                    checks.expect( what + " many to one", expected, Checks.cost( aStar.findPathsTo( targets, from, g ) ) );
+                }
+            }
+        }
+        checks.finish();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the contraction hierarchy with the reference Dijkstra on a
+ * two-way and a one-way city: point to point routes and their paths,
+ * PHAST sweeps from a client to the fleet and bucket cost matrices, next
+ * to the one-to-many Dijkstra searches they replace.
+ */
+public class HierarchyCheck
+{
+    private static final int SIDE    = 25;
+    private static final int QUERIES = 100;
+    private static final int FLEET   = 40;
+
+    public static void main( String[] args )
+    {
+        Checks checks = new Checks( "contraction hierarchy" );
+
+        for ( boolean oneway : new boolean[]{ false, true } )
+        {
+            Map                  map    = Benchmark.createCityMap( SIDE, oneway );
+            CompactGraph         g      = map.getCompactGraph();
+            ContractionHierarchy ch     = ContractionHierarchy.build( g );
+            String               city   = oneway ? "one-way" : "two-way";
+            Random               random = new Random( oneway ? 17 : 13 );
+
+            for ( int q = 0; q < QUERIES; q++ )
+            {
+                Node   start    = map.locateClient( Benchmark.randomPosition( random, SIDE, "c" ) );
+                Node   goal     = map.locateTaxis( Collections.singletonList( Benchmark.randomPosition( random, SIDE, "t" ) ) ).get( 0 );
+                double expected = Checks.cost( g, null, RoadPosition.of( start ), RoadPosition.of( goal ) );
+                Route  route    = ch.route( start, Collections.singletonList( goal ) );
+
+                checks.expect( city + " route " + q, expected, route == null ? Double.POSITIVE_INFINITY : route.getCost() );
+                if ( route != null )
+                    checks.expect( city + " route path " + q, expected, Checks.pathCost( g, route.getPath() ) );
+            }
+
+            List<String[]> taxis = new ArrayList<String[]>();
+            for ( int i = 0; i < FLEET; i++ )
+            {
+                taxis.add( Benchmark.randomPosition( random, SIDE, "t" + i ) );
+            }
+            List<RoadPosition> fleet   = map.locateTaxisOnRoad( taxis );
+            List<RoadPosition> clients = new ArrayList<RoadPosition>();
+            for ( int c = 0; c < 10; c++ )
+            {
+                clients.add( map.locateClientOnRoad( Benchmark.randomPosition( random, SIDE, "c" + c ) ) );
+            }
+
+            CostMatrix buckets  = ch.costs( clients, fleet, CostMatrix.allocate( clients.size(), fleet.size() ) );
+            CostMatrix searched = CostMatrix.compute( g, clients, fleet, CostMatrix.allocate( clients.size(), fleet.size() ) );
+
+            for ( int c = 0; c < clients.size(); c++ )
+            {
+                CostTable sweep = ch.costs( clients.get( c ), fleet );
+                CostTable table = Dijkstra.oneToMany( g, clients.get( c ), fleet );
+
+                for ( int t = 0; t < fleet.size(); t++ )
+                {
+                    double expected = Checks.cost( g, null, clients.get( c ), fleet.get( t ) );
+                    String what     = city + " client " + c + " taxi " + t;
+
+                    checks.expect( what + " PHAST", expected, sweep.getCost( t ) );
+                    checks.expect( what + " buckets", expected, buckets.get( c, t ) );
+                    checks.expect( what + " one-to-many", expected, table.getCost( t ) );
+                    checks.expect( what + " matrix", expected, searched.get( c, t ) );
+                }
+            }
+        }
+        checks.finish();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares A* with the landmark heuristic, computed and reloaded from a
+ * file, with plain A* on a two-way and a one-way city, in every search
+ * direction.
+ */
+public class LandmarksCheck
+{
+    private static final int SIDE    = 25;
+    private static final int QUERIES = 60;
+
+    public static void main( String[] args ) throws IOException
+    {
+        Checks checks = new Checks( "landmarks" );
+
+        for ( boolean oneway : new boolean[]{ false, true } )
+        {
+            Map          map      = Benchmark.createCityMap( SIDE, oneway );
+            CompactGraph g        = map.getCompactGraph();
+            String       city     = oneway ? "one-way" : "two-way";
+            Random       random   = new Random( oneway ? 23 : 19 );
+            Landmarks    computed = Landmarks.compute( g, 8 );
+            Path         file     = Files.createTempFile( "landmarks", ".alt" );
+
+            computed.save( file );
+            Landmarks loaded = Landmarks.load( file, g );
+            Files.delete( file );
+
+            AStar plain = new AStar( AStar.HeuristicType.EuclideanDistance );
+
+            for ( Landmarks landmarks : new Landmarks[]{ computed, loaded } )
+            {
+                for ( AStar.SearchDirection direction : AStar.SearchDirection.values() )
+                {
+                    AStar  alt  = new AStar( AStar.HeuristicType.Landmarks, direction, landmarks );
+                    String what = city + ( landmarks == loaded ? " loaded " : " computed " ) + direction;
+
+                    for ( int q = 0; q < QUERIES; q++ )
+                    {
+                        Node       start = map.locateClient( Benchmark.randomPosition( random, SIDE, "c" ) );
+                        List<Node> goal  = map.locateTaxis( Collections.singletonList( Benchmark.randomPosition( random, SIDE, "t" ) ) );
+
+                        checks.expect( what + " nodes " + q, Checks.cost( plain.findPaths( start, goal, g, AStar.SearchType.strict ) ),
+                                       Checks.cost( alt.findPaths( start, goal, g, AStar.SearchType.strict ) ) );
+
+                        RoadPosition       from = map.locateClientOnRoad( Benchmark.randomPosition( random, SIDE, "c" ) );
+                        List<RoadPosition> to   = map.locateTaxisOnRoad( Collections.singletonList( Benchmark.randomPosition( random, SIDE, "t" ) ) );
+
+                        checks.expect( what + " positions " + q, Checks.cost( plain.findPaths( from, to, g, AStar.SearchType.strict ) ),
+                                       Checks.cost( alt.findPaths( from, to, g, AStar.SearchType.strict ) ) );
+                    }
+                }
+            }
+        }
+        checks.finish();
+    }
+}
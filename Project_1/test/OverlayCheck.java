@@ -0,0 +1,83 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Publishes random closures, congestion factors, fixed weights and resets
+ * on a weight overlay and compares A* on the overlay, in every search
+ * direction, with the reference Dijkstra on the published weights.
+ */
+public class OverlayCheck
+{
+    private static final int SIDE     = 25;
+    private static final int VERSIONS = 8;
+    private static final int QUERIES  = 10;
+
+    public static void main( String[] args )
+    {
+        Checks checks = new Checks( "weight overlay" );
+
+        for ( boolean oneway : new boolean[]{ false, true } )
+        {
+            Map           map     = Benchmark.createCityMap( SIDE, oneway );
+            CompactGraph  g       = map.getCompactGraph();
+            WeightOverlay overlay = new WeightOverlay( g );
+            String        city    = oneway ? "one-way" : "two-way";
+            Random        random  = new Random( oneway ? 7 : 3 );
+
+            for ( int round = 0; round < VERSIONS; round++ )
+            {
+                overlay.resetAll();
+                for ( int c = 0; c < g.getNodeCount() / 5; c++ )
+                {
+                    int v = random.nextInt( g.getNodeCount() );
+                    if ( g.firstArc( v ) == g.endArc( v ) )
+                        continue;
+
+                    int w = g.getTarget( g.firstArc( v ) + random.nextInt( g.endArc( v ) - g.firstArc( v ) ) );
+                    switch ( random.nextInt( 4 ) )
+                    {
+                        case 0:
+                            overlay.close( v, w );
+                            break;
+
+                        case 1:
+                            overlay.setFactor( v, w, 1 + 4 * random.nextDouble() );
+                            break;
+
+                        case 2:
+                            overlay.setWeight( v, w, 100 * random.nextDouble() );
+                            break;
+
+                        default:
+                            overlay.reset( v, w );
+                    }
+                }
+                WeightOverlay.Version weights = overlay.publish();
+
+                for ( AStar.SearchDirection direction : AStar.SearchDirection.values() )
+                {
+                    AStar aStar = new AStar( AStar.HeuristicType.EuclideanDistance, direction, null, overlay );
+
+                    for ( int q = 0; q < QUERIES; q++ )
+                    {
+                        RoadPosition from = map.locateClientOnRoad( Benchmark.randomPosition( random, SIDE, "c" ) );
+                        RoadPosition to   = map.locateClientOnRoad( Benchmark.randomPosition( random, SIDE, "t" ) );
+
+                        checks.expect( city + " version " + weights.getVersion() + " " + direction + " query " + q,
+                                       Checks.cost( g, weights, from, to ),
+                                       Checks.cost( aStar.findPaths( from, Collections.singletonList( to ), g, AStar.SearchType.strict ) ) );
+                    }
+                }
+            }
+        }
+        checks.finish();
+    }
+}
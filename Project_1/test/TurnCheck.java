@@ -0,0 +1,201 @@
+/*
+ * National Technical University of Athens
+ * Artificial Intelligence, Project I
+ *
+ * Author: Michael Beyer
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Lists random turn costs and forbidden turns at the crossings of a
+ * two-way and a one-way city and compares the edge based A* searches with
+ * a reference Dijkstra over (arrival arc, node) states. A search with an
+ * empty turn table must find the costs of plain A*.
+ */
+public class TurnCheck
+{
+    private static final int SIDE    = 20;
+    private static final int QUERIES = 100;
+
+    public static void main( String[] args )
+    {
+        Checks checks = new Checks( "turn costs" );
+
+        for ( boolean oneway : new boolean[]{ false, true } )
+        {
+            Map          map       = Benchmark.createCityMap( SIDE, oneway );
+            CompactGraph g         = map.getCompactGraph();
+            String       city      = oneway ? "one-way" : "two-way";
+            Random       random    = new Random( oneway ? 5 : 3 );
+            TurnCosts    turns     = randomTurns( g, random );
+            TurnCosts    none      = new TurnCosts( g, new int[0], new int[0], new double[0] );
+            AStar        plain     = new AStar( AStar.HeuristicType.EuclideanDistance );
+            AStar        empty     = new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.forward, null, null, none );
+            AStar        engines[] = { new AStar( AStar.HeuristicType.EuclideanDistance, AStar.SearchDirection.forward, null, null, turns ),
+                                       new AStar( AStar.HeuristicType.Landmarks, AStar.SearchDirection.reverse, Landmarks.compute( g, 8 ), null, turns ) };
+
+            for ( int q = 0; q < QUERIES; q++ )
+            {
+                AStar          aStar    = engines[q % engines.length];
+                String         what     = city + " query " + q;
+                String         client[] = Benchmark.randomPosition( random, SIDE, "c" );
+                List<String[]> taxis    = new ArrayList<String[]>();
+                for ( int i = 1 + random.nextInt( 3 ); i > 0; i-- )
+                {
+                    taxis.add( Benchmark.randomPosition( random, SIDE, "t" + i ) );
+                }
+
+                Node       start    = map.locateClient( client );
+                List<Node> goals    = map.locateTaxis( taxis );
+                double     expected = Double.POSITIVE_INFINITY;
+                for ( Node goal : goals )
+                {
+                    expected = Math.min( expected, cost( g, turns, RoadPosition.of( start ), RoadPosition.of( goal ) ) );
+                }
+                checks.expect( what + " nodes", expected, Checks.cost( aStar.findPaths( start, goals, g, AStar.SearchType.strict ) ) );
+
+                RoadPosition       from    = map.locateClientOnRoad( client );
+                List<RoadPosition> targets = map.locateTaxisOnRoad( taxis );
+                expected = Double.POSITIVE_INFINITY;
+                for ( RoadPosition target : targets )
+                {
+                    expected = Math.min( expected, cost( g, turns, from, target ) );
+                }
+                checks.expect( what + " positions", expected, Checks.cost( aStar.findPaths( from, targets, g, AStar.SearchType.strict ) ) );
+
+                expected = Double.POSITIVE_INFINITY;
+                for ( RoadPosition source : targets )
+                {
+                    expected = Math.min( expected, cost( g, turns, source, from ) );
+                }
+                checks.expect( what + " many to one", expected, Checks.cost( aStar.findPathsTo( targets, from, g ) ) );
+
+                checks.expect( what + " empty table", Checks.cost( plain.findPaths( from, targets, g, AStar.SearchType.strict ) ),
+                               Checks.cost( empty.findPaths( from, targets, g, AStar.SearchType.strict ) ) );
+            }
+        }
+        checks.finish();
+    }
+
+    /**
+     * @param g
+     * @param random
+     * @return turns at 40% of the crossings, a third of them forbidden
+     */
+    private static TurnCosts randomTurns( CompactGraph g, Random random )
+    {
+        List<int[]>  arcs  = new ArrayList<int[]>();
+        List<Double> costs = new ArrayList<Double>();
+
+        for ( int v = 0; v < g.getNodeCount(); v++ )
+        {
+            if ( g.endInArc( v ) - g.firstInArc( v ) < 3 || random.nextDouble() > 0.4 )
+                continue;
+
+            for ( int i = g.firstInArc( v ); i < g.endInArc( v ); i++ )
+            {
+                for ( int out = g.firstArc( v ); out < g.endArc( v ); out++ )
+                {
+                    int in = g.getInArc( i );
+                    if ( g.getWeight( in ) == 0 || g.getWeight( out ) == 0 || random.nextDouble() < 0.4 )
+                        continue;
+
+                    arcs.add( new int[]{ in, out } );
+                    costs.add( random.nextDouble() < 0.3 ? Double.POSITIVE_INFINITY : 80 * random.nextDouble() );
+                }
+            }
+        }
+
+        int    inArc[]  = new int[arcs.size()];
+        int    outArc[] = new int[arcs.size()];
+        double cost[]   = new double[arcs.size()];
+        for ( int t = 0; t < arcs.size(); t++ )
+        {
+            inArc[t] = arcs.get( t )[0];
+            outArc[t] = arcs.get( t )[1];
+            cost[t] = costs.get( t );
+        }
+        return new TurnCosts( g, inArc, outArc, cost );
+    }
+
+    /**
+     * Dijkstra over states of the arc a route arrived on and the node it
+     * arrived at, the arc -1 at the start node.
+     *
+     * @param g
+     * @param turns
+     * @param source
+     * @param target
+     * @return cost of the shortest route with turn costs, infinity if there is none
+     */
+    private static double cost( CompactGraph g, TurnCosts turns, RoadPosition source, RoadPosition target )
+    {
+        PriorityQueue<double[]> queue   = new PriorityQueue<double[]>( ( a, b ) -> Double.compare( a[0], b[0] ) );
+        HashSet<Long>           settled = new HashSet<Long>();
+        double                  best    = Double.POSITIVE_INFINITY;
+
+        if ( source.isOnSameSegment( target ) )
+            best = source.getDirectCost( target, g );
+
+        if ( !source.isVirtual() )
+            queue.add( new double[]{ 0, -1, source.getNode().getIndex() } );
+        else
+        {
+            for ( int end : new int[]{ source.getFrom(), source.getTo() } )
+            {
+                double partial = source.getCostTo( end, g );
+                if ( partial < Double.POSITIVE_INFINITY )
+                    queue.add( new double[]{ partial, g.findArc( source.getOtherEnd( end ), end ), end } );
+            }
+        }
+
+        while ( !queue.isEmpty() )
+        {
+            double state[] = queue.poll();
+            double c       = state[0];
+            int    arc     = ( int ) state[1];
+            int    v       = ( int ) state[2];
+
+            if ( c >= best )
+                break;
+            if ( !settled.add( ( long ) arc << 32 | v ) )
+                continue;
+
+            if ( !target.isVirtual() )
+            {
+                if ( g.getNode( v ).getPoint().equals( target.getNode().getPoint() ) )
+                    best = Math.min( best, c );
+            }
+            else if ( v == target.getFrom() || v == target.getTo() )
+            {
+                double partial = target.getCostFrom( v, g );
+                if ( partial < Double.POSITIVE_INFINITY )
+                    best = Math.min( best, c + turn( turns, arc, g.findArc( v, target.getOtherEnd( v ) ) ) + partial );
+            }
+
+            for ( int out = g.firstArc( v ); out < g.endArc( v ); out++ )
+            {
+                if ( g.getWeight( out ) == 0 )
+                    queue.add( new double[]{ c, arc, g.getTarget( out ) } );
+                else
+                {
+                    double turn = turn( turns, arc, out );
+                    if ( turn < Double.POSITIVE_INFINITY )
+                        queue.add( new double[]{ c + g.getWeight( out ) + turn, out, g.getTarget( out ) } );
+                }
+            }
+        }
+        return best;
+    }
+
+    private static double turn( TurnCosts turns, int in, int out )
+    {
+        return in < 0 ? 0 : turns.getCost( in, out );
+    }
+}